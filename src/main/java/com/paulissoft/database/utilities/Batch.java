@@ -0,0 +1,425 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Converts many workbooks in one run (batch mode), so the JVM starts and warms up once.
+ *
+ * The workbooks are given as spreadsheets, directories (the workbooks in it) or glob patterns (like data/*.xlsx),
+ * or in a file list (@files.txt, one argument per line). Each workbook is converted by a TableGenerator with settings
+ * of its own into a subdirectory of the output directory named after the workbook, so the SQL scripts and CSV files
+ * of different workbooks never clash.
+ *
+ * The workbooks are converted on a virtual thread each when the Java runtime has them (Java 21),
+ * else on a fixed thread pool. Either way no more than --batch-threads workbooks are converted at the same time.
+ * A workbook that fails does not stop the others: a summary of the timings and failures is printed at the end.
+ */
+class Batch {
+    /** The workbook extensions looked for in a directory. */
+    private static final List<String> EXTENSIONS = Arrays.asList(".xls", ".xlsx", ".xlsm", ".xlsb");
+
+    /** The characters that make an argument a glob pattern. */
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /** The prefix of the lock file Excel creates for an open workbook. */
+    private static final String LOCK_FILE_PREFIX = "~$";
+
+    /** The number of nanoseconds in a second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** The run-time settings (shared by the workbooks). */
+    private Settings settings = null;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings
+     */
+    Batch(final Settings pSettings) {
+        this.settings = pSettings;
+    }
+
+    /**
+     * Are the spreadsheet arguments a batch, i.e. more than one argument, a directory or a glob pattern
+     * (that is not the name of a file)?
+     *
+     * @param arguments  The spreadsheet arguments
+     *
+     * @return Is it a batch?
+     */
+    static boolean isBatch(final List<String> arguments) {
+        if (arguments.size() != 1) {
+            return arguments.size() > 1;
+        }
+
+        final File file = new File(arguments.get(0));
+
+        return file.isDirectory() || (!file.isFile() && isGlob(arguments.get(0)));
+    }
+
+    private static boolean isGlob(final String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(argument.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert the workbooks and print a summary.
+     *
+     * @throws IOException  When a workbook could not be converted (after all have been tried)
+     */
+    void execute() throws IOException {
+        final List<File> workbooks = findWorkbooks();
+
+        if (workbooks.isEmpty()) {
+            throw new IOException("No workbooks found in " + settings.spreadsheets);
+        }
+
+        final int nrThreads = Math.min(settings.batchThreads > 0
+                                       ? settings.batchThreads
+                                       : Runtime.getRuntime().availableProcessors(),
+                                       workbooks.size());
+        final Semaphore permits = new Semaphore(nrThreads);
+        final ExecutorService executor = newExecutor(nrThreads);
+        final List<Future<Result>> futures = new ArrayList<Future<Result>>();
+        final Set<String> outputDirs = new HashSet<String>();
+        final long start = System.nanoTime();
+
+        settings.info("Converting " + workbooks.size() + " workbooks, " + nrThreads + " at the same time");
+
+        try {
+            for (File workbook : workbooks) {
+                final Settings workbookSettings = settings.copy();
+                final File outputDir = new File(settings.getOutputDir(), uniqueName(workbook, outputDirs));
+
+                workbookSettings.spreadsheet = workbook.getPath();
+                workbookSettings.outputDir = outputDir.getPath();
+                if (settings.writeSchemaFile != null && !new File(settings.writeSchemaFile).isAbsolute()) {
+                    // a schema file per workbook
+                    workbookSettings.writeSchemaFile = new File(outputDir, settings.writeSchemaFile).getPath();
+                }
+
+                futures.add(executor.submit(new Callable<Result>() {
+                        @Override
+                        public Result call() throws InterruptedException {
+                            permits.acquire();
+                            try {
+                                return convert(workbookSettings);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    }));
+            }
+
+            final List<Result> results = new ArrayList<Result>();
+
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+
+            printSummary(results, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting the workbooks");
+        } catch (ExecutionException e) {
+            // convert() catches the exceptions of a workbook
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Create the executor: a virtual thread per task if the Java runtime has them, else a fixed thread pool.
+     *
+     * @param nrThreads  The number of workbooks to convert at the same time
+     *
+     * @return The executor
+     */
+    private ExecutorService newExecutor(final int nrThreads) {
+        try {
+            // Java 21 or later (this code is compiled for Java 8)
+            final ExecutorService executor =
+                (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+
+            settings.debug("Using virtual threads");
+
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(nrThreads);
+        }
+    }
+
+    /**
+     * Convert a workbook.
+     *
+     * @param workbookSettings  The settings of the workbook
+     *
+     * @return The result
+     */
+    private Result convert(final Settings workbookSettings) {
+        final Result result = new Result();
+        final long start = System.nanoTime();
+
+        result.workbook = workbookSettings.spreadsheet;
+        result.outputDir = workbookSettings.outputDir;
+        settings.info("Converting workbook " + result.workbook + " into " + result.outputDir);
+        try {
+            new TableGenerator(workbookSettings).execute();
+        } catch (Exception e) {
+            result.error = e;
+        }
+        result.nanos = System.nanoTime() - start;
+
+        return result;
+    }
+
+    /**
+     * Print the timing of each workbook and throw an error when a workbook failed.
+     *
+     * @param results  The results in the order of the workbooks
+     * @param nanos    The elapsed time of the batch
+     *
+     * @throws IOException  When a workbook failed
+     */
+    private void printSummary(final List<Result> results, final long nanos) throws IOException {
+        int nrFailed = 0;
+        long totalNanos = 0;
+
+        System.out.println("");
+        System.out.println("Batch summary:");
+        for (Result result : results) {
+            totalNanos += result.nanos;
+            if (result.error != null) {
+                nrFailed++;
+            }
+            System.out.println(String.format(Locale.ROOT, "%10.3f s  %-6s  %s -> %s%s",
+                                             result.nanos / NANOS_PER_SECOND,
+                                             result.error == null ? "OK" : "FAILED",
+                                             result.workbook,
+                                             result.outputDir,
+                                             result.error == null ? "" : " (" + result.error + ")"));
+        }
+        System.out.println(String.format(Locale.ROOT, "%d workbook(s), %d failed, %.3f s elapsed (%.3f s converting)",
+                                         results.size(),
+                                         nrFailed,
+                                         nanos / NANOS_PER_SECOND,
+                                         totalNanos / NANOS_PER_SECOND));
+
+        if (nrFailed > 0) {
+            throw new IOException(nrFailed + " of " + results.size() + " workbook(s) could not be converted");
+        }
+    }
+
+    /**
+     * Find the workbooks: the spreadsheet arguments, the workbooks in the directory arguments
+     * and the files matching the glob pattern arguments, each once and in that order.
+     *
+     * @return The workbooks
+     *
+     * @throws IOException  When an argument is neither a file, a directory nor a glob pattern
+     */
+    private List<File> findWorkbooks() throws IOException {
+        final List<File> workbooks = new ArrayList<File>();
+        final Set<File> found = new HashSet<File>();
+
+        for (String argument : settings.spreadsheets) {
+            final File file = new File(argument);
+            List<File> files;
+
+            if (file.isFile()) {
+                files = Arrays.asList(file);
+            } else if (file.isDirectory()) {
+                files = list(file.toPath(), 1, "glob:*");
+            } else if (isGlob(argument)) {
+                files = glob(argument);
+            } else {
+                throw new IOException("File '" + argument + "' does not exist or is not a regular file");
+            }
+            if (files.isEmpty()) {
+                System.out.println("WARNING: No workbooks found for " + argument);
+            }
+            for (File workbook : files) {
+                if (found.add(workbook.getAbsoluteFile())) {
+                    workbooks.add(workbook);
+                }
+            }
+        }
+
+        return workbooks;
+    }
+
+    /**
+     * Find the files matching a glob pattern, like data/*.xlsx or data/**.xls? (use / as separator).
+     * Only the directory part before the first glob character is searched.
+     *
+     * @param pattern  The glob pattern
+     *
+     * @return The files
+     */
+    private static List<File> glob(final String pattern) throws IOException {
+        int baseEnd = -1; // the last separator before the first glob character
+        int nrSeparators = 0; // after baseEnd
+
+        for (int i = 0; i < pattern.length(); i++) {
+            if (pattern.charAt(i) == '/' || pattern.charAt(i) == File.separatorChar) {
+                if (nrSeparators == 0 && !isGlob(pattern.substring(0, i))) {
+                    baseEnd = i;
+                } else {
+                    nrSeparators++;
+                }
+            }
+        }
+
+        final Path base = Paths.get(baseEnd < 0 ? "." : pattern.substring(0, baseEnd + 1));
+        final String relativePattern = pattern.substring(baseEnd + 1);
+        final List<File> files = new ArrayList<File>();
+
+        if (Files.isDirectory(base)) {
+            for (File file : list(base, relativePattern.contains("**") ? Integer.MAX_VALUE : nrSeparators + 1,
+                                  "glob:" + relativePattern)) {
+                // a relative pattern without directory gives files without ./
+                files.add(baseEnd < 0 ? base.relativize(file.toPath()).toFile() : file);
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * List the workbooks in a directory tree whose path relative to the directory matches a pattern.
+     *
+     * @param dir       The directory
+     * @param maxDepth  The maximum depth (1 for the files in the directory itself)
+     * @param pattern   The pattern (see FileSystem.getPathMatcher())
+     *
+     * @return The workbooks sorted by path
+     */
+    private static List<File> list(final Path dir, final int maxDepth, final String pattern) throws IOException {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher(pattern);
+        final List<Path> paths = new ArrayList<Path>();
+
+        try (Stream<Path> tree = Files.walk(dir, maxDepth)) {
+            final Iterator<Path> iterator = tree.iterator();
+
+            while (iterator.hasNext()) {
+                final Path path = iterator.next();
+
+                if (Files.isRegularFile(path) && isWorkbookName(path) && matcher.matches(dir.relativize(path))) {
+                    paths.add(path);
+                }
+            }
+        }
+        Collections.sort(paths);
+
+        final List<File> files = new ArrayList<File>();
+
+        for (Path path : paths) {
+            files.add(path.toFile());
+        }
+
+        return files;
+    }
+
+    /**
+     * Is this the name of a workbook (and not of the lock file of an open workbook)?
+     *
+     * @param path  The path
+     *
+     * @return Is it a workbook name?
+     */
+    static boolean isWorkbookName(final Path path) {
+        final String name = path.getFileName().toString();
+        final int dot = name.lastIndexOf('.');
+
+        return !name.startsWith(LOCK_FILE_PREFIX)
+            && dot > 0
+            && EXTENSIONS.contains(name.substring(dot).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The output directory name of a workbook: its file name without extension,
+     * followed by -2, -3, ... when another workbook has the same name.
+     *
+     * @param workbook  The workbook
+     * @param names     The names used till now (in lower case)
+     *
+     * @return The name
+     */
+    private static String uniqueName(final File workbook, final Set<String> names) {
+        final String baseName = baseName(workbook);
+        String name = baseName;
+
+        for (int n = 2; !names.add(name.toLowerCase(Locale.ROOT)); n++) {
+            name = baseName + "-" + n;
+        }
+
+        return name;
+    }
+
+    /**
+     * The file name of a workbook without extension.
+     *
+     * @param workbook  The workbook
+     *
+     * @return The name
+     */
+    static String baseName(final File workbook) {
+        final String fileName = workbook.getName();
+        final int dot = fileName.lastIndexOf('.');
+
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    /**
+     * The result of converting a workbook.
+     */
+    private static final class Result {
+        /** The workbook. */
+        private String workbook = null;
+
+        /** The output directory. */
+        private String outputDir = null;
+
+        /** The elapsed time in nanoseconds. */
+        private long nanos = 0;
+
+        /** The error or null if the workbook has been converted. */
+        private Throwable error = null;
+    }
+}
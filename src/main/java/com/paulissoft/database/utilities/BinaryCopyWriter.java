@@ -0,0 +1,319 @@
+package com.paulissoft.database.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a file in the binary format of the PostgreSQL COPY command (see --copy-format binary):
+ * the PGCOPY header, a tuple per row and the trailer.
+ *
+ * Each field is written in the binary format of the SQL type of its column (see TableColumn.getSqlType()),
+ * so the server does not have to parse text: a string as its UTF-8 bytes, a number as a numeric
+ * (base 10000 digits, converted from the raw decimal) and a date as the number of days since 2000-01-01.
+ * An empty value is written as NULL.
+ *
+ * With --compression gzip the file is compressed while writing.
+ */
+class BinaryCopyWriter implements Closeable {
+    /** A text field (VARCHAR). */
+    static final byte TEXT = 0;
+
+    /** A numeric field (DECIMAL). */
+    static final byte NUMERIC = 1;
+
+    /** A date field (DATE). */
+    static final byte DATE = 2;
+
+    /** The signature that starts the header. */
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    /** The size of the output buffer. */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /** The size of the output buffer of a partition file, since the files of all partitions are open at the same time. */
+    private static final int PARTITION_BUFFER_SIZE = 32 * 1024;
+
+    /** The number of decimal digits in a numeric digit. */
+    private static final int DEC_DIGITS = 4;
+
+    /** The radix of a decimal. */
+    private static final int RADIX = 10;
+
+    /** The sign of a negative numeric. */
+    private static final int NUMERIC_NEG = 0x4000;
+
+    /** The size of the numeric header: the number of digits, the weight, the sign and the display scale. */
+    private static final int NUMERIC_HEADER_SIZE = 4 * Short.BYTES;
+
+    /** The epoch day of 2000-01-01, the PostgreSQL epoch. */
+    private static final long POSTGRES_EPOCH_DAY = 10957L;
+
+    /** The offset of the month in a yyyy-MM-dd date. */
+    private static final int MONTH_OFFSET = 5;
+
+    /** The offset of the day in a yyyy-MM-dd date. */
+    private static final int DAY_OFFSET = 8;
+
+    /** The length of a yyyy-MM-dd date. */
+    private static final int DATE_LENGTH = 10;
+
+    /** The file name (for the messages). */
+    private final String fileName;
+
+    /** The output. */
+    private final DataOutputStream out;
+
+    /** The number of bytes written, before compression. */
+    private long size = 0;
+
+    /** The numeric digits (base 10000) of the last number. */
+    private short[] digits = new short[DEC_DIGITS];
+
+    /**
+     * The constructor: create the file, or write to stdout, and write the header.
+     *
+     * @param pFileName  The file name (for the messages only when writing to stdout)
+     * @param stdout     Write to stdout (see --pipe) instead of the file?
+     * @param gzip       Compress the file with gzip (see --compression)?
+     *
+     * @throws IOException  When the file can not be created
+     */
+    BinaryCopyWriter(final String pFileName, final boolean stdout, final boolean gzip) throws IOException {
+        this(pFileName, stdout, gzip, false);
+    }
+
+    /**
+     * The constructor: create the file, or write to stdout, and write the header.
+     *
+     * @param pFileName  The file name (for the messages only when writing to stdout)
+     * @param stdout     Write to stdout (see --pipe) instead of the file?
+     * @param gzip       Compress the file with gzip (see --compression)?
+     * @param partition  Is this the file of a partition (see --partition-column), with smaller buffers?
+     *
+     * @throws IOException  When the file can not be created
+     */
+    BinaryCopyWriter(final String pFileName, final boolean stdout, final boolean gzip, final boolean partition)
+        throws IOException {
+        final int bufferSize = (partition ? PARTITION_BUFFER_SIZE : BUFFER_SIZE);
+        final OutputStream file;
+
+        this.fileName = pFileName;
+        if (stdout) {
+            file = new FileOutputStream(FileDescriptor.out);
+        } else if (gzip) {
+            file = new GZIPOutputStream(new FileOutputStream(fileName), bufferSize);
+        } else {
+            file = new FileOutputStream(fileName);
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(file, bufferSize));
+        out.write(SIGNATURE);
+        out.writeInt(0); // flags
+        out.writeInt(0); // header extension length
+        size = SIGNATURE.length + 2 * Integer.BYTES;
+    }
+
+    /**
+     * Get the field type of a table column.
+     *
+     * @param column  The table column
+     *
+     * @return TEXT, NUMERIC or DATE
+     */
+    static byte getType(final TableColumn column) {
+        final Class<?> javaType = column.getJavaType();
+
+        if (javaType == BigDecimal.class) {
+            return NUMERIC;
+        } else if (javaType == LocalDate.class) {
+            return DATE;
+        } else {
+            return TEXT;
+        }
+    }
+
+    /**
+     * Start a tuple.
+     *
+     * @param nrFields  The number of fields
+     *
+     * @throws IOException  When the file can not be written
+     */
+    void startTuple(final int nrFields) throws IOException {
+        out.writeShort(nrFields);
+        size += Short.BYTES;
+    }
+
+    /**
+     * Write a NULL field.
+     *
+     * @throws IOException  When the file can not be written
+     */
+    void writeNull() throws IOException {
+        writeLength(-1);
+    }
+
+    /**
+     * Write a field.
+     *
+     * @param value  The plain value (a decimal for NUMERIC, yyyy-MM-dd for DATE), NULL if empty
+     * @param type   The field type (TEXT, NUMERIC or DATE)
+     *
+     * @throws IOException  When the file can not be written
+     */
+    void writeField(final String value, final byte type) throws IOException {
+        if (value == null || value.isEmpty()) {
+            writeNull();
+            return;
+        }
+
+        switch (type) {
+        case NUMERIC:
+            writeNumeric(value);
+            break;
+
+        case DATE:
+            writeDate(value);
+            break;
+
+        default:
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+            writeLength(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Get the number of bytes written, before compression.
+     *
+     * @return The size
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Write the trailer and close the file (writing the gzip trailer).
+     *
+     * @throws IOException  When the file can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeShort(-1);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write the length of a field, that precedes its bytes.
+     *
+     * @param length  The number of bytes of the field or -1 for NULL
+     *
+     * @throws IOException  When the file can not be written
+     */
+    private void writeLength(final int length) throws IOException {
+        out.writeInt(length);
+        size += Integer.BYTES + Math.max(length, 0);
+    }
+
+    /**
+     * Write a decimal as a numeric: the digits in base 10000 with the weight of the first one,
+     * without leading and trailing zero digits, the sign and the number of decimals (display scale).
+     *
+     * @param value  The decimal
+     *
+     * @throws IOException  When the file can not be written or the value is not a decimal
+     */
+    private void writeNumeric(final String value) throws IOException {
+        final boolean negative = value.charAt(0) == '-';
+        String decimal = (negative || value.charAt(0) == '+' ? value.substring(1) : value);
+
+        if (decimal.indexOf('E') >= 0 || decimal.indexOf('e') >= 0) {
+            decimal = new BigDecimal(decimal).toPlainString();
+        }
+
+        final int point = decimal.indexOf('.');
+        final int intLength = (point >= 0 ? point : decimal.length());
+        final int fracLength = (point >= 0 ? decimal.length() - point - 1 : 0);
+        final int intDigits = (intLength + DEC_DIGITS - 1) / DEC_DIGITS;
+        final int nrDigits = intDigits + (fracLength + DEC_DIGITS - 1) / DEC_DIGITS;
+
+        if (digits.length < nrDigits) {
+            digits = new short[nrDigits];
+        }
+
+        final int pad = intDigits * DEC_DIGITS - intLength;
+
+        for (int d = 0; d < nrDigits; d++) {
+            int digit = 0;
+
+            for (int i = 0; i < DEC_DIGITS; i++) {
+                // the integer part is aligned to the right, the fraction to the left
+                final int index = (d < intDigits
+                                   ? d * DEC_DIGITS + i - pad
+                                   : point + 1 + (d - intDigits) * DEC_DIGITS + i);
+                final char ch = ((d < intDigits ? index >= 0 : index < decimal.length()) ? decimal.charAt(index) : '0');
+
+                if (ch < '0' || ch > '9') {
+                    throw new IOException("Value '" + value + "' for file " + fileName + " is not a number");
+                }
+                digit = digit * RADIX + (ch - '0');
+            }
+            digits[d] = (short) digit;
+        }
+
+        int first = 0;
+        int last = nrDigits;
+
+        while (first < last && digits[first] == 0) {
+            first++;
+        }
+        while (last > first && digits[last - 1] == 0) {
+            last--;
+        }
+
+        writeLength(NUMERIC_HEADER_SIZE + (last - first) * Short.BYTES);
+        out.writeShort(last - first);
+        out.writeShort(first < last ? intDigits - 1 - first : 0); // weight
+        out.writeShort(negative && first < last ? NUMERIC_NEG : 0);
+        out.writeShort(fracLength); // display scale
+        for (int d = first; d < last; d++) {
+            out.writeShort(digits[d]);
+        }
+    }
+
+    /**
+     * Write a yyyy-MM-dd date as the number of days since 2000-01-01.
+     *
+     * @param value  The date
+     *
+     * @throws IOException  When the file can not be written or the value is not a date
+     */
+    private void writeDate(final String value) throws IOException {
+        final LocalDate date;
+
+        try {
+            date = (value.length() == DATE_LENGTH
+                    ? LocalDate.of(Integer.parseInt(value.substring(0, MONTH_OFFSET - 1)),
+                                   Integer.parseInt(value.substring(MONTH_OFFSET, DAY_OFFSET - 1)),
+                                   Integer.parseInt(value.substring(DAY_OFFSET)))
+                    : LocalDate.parse(value));
+        } catch (RuntimeException e) {
+            throw new IOException("Value '" + value + "' for file " + fileName + " is not a date", e);
+        }
+
+        writeLength(Integer.BYTES);
+        out.writeInt((int) (date.toEpochDay() - POSTGRES_EPOCH_DAY));
+    }
+}
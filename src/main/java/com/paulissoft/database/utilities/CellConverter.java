@@ -0,0 +1,414 @@
+package com.paulissoft.database.utilities;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * Converts cell values to CSV values and updates the lengths of the table column of each value.
+ *
+ * A date is rendered as yyyy-MM-dd straight into a character buffer (the last date is cached).
+ * A number is formatted as its cell style does, unless the raw numbers are asked for (--raw-numbers):
+ * then it is rendered into the character buffer as the shortest decimal that parses back to the same number,
+ * counting its length and precision while writing.
+ *
+ * A cell converter is not thread safe (the POI DataFormatter is not),
+ * so each thread that converts cells needs a converter of its own (see RowConverter).
+ */
+class CellConverter {
+    /** The radix of a number. */
+    private static final int RADIX = 10;
+
+    /** The powers of ten that are exact doubles. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    /** The integers below are exact doubles. */
+    private static final double MAX_EXACT_INTEGER = 0x1p53;
+
+    /** The size of the character buffer: enough for a sign, 20 digits and a decimal point. */
+    private static final int MAX_LENGTH = 32;
+
+    /** The first Excel day after the non-existing 29th of February 1900. */
+    private static final int FIRST_DAY_AFTER_1900_02_29 = 61;
+
+    /** The epoch day of the 1st of January 1900. */
+    private static final long EPOCH_DAY_1900_01_01 = -25567L;
+
+    /** The minimum number of digits of a year. */
+    private static final int DATE_YEAR_DIGITS = 4;
+
+    /** The number of digits of a month or a day. */
+    private static final int DATE_FIELD_DIGITS = 2;
+
+    /** A half, to round. */
+    private static final double HALF = 0.5;
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The enclosure string. */
+    private String enclosure = null;
+
+    /** The field separator. */
+    private String separator = null;
+
+    /** The enclosure string if it is one character. */
+    private char enclosureChar = 0;
+
+    /** The field separator if it is one character. */
+    private char separatorChar = 0;
+
+    /** The data formatter. */
+    private DataFormatter dataFormatter = new DataFormatter();
+
+    /** The character buffer to render a value in. */
+    private final char[] chars = new char[MAX_LENGTH];
+
+    /** The epoch day of the last date rendered. */
+    private long lastEpochDay = Long.MIN_VALUE;
+
+    /** The last date rendered. */
+    private final char[] dateChars = new char[MAX_LENGTH];
+
+    /** The length of the last date rendered. */
+    private int lastDateLength = 0;
+
+    /** The length of the last number formatted or rendered: its number of characters without the decimal point. */
+    private int numericLength = 0;
+
+    /** The precision of the last number formatted or rendered: its number of fraction digits. */
+    private int numericPrecision = 0;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings
+     * @param pTable     The table (for the field separator and the enclosure string)
+     */
+    CellConverter(final Settings pSettings, final Table pTable) {
+        this.settings = pSettings;
+        this.enclosure = pTable.getEnclosureString();
+        this.separator = pTable.getFieldSeparator();
+        if (enclosure.length() == 1 && separator.length() == 1) {
+            this.enclosureChar = enclosure.charAt(0);
+            this.separatorChar = separator.charAt(0);
+        }
+    }
+
+    /**
+     * Format a number as Excel would display it.
+     *
+     * @param value         The number
+     * @param formatIndex   The format index
+     * @param formatString  The format string
+     *
+     * @return The formatted number
+     */
+    String formatRawCellContents(final double value, final int formatIndex, final String formatString) {
+        return dataFormatter.formatRawCellContents(value, formatIndex, formatString);
+    }
+
+    /**
+     * Enclose a value when necessary, doubling the enclosure strings in it.
+     * See https://en.wikipedia.org/wiki/Comma-separated_values.
+     *
+     * For a single character enclosure string and field separator (nearly always)
+     * the value is scanned once and only copied when it needs to be enclosed.
+     *
+     * @param value  The value
+     *
+     * @return The CSV value
+     */
+    String getCsvValue(final String value) {
+        if (enclosure.isEmpty()) {
+            return value; // can not be enclosed
+        } else if (enclosure.length() > 1 || separator.length() > 1) {
+            return getCsvValueSlow(value);
+        }
+
+        int nrEnclosures = 0;
+        boolean enclose = false;
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == enclosureChar) {
+                nrEnclosures++;
+            } else if (c == separatorChar || c == '\n' || c == '\r') {
+                // ERROR:  unquoted newline found in data
+                enclose = true;
+            }
+        }
+
+        if (nrEnclosures == 0 && !enclose) {
+            return value;
+        }
+
+        final StringBuilder csvValue = new StringBuilder(value.length() + nrEnclosures + 2);
+
+        csvValue.append(enclosureChar);
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == enclosureChar) {
+                csvValue.append(enclosureChar);
+            }
+            csvValue.append(c);
+        }
+        csvValue.append(enclosureChar);
+
+        return csvValue.toString();
+    }
+
+    private String getCsvValueSlow(final String value) {
+        if (value.contains(enclosure)
+            || value.contains(separator)
+            || value.contains("\n")
+            || value.contains("\r")) {
+            return enclosure + value.replace(enclosure, enclosure + enclosure) + enclosure;
+        }
+
+        return value;
+    }
+
+    String getStringValue(final String value, final TableColumn col) {
+        col.setStringLength(value.length());
+
+        if (value != null && value.length() > 0) {
+            settings.debug("getStringValue for column '" + col.getName()
+                           + "', value '" + value + "'"
+                           + "', length " + col.getStringLength());
+        }
+
+        return value;
+    }
+
+    String getNumericValue(final double numericValue, final StyleFormat format, final TableColumn col) {
+        final String formatString = format.getFormatString();
+        String value = null;
+
+        // Test if a date! See https://poi.apache.org/help/faq.html
+        final boolean isDate = format.isDate() && DateUtil.isValidExcelDate(numericValue);
+
+        if (isDate) {
+            value = new String(chars, 0, renderDate(numericValue));
+
+            col.setDateLength(value.length());
+
+            settings.debug("getNumericValue for date column '" + col.getName()
+                           + "', value '" + value
+                           + "', length " + col.getDateLength()
+                           + " and format " + formatString);
+        } else {
+            if (settings.rawNumbers || settings.isBinaryCopy()) {
+                value = renderNumber(numericValue);
+            } else {
+                value = formatNumber(numericValue, format);
+            }
+
+            // store the length first since it may be important in setType()
+            col.setNumericLength(numericLength);
+            col.setNumericPrecision(numericPrecision);
+
+            settings.debug("getNumericValue for numeric column '" + col.getName()
+                           + "', value '" + value
+                           + "', length " + col.getNumericLength()
+                           + ", precision " + col.getNumericPrecision()
+                           + " and format " + formatString);
+        }
+
+        return value;
+    }
+
+    /**
+     * Format a number as its cell style does, without the thousands separators and with a percentage as a fraction.
+     * Sets numericLength and numericPrecision.
+     *
+     * @param numericValue  The number
+     * @param format        The number format of the cell style
+     *
+     * @return The formatted number
+     */
+    private String formatNumber(final double numericValue, final StyleFormat format) {
+        String value = dataFormatter.formatRawCellContents(numericValue, format.getFormatIndex(), format.getFormatString());
+
+        // Remove trailing % and remove thousands separator (comma)
+        if (value.indexOf(',') >= 0) {
+            value = value.replace(",", "");
+        }
+
+        if (value.endsWith("%")) {
+            final int unit = 100;
+            // replace the percent symbol and divide by 100
+            value = Double.valueOf(Double.valueOf(value.replace("%", "")) / unit).toString();
+        }
+
+        final int point = value.indexOf('.');
+
+        numericLength = (point < 0 ? value.length() : value.length() - 1);
+        numericPrecision = (point < 0 ? 0 : value.length() - point - 1);
+
+        return value;
+    }
+
+    /**
+     * Render a number as the shortest decimal (without exponent) that parses back to the same double.
+     * Nearly always the digits are written into the character buffer directly. Sets numericLength and numericPrecision.
+     *
+     * @param numericValue  The number
+     *
+     * @return The number
+     */
+    private String renderNumber(final double numericValue) {
+        final double absValue = Math.abs(numericValue);
+        final int sign = (numericValue < 0 ? 1 : 0);
+
+        // the fewest fraction digits k such that an integer m / 10^k is the number
+        for (int k = 0; k < POWERS_OF_TEN.length; k++) {
+            final double scaled = absValue * POWERS_OF_TEN[k];
+
+            if (scaled >= MAX_EXACT_INTEGER) {
+                break;
+            }
+
+            final long m = Math.round(scaled);
+
+            if (m / POWERS_OF_TEN[k] == absValue) {
+                int length = 0;
+
+                if (sign > 0 && m != 0) {
+                    chars[length++] = '-';
+                }
+                length = writeDigits(m, k, length);
+
+                numericLength = length - (k > 0 ? 1 : 0);
+                numericPrecision = k;
+
+                return new String(chars, 0, length);
+            }
+        }
+
+        // very large or with many significant digits
+        final String value = BigDecimal.valueOf(numericValue).stripTrailingZeros().toPlainString();
+        final int point = value.indexOf('.');
+
+        numericLength = (point < 0 ? value.length() : value.length() - 1);
+        numericPrecision = (point < 0 ? 0 : value.length() - point - 1);
+
+        return value;
+    }
+
+    /**
+     * Write a number m / 10^k into the character buffer.
+     *
+     * @param m         The digits
+     * @param k         The number of fraction digits
+     * @param position  The position to write at
+     *
+     * @return The position after the number
+     */
+    private int writeDigits(final long m, final int k, final int position) {
+        int nrDigits = 1;
+
+        for (long rest = m / RADIX; rest > 0; rest /= RADIX) {
+            nrDigits++;
+        }
+
+        // at least one digit before the decimal point
+        final int nrIntegerDigits = Math.max(nrDigits - k, 1);
+        final int end = position + nrIntegerDigits + (k > 0 ? 1 + k : 0);
+        long rest = m;
+        int i = end;
+
+        for (int fractionDigit = 0; fractionDigit < k; fractionDigit++) {
+            chars[--i] = (char) ('0' + rest % RADIX);
+            rest /= RADIX;
+        }
+        if (k > 0) {
+            chars[--i] = '.';
+        }
+        while (i > position) {
+            chars[--i] = (char) ('0' + rest % RADIX);
+            rest /= RADIX;
+        }
+
+        return end;
+    }
+
+    /**
+     * Write a non-negative integer padded with zeros.
+     *
+     * @param buffer     The buffer to write into
+     * @param value      The integer
+     * @param minDigits  The minimum number of digits
+     * @param position   The position to write at
+     *
+     * @return The position after the integer
+     */
+    private static int writeDigits(final char[] buffer, final int value, final int minDigits, final int position) {
+        int nrDigits = 1;
+
+        for (int rest = value / RADIX; rest > 0; rest /= RADIX) {
+            nrDigits++;
+        }
+
+        final int end = position + Math.max(nrDigits, minDigits);
+        int rest = value;
+
+        for (int i = end; i > position; i--) {
+            buffer[i - 1] = (char) ('0' + rest % RADIX);
+            rest /= RADIX;
+        }
+
+        return end;
+    }
+
+    /**
+     * Render an Excel date (1900 date system) as yyyy-MM-dd into the character buffer,
+     * the same date as DateUtil.getJavaDate() formatted by a SimpleDateFormat.
+     *
+     * @param excelDate  The Excel date
+     *
+     * @return The length
+     */
+    private int renderDate(final double excelDate) {
+        final int wholeDays = (int) Math.floor(excelDate);
+        // Excel thinks 1900 is a leap year: there is a 29th of February 1900 (day 60)
+        final int dayAdjust = (wholeDays < FIRST_DAY_AFTER_1900_02_29 ? 0 : -1);
+        final long millisecondsInDay = (long) ((excelDate - wholeDays) * DateUtil.DAY_MILLISECONDS + HALF);
+        final long epochDay = EPOCH_DAY_1900_01_01 + wholeDays + dayAdjust - 1
+            + (millisecondsInDay >= DateUtil.DAY_MILLISECONDS ? 1 : 0);
+
+        if (epochDay != lastEpochDay) {
+            final LocalDate date = LocalDate.ofEpochDay(epochDay);
+            int length = writeDigits(dateChars, date.getYear(), DATE_YEAR_DIGITS, 0);
+
+            dateChars[length++] = '-';
+            length = writeDigits(dateChars, date.getMonthValue(), DATE_FIELD_DIGITS, length);
+            dateChars[length++] = '-';
+            length = writeDigits(dateChars, date.getDayOfMonth(), DATE_FIELD_DIGITS, length);
+
+            lastEpochDay = epochDay;
+            lastDateLength = length;
+        }
+
+        System.arraycopy(dateChars, 0, chars, 0, lastDateLength);
+
+        return lastDateLength;
+    }
+
+    String getBooleanValue(final boolean booleanValue, final TableColumn col) {
+        final String value = "" + booleanValue;
+
+        // Treat it as a STRING.
+        col.setStringLength(value.length());
+
+        settings.debug("getBooleanValue for column '" + col.getName() + "' and value '" + value + "'");
+
+        return value;
+    }
+}
@@ -0,0 +1,101 @@
+package com.paulissoft.database.utilities;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+
+/**
+ * The header names of the columns of a sheet, addressed by column index.
+ *
+ * A sheet may have up to 16,384 columns, so the largest column found till now is tracked
+ * instead of searched for and the Excel column names (A, B, ..., XFD) are computed once.
+ */
+final class ColumnRegistry {
+    /** The maximum number of columns of a sheet (XFD). */
+    static final int MAX_COLUMNS = SpreadsheetVersion.EXCEL2007.getMaxColumns();
+
+    /** The initial capacity. */
+    private static final int INITIAL_COLUMNS = 64;
+
+    /** The number of letters in a column name. */
+    private static final int NR_LETTERS = 26;
+
+    /** The length of the column name of the largest column index (Integer.MAX_VALUE - 1). */
+    private static final int MAX_NAME_LENGTH = 7;
+
+    /** The header names by column index (null if the column has no header). */
+    private String[] names = new String[INITIAL_COLUMNS];
+
+    /** The largest column index with a header name or -1. */
+    private int maxColumn = -1;
+
+    /**
+     * Add a header name to the previous header name of a column (with a space as separator), if any.
+     *
+     * @param column  The column index
+     * @param name    The header name
+     */
+    void add(final int column, final String name) {
+        if (column >= names.length) {
+            names = Arrays.copyOf(names, Math.max(2 * names.length, column + 1));
+        }
+        names[column] = (names[column] != null ? names[column] + " " + name : name);
+        if (column > maxColumn) {
+            maxColumn = column;
+        }
+    }
+
+    /**
+     * Get the header name of a column.
+     *
+     * @param column  The column index
+     *
+     * @return The header name or null if the column has no header
+     */
+    String get(final int column) {
+        return column >= 0 && column < names.length ? names[column] : null;
+    }
+
+    /**
+     * @return The largest column index with a header name or -1 if there is none
+     */
+    int getMaxColumn() {
+        return maxColumn;
+    }
+
+    /**
+     * Convert a column index to an Excel column name (A, B, ...).
+     *
+     * @param column  The column index (starting from 0)
+     *
+     * @return The Excel column name
+     */
+    static String excelColumnName(final int column) {
+        return column < MAX_COLUMNS ? ExcelColumnNames.NAMES[column] : toExcelColumnName(column);
+    }
+
+    private static String toExcelColumnName(final int column) {
+        final char[] letters = new char[MAX_NAME_LENGTH];
+        int pos = letters.length;
+
+        for (int r = column + 1; r > 0; r = (r - 1) / NR_LETTERS) {
+            letters[--pos] = (char) ('A' + (r - 1) % NR_LETTERS);
+        }
+
+        return new String(letters, pos, letters.length - pos);
+    }
+
+    /**
+     * The Excel column names of all columns, computed on first use.
+     */
+    private static final class ExcelColumnNames {
+        /** The Excel column names by column index. */
+        private static final String[] NAMES = new String[MAX_COLUMNS];
+
+        static {
+            for (int column = 0; column < MAX_COLUMNS; column++) {
+                NAMES[column] = toExcelColumnName(column);
+            }
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package com.paulissoft.database.utilities;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a CSV file on a thread of its own, so converting the rows and writing them to disk overlap.
+ *
+ * The text is collected in a batch. A full batch is put on a bounded queue and a writer thread
+ * takes it from there to write it to the file, while the next batch is filled (double buffering).
+ * When the writer thread lags behind, putting a batch on the full queue waits (back pressure),
+ * so no more than NR_BATCHES batches are in memory. The batches written are reused.
+ *
+ * The writer thread encodes a batch with one CharsetEncoder into a large ByteBuffer
+ * that is written to a FileChannel. For an encoding that encodes ASCII as is (like UTF-8 and windows-1252)
+ * the ASCII characters are copied as bytes and only the other characters are encoded.
+ * Characters that can not be encoded are replaced (by a question mark), like a PrintStream does.
+ *
+ * With --compression gzip the bytes are compressed by a GZIPOutputStream on the writer thread as well.
+ *
+ * The files of the partitions of a sheet (see --partition-column) are open at the same time:
+ * they share one writer thread (see WriterThread) and have smaller batches and buffers.
+ */
+class CsvWriter implements Closeable {
+    /** The size of a batch in characters. */
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    /** The number of batches: one to fill, one queued and one being written. */
+    private static final int NR_BATCHES = 3;
+
+    /** The size of the byte buffer. */
+    private static final int BYTE_BUFFER_SIZE = 256 * 1024;
+
+    /** The size of a batch in characters for a writer that shares its writer thread. */
+    private static final int SHARED_BATCH_SIZE = 8 * 1024;
+
+    /** The size of the byte buffer for a writer that shares its writer thread. */
+    private static final int SHARED_BYTE_BUFFER_SIZE = 32 * 1024;
+
+    /** The size of the buffer of the compressed bytes. */
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /** The characters below are ASCII. */
+    private static final char ASCII_LIMIT = 0x80;
+
+    /** The encodings that encode an ASCII character as one byte with the same value. */
+    private static final List<Charset> ASCII_COMPATIBLE = Arrays.asList(StandardCharsets.US_ASCII,
+                                                                        StandardCharsets.ISO_8859_1,
+                                                                        StandardCharsets.UTF_8,
+                                                                        Charset.forName("windows-1252"));
+
+    /** The UTF-8 byte order mark. */
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    /** The file name. */
+    private final String fileName;
+
+    /** The file, compressed or not. */
+    private final OutputStream out;
+
+    /** The channel to write to out. */
+    private final WritableByteChannel channel;
+
+    /** The encoder. */
+    private final CharsetEncoder encoder;
+
+    /** Does the encoding encode ASCII as is? */
+    private final boolean asciiCompatible;
+
+    /** The size of a batch in characters. */
+    private final int batchSize;
+
+    /** The encoded bytes to write (writer thread only). */
+    private final ByteBuffer bytes;
+
+    /** The characters of the batch being encoded (writer thread only). */
+    private char[] chars;
+
+    /** The batches written (to reuse). */
+    private final BlockingQueue<StringBuilder> emptyBatches = new ArrayBlockingQueue<StringBuilder>(NR_BATCHES);
+
+    /** The writer thread. */
+    private final WriterThread writerThread;
+
+    /** Is the writer thread shared with other writers (and stopped by its owner)? */
+    private final boolean sharedWriterThread;
+
+    /** Counted down when the writer thread has written the last batch. */
+    private final CountDownLatch written = new CountDownLatch(1);
+
+    /** The batch being filled. */
+    private StringBuilder batch;
+
+    /** The number of characters printed. */
+    private long nrChars = 0;
+
+    /** Has this writer been closed? */
+    private boolean closed = false;
+
+    /** The error of the writer thread or null. */
+    private volatile Throwable error = null;
+
+    /**
+     * The constructor: create the file and start the writer thread.
+     *
+     * @param pFileName  The file name
+     * @param settings   The run-time settings (for the encoding, the BOM and the compression)
+     *
+     * @throws IOException  When the file can not be created or the encoding is not supported
+     */
+    CsvWriter(final String pFileName, final Settings settings) throws IOException {
+        this(pFileName, settings, false);
+    }
+
+    /**
+     * The constructor: create the file, or write to stdout, and start the writer thread.
+     *
+     * @param pFileName  The file name (for the messages only when writing to stdout)
+     * @param settings   The run-time settings (for the encoding, the BOM and the compression, not for stdout)
+     * @param stdout     Write to stdout (see --pipe) instead of the file?
+     *
+     * @throws IOException  When the file can not be created or the encoding is not supported
+     */
+    CsvWriter(final String pFileName, final Settings settings, final boolean stdout) throws IOException {
+        this(pFileName, settings, stdout, null);
+    }
+
+    /**
+     * The constructor: create the file and write it on a writer thread shared with other writers.
+     *
+     * @param pFileName      The file name
+     * @param settings       The run-time settings (for the encoding, the BOM and the compression)
+     * @param pWriterThread  The writer thread, to be stopped by the caller after this writer has been closed
+     *
+     * @throws IOException  When the file can not be created or the encoding is not supported
+     */
+    CsvWriter(final String pFileName, final Settings settings, final WriterThread pWriterThread) throws IOException {
+        this(pFileName, settings, false, pWriterThread);
+    }
+
+    private CsvWriter(final String pFileName,
+                      final Settings settings,
+                      final boolean stdout,
+                      final WriterThread pWriterThread) throws IOException {
+        Charset charset;
+
+        try {
+            charset = Charset.forName(settings.encoding);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(settings.encoding);
+        }
+
+        this.fileName = pFileName;
+        this.encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.asciiCompatible = ASCII_COMPATIBLE.contains(charset);
+        this.sharedWriterThread = (pWriterThread != null);
+        this.batchSize = (sharedWriterThread ? SHARED_BATCH_SIZE : BATCH_SIZE);
+        this.bytes = ByteBuffer.allocate(sharedWriterThread ? SHARED_BYTE_BUFFER_SIZE : BYTE_BUFFER_SIZE);
+        this.chars = new char[batchSize];
+        this.batch = new StringBuilder(batchSize);
+        if (stdout) {
+            this.out = new FileOutputStream(FileDescriptor.out);
+        } else if (settings.isCompressed()) {
+            this.out = new GZIPOutputStream(new FileOutputStream(fileName), GZIP_BUFFER_SIZE);
+        } else {
+            this.out = new FileOutputStream(fileName);
+        }
+        this.channel = (out instanceof FileOutputStream ? ((FileOutputStream) out).getChannel() : Channels.newChannel(out));
+
+        // write the BOM?
+        if (charset.equals(StandardCharsets.UTF_8) && settings.writeBOM) {
+            bytes.put(UTF8_BOM);
+        }
+
+        this.writerThread = (sharedWriterThread ? pWriterThread : new WriterThread("CSV writer " + fileName));
+    }
+
+    /**
+     * Write text.
+     *
+     * @param text  The text
+     *
+     * @throws IOException  When the writer thread has failed
+     */
+    void print(final CharSequence text) throws IOException {
+        nrChars += text.length();
+        batch.append(text);
+        if (batch.length() >= batchSize) {
+            queueBatch();
+        }
+    }
+
+    /**
+     * Write part of a text.
+     *
+     * @param text   The text
+     * @param start  The index of the first character
+     * @param end    The index after the last character
+     *
+     * @throws IOException  When the writer thread has failed
+     */
+    void print(final CharSequence text, final int start, final int end) throws IOException {
+        nrChars += end - start;
+        batch.append(text, start, end);
+        if (batch.length() >= batchSize) {
+            queueBatch();
+        }
+    }
+
+    /**
+     * Get the number of characters printed, about the size of the file before compression.
+     *
+     * @return The number of characters
+     */
+    long getNrChars() {
+        return nrChars;
+    }
+
+    /**
+     * Write the last batch, wait for the writer thread and close the file (writing the gzip trailer).
+     * A writer thread of its own is always stopped, also when the last batch can not be written.
+     *
+     * @throws IOException  When the file can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (batch.length() > 0) {
+                queueBatch();
+            }
+        } finally {
+            try {
+                awaitWritten();
+            } finally {
+                try {
+                    if (!sharedWriterThread) {
+                        writerThread.close();
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * Tell the writer thread that this writer has no more batches and wait till it has written them all.
+     *
+     * @throws InterruptedIOException  When interrupted
+     */
+    private void awaitWritten() throws InterruptedIOException {
+        try {
+            writerThread.put(new Batch(this, null));
+            written.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + fileName);
+        }
+    }
+
+    /**
+     * Put the batch being filled on the queue and continue with an empty one.
+     *
+     * @throws IOException  When the writer thread has failed
+     */
+    private void queueBatch() throws IOException {
+        checkError();
+        try {
+            writerThread.put(new Batch(this, batch));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + fileName);
+        }
+
+        final StringBuilder emptyBatch = emptyBatches.poll();
+
+        batch = (emptyBatch != null ? emptyBatch : new StringBuilder(batchSize));
+    }
+
+    private void checkError() throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException("Could not write " + fileName, error);
+        }
+    }
+
+    /**
+     * Write a batch (writer thread only).
+     * After an error the batches are still taken (and skipped), so the converting thread never waits forever.
+     *
+     * @param text  The batch or null when this writer has no more batches
+     */
+    private void write(final StringBuilder text) {
+        if (text == null) {
+            try {
+                if (error == null) {
+                    if (!asciiCompatible) {
+                        encode(0, 0, true);
+                    }
+                    flushBytes();
+                }
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            } finally {
+                written.countDown();
+            }
+            return;
+        }
+
+        if (error == null) {
+            try {
+                encode(text);
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+        }
+        text.setLength(0);
+        emptyBatches.offer(text);
+    }
+
+    /**
+     * A batch of a writer on the queue of a writer thread.
+     */
+    private static final class Batch {
+        /** The writer. */
+        private final CsvWriter writer;
+
+        /** The text or null when the writer has no more batches. */
+        private final StringBuilder text;
+
+        Batch(final CsvWriter pWriter, final StringBuilder pText) {
+            this.writer = pWriter;
+            this.text = pText;
+        }
+    }
+
+    /**
+     * A thread that writes the batches of one or more writers, in the order they have been queued.
+     */
+    static final class WriterThread implements Closeable {
+        /** The batch that tells the writer thread that there are no more batches. */
+        private static final Batch END = new Batch(null, null);
+
+        /** The batches to write. */
+        private final BlockingQueue<Batch> fullBatches = new ArrayBlockingQueue<Batch>(NR_BATCHES - 2);
+
+        /** The thread. */
+        private final Thread thread;
+
+        /**
+         * The constructor: start the thread.
+         *
+         * @param name  The thread name
+         */
+        WriterThread(final String name) {
+            this.thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeBatches();
+                    }
+                }, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void put(final Batch fullBatch) throws InterruptedException {
+            fullBatches.put(fullBatch); // waits while the writer thread lags behind
+        }
+
+        /**
+         * Put the end on the queue and wait for the thread, after its writers have been closed.
+         * When interrupted the thread is interrupted too, so it never waits forever.
+         *
+         * @throws InterruptedIOException  When interrupted
+         */
+        @Override
+        public void close() throws InterruptedIOException {
+            try {
+                put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while stopping " + thread.getName());
+            }
+        }
+
+        /**
+         * Write the batches till the end.
+         */
+        private void writeBatches() {
+            try {
+                Batch fullBatch;
+
+                while ((fullBatch = fullBatches.take()) != END) {
+                    fullBatch.writer.write(fullBatch.text);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // stopped while interrupted
+            }
+        }
+    }
+
+    /**
+     * Encode a batch into the byte buffer, writing the byte buffer each time it is full.
+     *
+     * @param text  The batch
+     *
+     * @throws IOException  When the file can not be written
+     */
+    private void encode(final StringBuilder text) throws IOException {
+        final int length = text.length();
+
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+        text.getChars(0, length, chars, 0);
+
+        if (!asciiCompatible) {
+            encode(0, length, false);
+            return;
+        }
+
+        final byte[] array = bytes.array();
+        int i = 0;
+
+        while (i < length) {
+            // the ASCII characters as is
+            int position = bytes.position();
+
+            for (; i < length && chars[i] < ASCII_LIMIT; i++) {
+                if (position == array.length) {
+                    bytes.position(position);
+                    flushBytes();
+                    position = 0;
+                }
+                array[position++] = (byte) chars[i];
+            }
+            bytes.position(position);
+
+            // encode the other characters
+            int j = i;
+
+            while (j < length && chars[j] >= ASCII_LIMIT) {
+                j++;
+            }
+            if (j > i) {
+                encode(i, j, true);
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Encode characters of the batch with the encoder.
+     * The encoder state is kept till the end of the input, for an encoding like UTF-16 that starts with a BOM.
+     *
+     * @param from        The first character
+     * @param to          The character after the last character
+     * @param endOfInput  Is this the end of the input?
+     *
+     * @throws IOException  When the file can not be written
+     */
+    private void encode(final int from, final int to, final boolean endOfInput) throws IOException {
+        final CharBuffer in = CharBuffer.wrap(chars, from, to - from);
+
+        while (encoder.encode(in, bytes, endOfInput).isOverflow()) {
+            flushBytes();
+        }
+        if (endOfInput) {
+            while (encoder.flush(bytes).isOverflow()) {
+                flushBytes();
+            }
+            encoder.reset();
+        }
+    }
+
+    /**
+     * Write the byte buffer to the file.
+     *
+     * @throws IOException  When the file can not be written
+     */
+    private void flushBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
@@ -0,0 +1,280 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the rows of the selected sheets of a workbook straight into a database over JDBC (see --jdbc-url),
+ * without CSV files or SQL scripts.
+ *
+ * The rows are read with the in-process API (see WorkbookConverter), so the table columns of a sheet are inferred
+ * before its first row is inserted. Each table is created as a regular table unless it exists
+ * and its rows are inserted with a parameterized INSERT in batches of --jdbc-batch-size rows,
+ * committing every --jdbc-commit-interval rows or else once per table. The rows per second are reported per table.
+ *
+ * A failure rolls back the rows inserted since the last commit. So with a commit interval a table may be left
+ * with part of its rows (the ones committed before), else it gets all rows of its sheet or none.
+ */
+class JdbcLoader {
+    /** The number of milliseconds in a second. */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /** The run-time settings. */
+    private final Settings settings;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings
+     */
+    JdbcLoader(final Settings pSettings) {
+        this.settings = pSettings;
+    }
+
+    /**
+     * Load the spreadsheet.
+     *
+     * @throws IOException  When the workbook can not be read or the rows can not be loaded
+     */
+    void execute() throws IOException {
+        final String spreadsheet = (new File(settings.spreadsheet)).getAbsolutePath();
+
+        if (settings.addMetadata || settings.schemaFile != null) {
+            System.out.println("WARNING: --add-metadata and --schema are ignored by --jdbc-url");
+        }
+
+        info("Loading workbook " + spreadsheet + " into " + settings.jdbcUrl);
+
+        try (Connection connection = DriverManager.getConnection(settings.jdbcUrl, settings.jdbcUser, settings.jdbcPassword);
+             SheetReader sheets = new WorkbookConverter(settings).open(new File(spreadsheet))) {
+            connection.setAutoCommit(false);
+
+            while (sheets.nextSheet()) {
+                load(connection, sheets);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not load workbook " + spreadsheet + ": " + getMessage(e), e);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        info("Loading complete.");
+    }
+
+    /**
+     * Create the table of the current sheet, unless it exists, and insert its rows.
+     *
+     * @param connection  The connection
+     * @param sheets      The sheet reader
+     *
+     * @throws IOException   When the rows can not be read
+     * @throws SQLException  When the table can not be created or the rows can not be inserted
+     */
+    private void load(final Connection connection, final SheetReader sheets) throws IOException, SQLException {
+        final Table table = sheets.getTable();
+        final Iterator<Row> rows = sheets.rows();
+
+        if (!rows.hasNext()) {
+            info("Table " + table.getName() + " skipped since sheet " + sheets.getSheetName() + " does not contain data");
+            return;
+        }
+
+        final long started = System.nanoTime();
+
+        try {
+            createTable(connection, table);
+
+            final long nrRows = insertRows(connection, table, rows);
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            info("Table " + table.getName() + " loaded: " + nrRows + " rows in " + millis + " ms ("
+                 + Math.round(nrRows * MILLIS_PER_SECOND / Math.max(millis, 1)) + " rows/s)");
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Create a table unless it exists.
+     *
+     * @param connection  The connection
+     * @param table       The table
+     *
+     * @throws SQLException  When the table can not be created
+     */
+    private void createTable(final Connection connection, final Table table) throws SQLException {
+        if (exists(connection, table)) {
+            info("Table " + table.getName() + " exists: appending the rows");
+            return;
+        }
+
+        debug(table.getCreateTableSql());
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(table.getCreateTableSql());
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            // another workbook of a batch may have created it meanwhile
+            if (exists(connection, table)) {
+                info("Table " + table.getName() + " exists: appending the rows");
+                return;
+            }
+            throw e;
+        }
+        info("Table " + table.getName() + " created");
+    }
+
+    /**
+     * Does a table exist?
+     *
+     * @param connection  The connection
+     * @param table       The table
+     *
+     * @return true if it exists
+     *
+     * @throws SQLException  When the tables can not be looked up
+     */
+    private static boolean exists(final Connection connection, final Table table) throws SQLException {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        final String escape = metaData.getSearchStringEscape();
+        // the table name is quoted and it may contain the wildcards of a search pattern
+        String tableName = table.getName().substring(1, table.getName().length() - 1);
+
+        if (escape != null && !escape.isEmpty()) {
+            tableName = tableName.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+        }
+
+        try (ResultSet tables = metaData.getTables(null, null, tableName, new String[] {"TABLE"})) {
+            return tables.next();
+        }
+    }
+
+    /**
+     * Insert the rows of a table in batches.
+     *
+     * @param connection  The connection
+     * @param table       The table
+     * @param rows        The rows
+     *
+     * @return The number of rows inserted
+     *
+     * @throws SQLException  When the rows can not be inserted
+     */
+    private long insertRows(final Connection connection, final Table table, final Iterator<Row> rows) throws SQLException {
+        final int nrColumns = table.getNrColumns();
+        final int[] sqlTypes = new int[nrColumns];
+        final StringBuilder insert = new StringBuilder("INSERT INTO ").append(table.getName()).append(" (");
+
+        for (int c = 0; c < nrColumns; c++) {
+            final TableColumn column = table.getColumn(c);
+
+            insert.append(c > 0 ? ", " : "").append(column.getName());
+            sqlTypes[c] = (column.getJavaType() == BigDecimal.class
+                           ? Types.DECIMAL
+                           : column.getJavaType() == LocalDate.class ? Types.DATE : Types.VARCHAR);
+        }
+        insert.append(") VALUES (");
+        for (int c = 0; c < nrColumns; c++) {
+            insert.append(c > 0 ? ", ?" : "?");
+        }
+        insert.append(")");
+
+        debug(insert.toString());
+
+        final int batchSize = Math.max(settings.jdbcBatchSize, 1);
+        long nrRows = 0;
+        long nrRowsToCommit = 0;
+
+        try (PreparedStatement statement = connection.prepareStatement(insert.toString())) {
+            while (rows.hasNext()) {
+                final Row row = rows.next();
+
+                for (int c = 0; c < nrColumns; c++) {
+                    setValue(statement, c + 1, row.getValue(c), sqlTypes[c]);
+                }
+                statement.addBatch();
+                nrRows++;
+
+                if (nrRows % batchSize == 0) {
+                    statement.executeBatch();
+                    nrRowsToCommit += batchSize;
+                    if (settings.jdbcCommitInterval > 0 && nrRowsToCommit >= settings.jdbcCommitInterval) {
+                        connection.commit();
+                        nrRowsToCommit = 0;
+                    }
+                }
+            }
+            if (nrRows % batchSize != 0) {
+                statement.executeBatch();
+            }
+        }
+        connection.commit();
+
+        return nrRows;
+    }
+
+    /**
+     * Set a parameter of the INSERT statement.
+     *
+     * @param statement  The statement
+     * @param index      The parameter index (starting from 1)
+     * @param value      The value (a String, BigDecimal or LocalDate) or null
+     * @param sqlType    The SQL type of the column
+     *
+     * @throws SQLException  When the parameter can not be set
+     */
+    private static void setValue(final PreparedStatement statement,
+                                 final int index,
+                                 final Object value,
+                                 final int sqlType) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, sqlType);
+        } else if (sqlType == Types.DECIMAL) {
+            statement.setBigDecimal(index, (BigDecimal) value);
+        } else if (sqlType == Types.DATE) {
+            statement.setDate(index, java.sql.Date.valueOf((LocalDate) value));
+        } else {
+            statement.setString(index, (String) value);
+        }
+    }
+
+    /**
+     * Get the message of an SQL exception, including the first exception of a batch that failed.
+     *
+     * @param e  The exception
+     *
+     * @return The message
+     */
+    private static String getMessage(final SQLException e) {
+        final SQLException next = (e instanceof BatchUpdateException ? e.getNextException() : null);
+
+        return e.getMessage()
+            + (next != null && next.getMessage() != null && !next.getMessage().equals(e.getMessage())
+               ? " (" + next.getMessage() + ")"
+               : "");
+    }
+
+    private void info(final String str) {
+        settings.info(str);
+    }
+
+    private void debug(final String str) {
+        settings.debug(str);
+    }
+}
@@ -0,0 +1,255 @@
+package com.paulissoft.database.utilities;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The partitions of the rows of a sheet by the value of its partition column (see --partition-column).
+ *
+ * Without bounds (list partitioning) there is a partition per distinct value, in order of first appearance,
+ * an empty value included (NULL). The values of a numeric or date column are told apart by what they are, not by
+ * how they have been formatted: 10 and 10.0 are one value, written as the canonical literal '10'.
+ * With bounds (range partitioning, see --partition-bounds) partition i holds the values less than bound i
+ * and not less than bound i - 1, and the last partition the other values and the empty ones.
+ * The values and bounds are compared as numbers or dates (yyyy-MM-dd), so a range partition column must be numeric
+ * or a date: strings would be compared by the collation of the database, which the files can not follow.
+ */
+final class Partitioner {
+    /** The maximum number of partitions of a sheet, since each one has a file open while writing. */
+    static final int MAX_PARTITIONS = 256;
+
+    /** The run-time settings. */
+    private final Settings settings;
+
+    /** The partition column. */
+    private final TableColumn column;
+
+    /** The index of the partition column, before the metadata columns are added. */
+    private final int columnIndex;
+
+    /** The canonical range bounds in ascending order or null for list partitioning. */
+    private final List<String> bounds;
+
+    /** The numeric range bounds (numeric column only). */
+    private final List<BigDecimal> numericBounds = new ArrayList<BigDecimal>();
+
+    /** The date range bounds (date column only). */
+    private final List<LocalDate> dateBounds = new ArrayList<LocalDate>();
+
+    /** The distinct canonical values by partition (list partitioning only). */
+    private final List<String> values = new ArrayList<String>();
+
+    /** The partition of each distinct value (list partitioning only). */
+    private final Map<String, Integer> partitions = new HashMap<String, Integer>();
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings     The run-time settings
+     * @param pColumn       The partition column, with its final type
+     * @param pColumnIndex  The index of the partition column
+     */
+    Partitioner(final Settings pSettings, final TableColumn pColumn, final int pColumnIndex) {
+        this.settings = pSettings;
+        this.column = pColumn;
+        this.columnIndex = pColumnIndex;
+        this.bounds = (settings.partitionBounds.isEmpty() ? null : new ArrayList<String>());
+
+        if (bounds != null) {
+            if (column.getJavaType() == String.class) {
+                throw new RuntimeException("Partition column " + column.getName() + " is a string column:"
+                                           + " use a numeric or date column for --partition-bounds"
+                                           + " or list partitioning (no bounds)");
+            }
+            for (String bound : settings.partitionBounds) {
+                if (isNumeric()) {
+                    numericBounds.add(toNumber(bound));
+                } else {
+                    dateBounds.add(toDate(bound));
+                }
+                bounds.add(getKey(bound));
+            }
+        }
+    }
+
+    /**
+     * Find the partition column among the table columns.
+     *
+     * @param settings  The run-time settings
+     * @param table     The table, without the metadata columns
+     *
+     * @return The partitioner or null if the table has no partition column (--partition-column)
+     */
+    static Partitioner create(final Settings settings, final Table table) {
+        final String name = Table.getName(settings.partitionColumn);
+
+        for (int c = 0; c < table.getNrColumns(); c++) {
+            if (table.getColumn(c).getName().equals(name)) {
+                return new Partitioner(settings, table.getColumn(c), c);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the index of the partition column.
+     *
+     * @return The column index
+     */
+    int getColumnIndex() {
+        return columnIndex;
+    }
+
+    /**
+     * Get the partition of a value, adding a partition for a new value (list partitioning).
+     *
+     * @param value  The plain value (null or empty if missing)
+     *
+     * @return The partition (starting from 0)
+     */
+    int getPartition(final String value) {
+        final String key = getKey(value);
+
+        if (bounds == null) {
+            Integer partition = partitions.get(key);
+
+            if (partition == null) {
+                if (values.size() == MAX_PARTITIONS) {
+                    throw new RuntimeException("Partition column " + column.getName() + " has more than " + MAX_PARTITIONS
+                                               + " distinct values: use --partition-bounds");
+                }
+                partition = values.size();
+                partitions.put(key, partition);
+                values.add(key);
+            }
+
+            return partition;
+        }
+
+        if (key.isEmpty()) {
+            return bounds.size(); // NULL is above all (Oracle) or in the default partition (PostgreSQL)
+        }
+
+        final BigDecimal number = (isNumeric() ? toNumber(key) : null);
+        final LocalDate date = (isNumeric() ? null : toDate(key));
+
+        for (int i = 0; i < bounds.size(); i++) {
+            if (number != null ? number.compareTo(numericBounds.get(i)) < 0 : date.compareTo(dateBounds.get(i)) < 0) {
+                return i;
+            }
+        }
+
+        return bounds.size();
+    }
+
+    /**
+     * Get the number of partitions: all partitions for range partitioning, else those with a value till now.
+     *
+     * @return The number of partitions
+     */
+    int getNrPartitions() {
+        return (bounds == null ? values.size() : bounds.size() + 1);
+    }
+
+    /**
+     * Get the PARTITION BY clause.
+     *
+     * @return PARTITION BY LIST or RANGE with the partition column
+     */
+    String getPartitionBy() {
+        return "PARTITION BY " + (bounds == null ? "LIST" : "RANGE") + " (" + column.getName() + ")";
+    }
+
+    /**
+     * Get the bound specification of a partition.
+     *
+     * For Oracle VALUES (...) or VALUES LESS THAN (...),
+     * for PostgreSQL FOR VALUES IN (...), FOR VALUES FROM (...) TO (...) or DEFAULT for the last range partition,
+     * since a range partition does not take NULL there.
+     *
+     * @param partition  The partition (starting from 0)
+     *
+     * @return The bound specification
+     */
+    String getValues(final int partition) {
+        final boolean oracle = settings.sqlDatabase.equals(Settings.ORACLE);
+
+        if (bounds == null) {
+            return (oracle ? "VALUES (" : "FOR VALUES IN (") + getLiteral(values.get(partition)) + ")";
+        } else if (oracle) {
+            return "VALUES LESS THAN (" + (partition < bounds.size() ? getLiteral(bounds.get(partition)) : "MAXVALUE") + ")";
+        } else if (partition < bounds.size()) {
+            return "FOR VALUES FROM (" + (partition > 0 ? getLiteral(bounds.get(partition - 1)) : "MINVALUE")
+                + ") TO (" + getLiteral(bounds.get(partition)) + ")";
+        } else {
+            return "DEFAULT";
+        }
+    }
+
+    /**
+     * Get a value as an SQL literal: NULL, a string (converted to the column type) or an Oracle date.
+     *
+     * @param value  The plain value
+     *
+     * @return The literal
+     */
+    private String getLiteral(final String value) {
+        if (value.isEmpty()) {
+            return "NULL";
+        }
+
+        final String literal = "'" + value.replace("'", "''") + "'";
+
+        return (column.getJavaType() == LocalDate.class && settings.sqlDatabase.equals(Settings.ORACLE)
+                ? "DATE " + literal
+                : literal);
+    }
+
+    /**
+     * Get the canonical value: a number without trailing zeros (and exponent), a date as yyyy-MM-dd,
+     * else the value itself.
+     *
+     * @param value  The plain value (null or empty if missing)
+     *
+     * @return The canonical value (empty if missing)
+     */
+    private String getKey(final String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        } else if (isNumeric()) {
+            return toNumber(value).stripTrailingZeros().toPlainString();
+        } else if (column.getJavaType() == LocalDate.class) {
+            return toDate(value).toString();
+        } else {
+            return value;
+        }
+    }
+
+    private boolean isNumeric() {
+        return column.getJavaType() == BigDecimal.class;
+    }
+
+    private BigDecimal toNumber(final String value) {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Value '" + value + "' of partition column " + column.getName()
+                                       + " is not a number (use --raw-numbers)", e);
+        }
+    }
+
+    private LocalDate toDate(final String value) {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Value '" + value + "' of partition column " + column.getName()
+                                       + " is not a date (yyyy-MM-dd)", e);
+        }
+    }
+}
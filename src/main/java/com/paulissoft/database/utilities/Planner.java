@@ -0,0 +1,351 @@
+package com.paulissoft.database.utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * Plans how a workbook and its selected sheets are processed, before any cell is read.
+ *
+ * The extent of each sheet is taken from its dimension record (see WorkbookReader.getDimension()).
+ * That record is written by the application that saved the workbook, so it is only trusted
+ * when it is not just A1 and not much smaller than the sheet size suggests
+ * (see WorkbookReader.estimateNrCells(), only for sheets that are not small).
+ * Else the estimate from the sheet size is used.
+ *
+ * Then the plan is:
+ * <ul>
+ * <li>for the workbook: the POI user model, so the formulas are evaluated (the default lazy formula strategy),
+ *     unless a streaming reader has been asked for (--streaming) or the cached formula results will do
+ *     (--formula-strategy cached) and the selected sheets have many cells or more than one thread is used;</li>
+ * <li>for a sheet in the schema (--schema): write its rows while reading, nothing is buffered;</li>
+ * <li>for a small sheet (or one of unknown extent): buffer its rows in memory;</li>
+ * <li>for a sheet with a trusted extent that fits the heap budget: buffer its rows in memory,
+ *     with the row store pre-sized for all its rows and cells;</li>
+ * <li>for a sheet that does not fit the heap budget: spill its rows to disk.</li>
+ * </ul>
+ * Every sheet may spill to disk above the heap budget, whatever the plan: the extent may be wrong.
+ * The heap budget is shared by the sheets processed concurrently (--threads), so each one gets its part.
+ * The rows of a sheet that is not small are converted in row ranges on a fork-join pool
+ * (see RowConverter), unless there is only one conversion thread.
+ */
+class Planner {
+    /** Sheets with at most this number of cells are small. */
+    private static final long SMALL_NR_CELLS = 100000L;
+
+    /** A workbook with more cells in the selected sheets is read with a streaming reader. */
+    private static final long STREAMING_NR_CELLS = 1000000L;
+
+    /** The heap a buffered cell takes: its column and value start (8 bytes) and its value. */
+    private static final int CELL_SIZE = 16;
+
+    /** The part of the maximum heap that is the heap budget when no memory budget is given. */
+    private static final int HEAP_FRACTION = 4;
+
+    /** A sheet size estimate this many times the extent means that the extent can not be trusted. */
+    private static final int MAX_ESTIMATE_FACTOR = 4;
+
+    /** The largest number of rows or cells to pre-size a row store for. */
+    private static final long MAX_PRESIZE = Integer.MAX_VALUE / 2;
+
+    /** The bytes in a megabyte. */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** How a sheet is processed. */
+    enum Strategy {
+        /** Write the rows while reading, the table columns are pinned by the schema. */
+        SINGLE_PASS,
+        /** Buffer the rows in memory. */
+        IN_MEMORY,
+        /** Buffer the rows in memory with a row store pre-sized for the sheet extent. */
+        PRESIZED,
+        /** Spill the rows to disk each time they exceed the heap budget. */
+        SPILL
+    }
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The heap budget in bytes for the rows of the sheets processed concurrently. */
+    private long heapBudget = 0;
+
+    /** The heap budget in bytes for the rows of a sheet: its part of the heap budget. */
+    private long sheetHeapBudget = 0;
+
+    /** The plans of the selected sheets by sheet index. */
+    private Map<Integer, SheetPlan> sheetPlans = new HashMap<Integer, SheetPlan>();
+
+    /** The (estimated) number of cells in the selected sheets. */
+    private long nrCells = 0;
+
+    /** The pool to convert the rows of large sheets on or null if there is none yet. */
+    private ForkJoinPool conversionPool = null;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings
+     */
+    Planner(final Settings pSettings) {
+        this.settings = pSettings;
+        this.heapBudget = (settings.memoryBudget > 0
+                           ? settings.memoryBudget * MEGABYTE
+                           : Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    /**
+     * Plan the selected sheets of a workbook and log the plan.
+     *
+     * @param reader  A workbook reader, preferably a streaming reader since the user model has read everything already
+     * @param schema  The schema that pins the table columns or null if the columns are inferred
+     *
+     * @throws IOException  When the dimension of a sheet can not be read
+     */
+    void plan(final WorkbookReader reader, final Schema schema) throws IOException {
+        final List<String> sheetNames = reader.getSheetNames();
+        final List<Integer> sheetIndexes = new ArrayList<Integer>();
+
+        for (int i = 0; i < sheetNames.size(); i++) {
+            if (sheetNames.get(i).matches(settings.sheetNameExpression)) {
+                sheetIndexes.add(i);
+            }
+        }
+
+        // each sheet processed concurrently gets its part, so all of them together stay within the heap budget
+        final int nrConcurrentSheets = Math.max(1, Math.min(settings.threads, sheetIndexes.size()));
+
+        sheetHeapBudget = heapBudget / nrConcurrentSheets;
+        if (nrConcurrentSheets > 1) {
+            settings.info("Plan for the workbook: a heap budget of " + sheetHeapBudget / MEGABYTE + " MB per sheet ("
+                          + nrConcurrentSheets + " sheets processed concurrently)");
+        }
+
+        for (int i : sheetIndexes) {
+            final String sheetName = sheetNames.get(i);
+
+            final SheetPlan sheetPlan = planSheet(reader, i, schema != null ? schema.getColumns(sheetName) : null);
+
+            if (schema != null && sheetPlan.columns == null) {
+                System.out.println("WARNING: Sheet " + sheetName + " is not in schema file " + settings.schemaFile
+                                   + ": inferring its table columns");
+            }
+
+            sheetPlans.put(i, sheetPlan);
+            nrCells += Math.max(sheetPlan.nrCells, 0);
+
+            settings.info("Plan for sheet " + i + " (" + sheetName + "): " + sheetPlan);
+        }
+    }
+
+    private SheetPlan planSheet(final WorkbookReader reader, final int sheetIndex, final List<TableColumn> columns)
+        throws IOException {
+        final CellRangeAddress dimension = reader.getDimension(sheetIndex);
+        final long estimate = reader.estimateNrCells(sheetIndex);
+        final long dimensionNrCells = (dimension != null ? getNrCells(dimension) : 0);
+        final SheetPlan sheetPlan = new SheetPlan();
+
+        sheetPlan.columns = columns;
+        sheetPlan.dimension = dimension;
+        sheetPlan.trusted = dimensionNrCells > 1
+            && (estimate <= SMALL_NR_CELLS || estimate <= MAX_ESTIMATE_FACTOR * dimensionNrCells);
+        sheetPlan.nrCells = (sheetPlan.trusted ? dimensionNrCells : estimate);
+
+        if (columns != null) {
+            sheetPlan.strategy = Strategy.SINGLE_PASS;
+        } else if (sheetPlan.nrCells <= SMALL_NR_CELLS) {
+            sheetPlan.strategy = Strategy.IN_MEMORY; // small or unknown
+        } else if (sheetPlan.nrCells > sheetHeapBudget / CELL_SIZE) {
+            sheetPlan.strategy = Strategy.SPILL;
+            // a batch will not be larger than the heap budget
+            sheetPlan.nrPresizedCells = (int) Math.min(sheetHeapBudget / CELL_SIZE, MAX_PRESIZE);
+        } else if (sheetPlan.trusted) {
+            sheetPlan.strategy = Strategy.PRESIZED;
+            sheetPlan.nrPresizedRows = (int) Math.min(dimension.getLastRow() - dimension.getFirstRow() + 1, MAX_PRESIZE);
+            sheetPlan.nrPresizedCells = (int) Math.min(sheetPlan.nrCells, MAX_PRESIZE);
+        } else {
+            sheetPlan.strategy = Strategy.IN_MEMORY; // do not pre-size for an estimate
+        }
+
+        return sheetPlan;
+    }
+
+    /**
+     * The number of cells of a range, as a long since CellRangeAddress.getNumberOfCells() overflows
+     * an int for a large sheet (1,048,576 rows by 16,384 columns).
+     *
+     * @param range  The range
+     *
+     * @return The number of cells
+     */
+    static long getNrCells(final CellRangeAddress range) {
+        return (long) (range.getLastRow() - range.getFirstRow() + 1) * (range.getLastColumn() - range.getFirstColumn() + 1);
+    }
+
+    /**
+     * Read the workbook with a streaming reader?
+     *
+     * A streaming reader uses the cached formula results, so without --streaming it is only chosen
+     * when those will do (--formula-strategy cached), never for the default lazy formula strategy.
+     *
+     * @return true if the streaming reader has been asked for (--streaming) or if the selected sheets
+     *         have many cells or are processed concurrently (--threads) and the formula strategy is cached
+     */
+    boolean isStreaming() {
+        return settings.streaming
+            || (Settings.CACHED.equals(settings.formulaStrategy) && (isLarge() || settings.threads > 1));
+    }
+
+    /**
+     * Are the selected sheets too large to load the workbook into memory comfortably?
+     *
+     * @return true if the selected sheets have many cells
+     */
+    boolean isLarge() {
+        return nrCells > STREAMING_NR_CELLS;
+    }
+
+    /**
+     * Get the pool to convert the rows of a sheet on, creating it the first time.
+     *
+     * @return The pool or null if the rows are converted while reading (one conversion thread)
+     */
+    private synchronized ForkJoinPool getConversionPool() {
+        final int nrThreads = (settings.conversionThreads > 0
+                               ? settings.conversionThreads
+                               : Runtime.getRuntime().availableProcessors());
+
+        if (nrThreads > 1 && conversionPool == null) {
+            conversionPool = new ForkJoinPool(nrThreads);
+        }
+
+        return conversionPool;
+    }
+
+    /**
+     * Shut down the pool to convert the rows of large sheets on, if any.
+     */
+    synchronized void shutdown() {
+        if (conversionPool != null) {
+            conversionPool.shutdown();
+            conversionPool = null;
+        }
+    }
+
+    /**
+     * Get the (estimated) number of cells in the selected sheets.
+     *
+     * @return The number of cells
+     */
+    long getNrCells() {
+        return nrCells;
+    }
+
+    /**
+     * Get the plan of a selected sheet.
+     *
+     * @param sheetIndex  The sheet index (starting from 0)
+     *
+     * @return The plan or null if the sheet has not been selected
+     */
+    SheetPlan getSheetPlan(final int sheetIndex) {
+        return sheetPlans.get(sheetIndex);
+    }
+
+    /**
+     * The plan of one sheet.
+     */
+    final class SheetPlan {
+        /** The strategy. */
+        private Strategy strategy = null;
+
+        /** The table columns pinned by the schema or null if inferred. */
+        private List<TableColumn> columns = null;
+
+        /** The recorded dimension or null if not recorded. */
+        private CellRangeAddress dimension = null;
+
+        /** Is the dimension trusted? */
+        private boolean trusted = false;
+
+        /** The (estimated) number of cells or -1 if unknown. */
+        private long nrCells = -1;
+
+        /** The number of rows to pre-size the row store for. */
+        private int nrPresizedRows = 0;
+
+        /** The number of cells to pre-size the row store for. */
+        private int nrPresizedCells = 0;
+
+        /**
+         * Get the table columns pinned by the schema.
+         *
+         * @return The table columns or null if they are inferred
+         */
+        List<TableColumn> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Get the (estimated) number of rows of this sheet, header rows included.
+         *
+         * @return The number of rows of the trusted dimension, else the estimated number of cells
+         *         divided by the number of table columns pinned by the schema, or -1 if unknown
+         */
+        long getNrRows() {
+            if (trusted) {
+                return dimension.getLastRow() - dimension.getFirstRow() + 1;
+            } else if (nrCells >= 0 && columns != null && !columns.isEmpty()) {
+                return nrCells / columns.size();
+            } else {
+                return -1;
+            }
+        }
+
+        /**
+         * Get the pool to convert the rows of this sheet on.
+         *
+         * @return The pool or null if the rows are converted while reading (a small sheet or one conversion thread)
+         */
+        ForkJoinPool getConversionPool() {
+            return (strategy != Strategy.SINGLE_PASS && nrCells > SMALL_NR_CELLS ? Planner.this.getConversionPool() : null);
+        }
+
+        /**
+         * Create the row store to buffer the rows of this sheet.
+         *
+         * @return The row store
+         */
+        RowStore newRowStore() {
+            return new RowStore(sheetHeapBudget, nrPresizedRows, nrPresizedCells);
+        }
+
+        @Override
+        public String toString() {
+            final String extent =
+                (dimension == null
+                 ? "dimension not recorded"
+                 : "dimension " + dimension.formatAsString() + (trusted ? "" : " (not trusted)"))
+                + (nrCells < 0 ? ", size unknown" : ", about " + nrCells + " cells");
+
+            switch (strategy) {
+            case SINGLE_PASS:
+                return extent + ": write the rows while reading (schema)";
+
+            case PRESIZED:
+                return extent + ": buffer the rows in memory (pre-sized for " + nrPresizedRows + " rows and "
+                    + nrPresizedCells + " cells)";
+
+            case SPILL:
+                return extent + ": spill the rows to disk above " + sheetHeapBudget / MEGABYTE + " MB";
+
+            default:
+                return extent + ": buffer the rows in memory (spill to disk above " + sheetHeapBudget / MEGABYTE + " MB)";
+            }
+        }
+    }
+}
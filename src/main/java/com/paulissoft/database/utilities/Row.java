@@ -0,0 +1,79 @@
+package com.paulissoft.database.utilities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A data row of a sheet with typed values, one per table column (see WorkbookConverter).
+ *
+ * The type of a value is the Java type of its table column (see TableColumn.getJavaType()):
+ * a String, a BigDecimal or a LocalDate. An empty cell has a null value.
+ */
+public final class Row {
+    /** The sheet name. */
+    private final String sheetName;
+
+    /** The row number (starting from 1). */
+    private final int rowNumber;
+
+    /** The values by table column index. */
+    private final Object[] values;
+
+    /**
+     * The constructor.
+     *
+     * @param pSheetName  The sheet name
+     * @param pRowNumber  The row number (starting from 1)
+     * @param pValues     The values by table column index (not copied)
+     */
+    Row(final String pSheetName, final int pRowNumber, final Object[] pValues) {
+        this.sheetName = pSheetName;
+        this.rowNumber = pRowNumber;
+        this.values = pValues;
+    }
+
+    /**
+     * @return The name of the sheet of this row.
+     */
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * @return The row number in the sheet (starting from 1, like Excel).
+     */
+    public int getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * @return The number of values: the number of table columns.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Get the value of a table column.
+     *
+     * @param column  The table column index (starting from 0)
+     *
+     * @return The value (a String, BigDecimal or LocalDate) or null if the cell is empty
+     */
+    public Object getValue(final int column) {
+        return values[column];
+    }
+
+    /**
+     * @return The values by table column index (not modifiable).
+     */
+    public List<Object> getValues() {
+        return Collections.unmodifiableList(Arrays.asList(values));
+    }
+
+    @Override
+    public String toString() {
+        return sheetName + "!" + rowNumber + Arrays.toString(values);
+    }
+}
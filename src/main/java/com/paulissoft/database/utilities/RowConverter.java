@@ -0,0 +1,403 @@
+package com.paulissoft.database.utilities;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Converts the data rows of a large sheet in parallel.
+ *
+ * The data cells are buffered as the reader reports them (raw) in a chunk.
+ * A full chunk is split into row ranges that are converted on a fork-join pool,
+ * while the reader fills the next chunk. Each row range is converted with column statistics of its own
+ * (the lengths of TableColumn), since these are plain maxima that can be merged afterwards
+ * (see TableColumn.merge()). The converted rows are appended to the row store
+ * and the statistics are merged into the table columns in row order,
+ * so the CSV file and the DDL are the same as when the rows are converted one by one.
+ *
+ * The table columns themselves are added by the reader thread (see SheetProcessor.getColumn()),
+ * the conversion only reads their names (see TableColumn.emptyCopy()).
+ */
+class RowConverter {
+    /** The number of cells in a chunk. */
+    private static final int CHUNK_CELLS = 64 * 1024;
+
+    /** The initial number of rows in a chunk. */
+    private static final int CHUNK_ROWS = 4 * 1024;
+
+    /** A row range with at most this number of cells is not split. */
+    private static final int LEAF_CELLS = 4 * 1024;
+
+    /** A string cell. */
+    private static final byte STRING = 0;
+
+    /** A numeric cell. */
+    private static final byte NUMERIC = 1;
+
+    /** A boolean cell. */
+    private static final byte BOOLEAN = 2;
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The table. */
+    private Table table = null;
+
+    /** The pool to convert the row ranges on. */
+    private ForkJoinPool pool = null;
+
+    /** The row store to append the converted rows to. */
+    private RowStore dataRows = null;
+
+    /** The cell converter for each thread. */
+    private ThreadLocal<CellConverter> cellConverter = new ThreadLocal<CellConverter>() {
+            @Override
+            protected CellConverter initialValue() {
+                return new CellConverter(settings, table);
+            }
+        };
+
+    /** The table columns taken when the last chunk was converted. */
+    private TableColumn[] tableColumns = new TableColumn[0];
+
+    /** Enclose the converted values for the CSV file (see CellConverter.getCsvValue())? */
+    private boolean enclose = true;
+
+    /** The chunk being filled by the reader. */
+    private Chunk chunk = new Chunk();
+
+    /** A converted chunk to fill again or null. */
+    private Chunk spareChunk = null;
+
+    /** The chunk being converted or null. */
+    private Chunk pendingChunk = null;
+
+    /** The conversion of the pending chunk. */
+    private ForkJoinTask<TableColumn[]> pendingTask = null;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings
+     * @param pTable     The table
+     * @param pPool      The pool to convert the row ranges on
+     * @param pDataRows  The row store to append the converted rows to
+     */
+    RowConverter(final Settings pSettings, final Table pTable, final ForkJoinPool pPool, final RowStore pDataRows) {
+        this.settings = pSettings;
+        this.table = pTable;
+        this.pool = pPool;
+        this.dataRows = pDataRows;
+    }
+
+    /**
+     * Append the plain converted values to the row store instead of the CSV values (see SheetProcessor.keepRows()).
+     */
+    void keepPlainValues() {
+        enclose = false;
+    }
+
+    /**
+     * Start a row.
+     *
+     * @param rowNum  The row number (starting from 0)
+     */
+    void startRow(final int rowNum) {
+        chunk.startRow(rowNum);
+    }
+
+    /**
+     * Add a string cell.
+     *
+     * @param column  The column index
+     * @param value   The value
+     */
+    void stringCell(final int column, final String value) {
+        chunk.add(column, STRING, 0, null, value);
+    }
+
+    /**
+     * Add a numeric cell.
+     *
+     * @param column  The column index
+     * @param value   The value
+     * @param format  The number format
+     */
+    void numericCell(final int column, final double value, final StyleFormat format) {
+        chunk.add(column, NUMERIC, value, format, null);
+    }
+
+    /**
+     * Add a boolean cell.
+     *
+     * @param column  The column index
+     * @param value   The value
+     */
+    void booleanCell(final int column, final boolean value) {
+        chunk.add(column, BOOLEAN, value ? 1 : 0, null, null);
+    }
+
+    /**
+     * End a row and convert the chunk if it is full.
+     *
+     * @return false if the row is empty for sure, i.e. it has no data cells
+     */
+    boolean endRow() {
+        final boolean hasCells = chunk.endRow();
+
+        if (chunk.nrCells >= CHUNK_CELLS) {
+            convert();
+        }
+
+        return hasCells;
+    }
+
+    /**
+     * Convert the rows that are left and wait till all rows have been appended to the row store.
+     */
+    void finish() {
+        convert();
+        complete();
+    }
+
+    /**
+     * Start to convert the chunk being filled, after the pending chunk has been completed.
+     */
+    private void convert() {
+        complete();
+
+        if (chunk.nrRows == 0) {
+            return;
+        }
+
+        // the table columns are not added while converting: take the new ones now
+        if (tableColumns.length < table.getNrColumns()) {
+            final int nrColumns = tableColumns.length;
+
+            tableColumns = Arrays.copyOf(tableColumns, table.getNrColumns());
+            for (int c = nrColumns; c < tableColumns.length; c++) {
+                tableColumns[c] = table.getColumn(c);
+            }
+        }
+
+        pendingChunk = chunk;
+        pendingTask = pool.submit(new ConvertTask(pendingChunk, tableColumns, 0, pendingChunk.nrRows));
+        chunk = (spareChunk != null ? spareChunk : new Chunk());
+        chunk.clear();
+        spareChunk = null;
+    }
+
+    /**
+     * Wait for the conversion of the pending chunk, append its rows to the row store
+     * and merge its column statistics into the table columns.
+     */
+    private void complete() {
+        if (pendingTask == null) {
+            return;
+        }
+
+        final TableColumn[] stats = pendingTask.join();
+
+        for (int row = 0; row < pendingChunk.nrRows; row++) {
+            final int rowNum = pendingChunk.rowNumbers[row];
+
+            dataRows.startRow(rowNum);
+            for (int cell = pendingChunk.firstCells[row]; cell < pendingChunk.firstCells[row + 1]; cell++) {
+                dataRows.add(pendingChunk.columns[cell], pendingChunk.values[cell]);
+            }
+            if (!dataRows.endRow()) {
+                settings.debug("Skipping row " + (rowNum + 1) + " since it is empty");
+            }
+        }
+
+        for (int c = 0; c < stats.length; c++) {
+            if (stats[c] != null) {
+                table.getColumn(c).merge(stats[c]);
+            }
+        }
+
+        pendingTask = null;
+        spareChunk = pendingChunk;
+        pendingChunk = null;
+    }
+
+    /**
+     * Merge the column statistics of a row range into those of the previous row range.
+     *
+     * @param left   The column statistics of the previous row range
+     * @param right  The column statistics of the next row range
+     *
+     * @return The merged column statistics
+     */
+    private static TableColumn[] merge(final TableColumn[] left, final TableColumn[] right) {
+        final TableColumn[] merged = (left.length >= right.length ? left : Arrays.copyOf(left, right.length));
+
+        for (int c = 0; c < right.length; c++) {
+            if (right[c] == null) {
+                continue;
+            } else if (merged[c] == null) {
+                merged[c] = right[c];
+            } else {
+                merged[c].merge(right[c]);
+            }
+        }
+
+        return merged;
+    }
+
+    /**
+     * The raw data cells of a number of rows, in the order the reader reports them.
+     */
+    private static final class Chunk {
+        /** The row numbers of the rows. */
+        private int[] rowNumbers = new int[CHUNK_ROWS];
+
+        /** The index of the first cell of each row, followed by the index of the first cell of the current row. */
+        private int[] firstCells = new int[CHUNK_ROWS + 1];
+
+        /** The number of (ended) rows. */
+        private int nrRows = 0;
+
+        /** The column index of each cell. */
+        private int[] columns = new int[CHUNK_CELLS];
+
+        /** The type of each cell. */
+        private byte[] types = new byte[CHUNK_CELLS];
+
+        /** The number of each numeric or boolean cell. */
+        private double[] numbers = new double[CHUNK_CELLS];
+
+        /** The number format of each numeric cell. */
+        private StyleFormat[] formats = new StyleFormat[CHUNK_CELLS];
+
+        /** The value of each string cell. */
+        private String[] strings = new String[CHUNK_CELLS];
+
+        /** The converted value of each cell. */
+        private String[] values = new String[CHUNK_CELLS];
+
+        /** The number of cells including those of the current row. */
+        private int nrCells = 0;
+
+        /** The row number of the current row. */
+        private int currentRow = -1;
+
+        void clear() {
+            nrRows = 0;
+            nrCells = 0;
+        }
+
+        void startRow(final int rowNum) {
+            currentRow = rowNum;
+            nrCells = firstCells[nrRows];
+        }
+
+        void add(final int column, final byte type, final double number, final StyleFormat format, final String string) {
+            if (nrCells == columns.length) {
+                // a row with more cells than a chunk
+                final int capacity = 2 * columns.length;
+
+                columns = Arrays.copyOf(columns, capacity);
+                types = Arrays.copyOf(types, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                formats = Arrays.copyOf(formats, capacity);
+                strings = Arrays.copyOf(strings, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            columns[nrCells] = column;
+            types[nrCells] = type;
+            numbers[nrCells] = number;
+            formats[nrCells] = format;
+            strings[nrCells] = string;
+            nrCells++;
+        }
+
+        boolean endRow() {
+            if (nrCells == firstCells[nrRows]) {
+                return false;
+            }
+            if (nrRows == rowNumbers.length) {
+                rowNumbers = Arrays.copyOf(rowNumbers, 2 * rowNumbers.length);
+                firstCells = Arrays.copyOf(firstCells, 2 * firstCells.length);
+            }
+            rowNumbers[nrRows++] = currentRow;
+            firstCells[nrRows] = nrCells;
+            return true;
+        }
+    }
+
+    /**
+     * Convert a row range of a chunk, splitting it when it has many cells.
+     */
+    private final class ConvertTask extends RecursiveTask<TableColumn[]> {
+        /** The serial version. */
+        private static final long serialVersionUID = 1L;
+
+        /** The chunk. */
+        private final transient Chunk rows;
+
+        /** The table columns (not to be changed). */
+        private final transient TableColumn[] columns;
+
+        /** The first row. */
+        private final int fromRow;
+
+        /** The row after the last row. */
+        private final int toRow;
+
+        ConvertTask(final Chunk pRows, final TableColumn[] pColumns, final int pFromRow, final int pToRow) {
+            this.rows = pRows;
+            this.columns = pColumns;
+            this.fromRow = pFromRow;
+            this.toRow = pToRow;
+        }
+
+        @Override
+        protected TableColumn[] compute() {
+            if (toRow - fromRow > 1 && rows.firstCells[toRow] - rows.firstCells[fromRow] > LEAF_CELLS) {
+                final int middleRow = (fromRow + toRow) >>> 1;
+                final ConvertTask left = new ConvertTask(rows, columns, fromRow, middleRow);
+                final ConvertTask right = new ConvertTask(rows, columns, middleRow, toRow);
+
+                left.fork();
+
+                final TableColumn[] rightStats = right.compute();
+
+                return merge(left.join(), rightStats);
+            }
+
+            final CellConverter converter = cellConverter.get();
+            final TableColumn[] stats = new TableColumn[columns.length];
+
+            for (int cell = rows.firstCells[fromRow]; cell < rows.firstCells[toRow]; cell++) {
+                final int column = rows.columns[cell];
+                TableColumn col = stats[column];
+
+                if (col == null) {
+                    col = columns[column].emptyCopy();
+                    stats[column] = col;
+                }
+
+                String value = null;
+
+                switch (rows.types[cell]) {
+                case NUMERIC:
+                    value = converter.getNumericValue(rows.numbers[cell], rows.formats[cell], col);
+                    break;
+
+                case BOOLEAN:
+                    value = converter.getBooleanValue(rows.numbers[cell] != 0, col);
+                    break;
+
+                default:
+                    value = converter.getStringValue(rows.strings[cell], col);
+                }
+
+                rows.values[cell] = enclose ? converter.getCsvValue(value) : value;
+            }
+
+            return stats;
+        }
+    }
+}
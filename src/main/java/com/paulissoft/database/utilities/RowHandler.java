@@ -0,0 +1,42 @@
+package com.paulissoft.database.utilities;
+
+import java.io.IOException;
+
+/**
+ * Receives the sheets and their rows when a workbook is converted in process (see WorkbookConverter.convert()).
+ *
+ * For each selected sheet startSheet() is called once its table columns have been inferred,
+ * then row() for each data row in row order and finally endSheet().
+ */
+public interface RowHandler {
+    /**
+     * A sheet starts.
+     *
+     * @param sheetName  The sheet name
+     * @param table      The table with the inferred columns
+     *
+     * @throws IOException  To stop the conversion
+     */
+    default void startSheet(final String sheetName, final Table table) throws IOException {
+    }
+
+    /**
+     * A data row.
+     *
+     * @param row  The row
+     *
+     * @throws IOException  To stop the conversion
+     */
+    void row(Row row) throws IOException;
+
+    /**
+     * A sheet ends.
+     *
+     * @param sheetName  The sheet name
+     * @param table      The table with the inferred columns
+     *
+     * @throws IOException  To stop the conversion
+     */
+    default void endSheet(final String sheetName, final Table table) throws IOException {
+    }
+}
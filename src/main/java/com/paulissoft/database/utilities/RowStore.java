@@ -0,0 +1,457 @@
+package com.paulissoft.database.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A compact store for the sparse data rows of a sheet.
+ *
+ * The rows are appended in ascending row order and the cells of a row in ascending column order
+ * (the order in which all workbook readers report them), so nothing has to be sorted afterwards.
+ * Instead of a map per row the store uses a few primitive arrays:
+ * <ul>
+ * <li>per row: the row number and the index of its first cell;</li>
+ * <li>per cell: the column index and the start of its value;</li>
+ * <li>the values themselves packed one after the other in a single byte array,
+ *     one byte per character when all characters of a value are ISO-8859-1 (nearly always), else two (UTF-16).</li>
+ * </ul>
+ * That is 8 bytes per cell plus its characters, without any boxing or map entries.
+ *
+ * With a heap budget the rows are spilled as a batch (the arrays above) to a temporary file
+ * each time they take more heap than the budget. After the last row the batches are read back
+ * one by one (see rewind() and nextBatch()), so the heap used never depends on the sheet size.
+ */
+class RowStore implements Closeable {
+    /** The initial capacity of the row arrays. */
+    private static final int INITIAL_ROWS = 256;
+
+    /** The initial capacity of the cell arrays. */
+    private static final int INITIAL_CELLS = 8 * INITIAL_ROWS;
+
+    /** The initial capacity of the byte array. */
+    private static final int INITIAL_BYTES = 16 * INITIAL_CELLS;
+
+    /** The expected average size of a value in bytes, for pre-sizing the byte array. */
+    private static final int EXPECTED_VALUE_SIZE = 8;
+
+    /** The flag in the column index of a cell telling that its value is stored as UTF-16. */
+    private static final int UTF16 = Integer.MIN_VALUE;
+
+    /** The largest ISO-8859-1 character. */
+    private static final char MAX_LATIN1 = '\u00FF';
+
+    /** The number of bits in a byte. */
+    private static final int BYTE_SIZE = 8;
+
+    /** The largest array that can be allocated safely. */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /** The heap used per row and per cell: two ints. */
+    private static final int INTS_SIZE = 2 * Integer.BYTES;
+
+    /** The buffer size for the temporary file. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The heap budget in bytes (0 means unlimited, i.e. never spill). */
+    private final long heapBudget;
+
+    /** The temporary file the batches are spilled to. */
+    private File spillFile = null;
+
+    /** The stream to write the spilled batches to. */
+    private DataOutputStream spillOutput = null;
+
+    /** The stream to read the spilled batches from. */
+    private DataInputStream spillInput = null;
+
+    /** The number of spilled batches. */
+    private int nrSpilledBatches = 0;
+
+    /** The number of spilled batches not yet read back. */
+    private int nrBatchesToRead = 0;
+
+    /** The number of spilled rows. */
+    private int nrSpilledRows = 0;
+
+    /** The row numbers of the rows. */
+    private int[] rowNumbers = new int[INITIAL_ROWS];
+
+    /** The index of the first cell of each row, followed by the index of the first cell of the current row. */
+    private int[] firstCells = new int[INITIAL_ROWS + 1];
+
+    /** The number of (committed) rows. */
+    private int nrRows = 0;
+
+    /** The column index of each cell, or'ed with UTF16 if needed. */
+    private int[] columns = new int[INITIAL_CELLS];
+
+    /** The start of the value of each cell in bytes (it ends where the value of the next cell starts). */
+    private int[] valueStarts = new int[INITIAL_CELLS];
+
+    /** The number of cells including those of the current row. */
+    private int nrCells = 0;
+
+    /** The packed values. */
+    private byte[] bytes = new byte[INITIAL_BYTES];
+
+    /** The number of bytes used including those of the current row. */
+    private int nrBytes = 0;
+
+    /** The number of bytes used by the committed rows. */
+    private int nrCommittedBytes = 0;
+
+    /** The row number of the current row. */
+    private int currentRow = -1;
+
+    /** Does the current row contain a non empty value? */
+    private boolean currentRowHasData = false;
+
+    /**
+     * The constructor.
+     *
+     * @param pHeapBudget  The heap budget in bytes for the rows kept in memory (0 means unlimited)
+     */
+    RowStore(final long pHeapBudget) {
+        this.heapBudget = pHeapBudget;
+    }
+
+    /**
+     * The constructor for an expected number of rows and cells (e.g. from the sheet dimension),
+     * so the arrays do not have to grow (and be copied) while the rows are added.
+     * They still grow when there are more rows or cells.
+     *
+     * @param pHeapBudget  The heap budget in bytes (0 means unlimited, i.e. never spill)
+     * @param pNrRows      The expected number of rows
+     * @param pNrCells     The expected number of cells
+     */
+    RowStore(final long pHeapBudget, final int pNrRows, final int pNrCells) {
+        this(pHeapBudget);
+
+        if (pNrRows > INITIAL_ROWS) {
+            rowNumbers = new int[pNrRows];
+            firstCells = new int[pNrRows + 1];
+        }
+        if (pNrCells > INITIAL_CELLS) {
+            columns = new int[pNrCells];
+            valueStarts = new int[pNrCells];
+            bytes = new byte[(int) Math.min(MAX_ARRAY_SIZE, (long) pNrCells * EXPECTED_VALUE_SIZE)];
+        }
+    }
+
+    /**
+     * Start a row.
+     *
+     * @param rowNum  The row number, larger than the one of the previous row
+     */
+    void startRow(final int rowNum) {
+        if (rowNum <= currentRow) {
+            throw new IllegalArgumentException("Row " + (rowNum + 1) + " is not after row " + (currentRow + 1));
+        }
+        currentRow = rowNum;
+        currentRowHasData = false;
+    }
+
+    /**
+     * Add a cell value to the current row.
+     *
+     * @param column  The column index, larger than the one of the previous cell in this row
+     * @param value   The value
+     */
+    void add(final int column, final String value) {
+        if (nrCells > firstCells[nrRows] && column <= (columns[nrCells - 1] & ~UTF16)) {
+            throw new IllegalArgumentException("Column " + (column + 1) + " is not after column "
+                                               + ((columns[nrCells - 1] & ~UTF16) + 1) + " in row " + (currentRow + 1));
+        }
+
+        if (nrCells == columns.length) {
+            final int capacity = grow(columns.length, 1);
+
+            columns = Arrays.copyOf(columns, capacity);
+            valueStarts = Arrays.copyOf(valueStarts, capacity);
+        }
+
+        final int length = value.length();
+        boolean latin1 = true;
+
+        for (int i = 0; latin1 && i < length; i++) {
+            latin1 = value.charAt(i) <= MAX_LATIN1;
+        }
+
+        final int size = (latin1 ? length : 2 * length);
+
+        if (size > bytes.length - nrBytes) {
+            bytes = Arrays.copyOf(bytes, grow(bytes.length, size - (bytes.length - nrBytes)));
+        }
+
+        columns[nrCells] = (latin1 ? column : column | UTF16);
+        valueStarts[nrCells] = nrBytes;
+        nrCells++;
+
+        if (latin1) {
+            for (int i = 0; i < length; i++) {
+                bytes[nrBytes++] = (byte) value.charAt(i);
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                final char ch = value.charAt(i);
+
+                bytes[nrBytes++] = (byte) ch;
+                bytes[nrBytes++] = (byte) (ch >> BYTE_SIZE);
+            }
+        }
+        currentRowHasData |= length > 0;
+    }
+
+    /**
+     * End the current row: it is only kept when it has at least one non empty value.
+     * When the rows kept in memory exceed the heap budget, they are spilled to the temporary file.
+     *
+     * @return Has the row been kept?
+     */
+    boolean endRow() {
+        if (!currentRowHasData) {
+            // discard the cells of this row
+            nrCells = firstCells[nrRows];
+            nrBytes = nrCommittedBytes;
+            return false;
+        }
+
+        if (nrRows == rowNumbers.length) {
+            final int capacity = grow(rowNumbers.length, 1);
+
+            rowNumbers = Arrays.copyOf(rowNumbers, capacity);
+            firstCells = Arrays.copyOf(firstCells, capacity + 1);
+        }
+        rowNumbers[nrRows++] = currentRow;
+        firstCells[nrRows] = nrCells;
+        nrCommittedBytes = nrBytes;
+
+        if (heapBudget > 0 && (long) nrBytes + (long) INTS_SIZE * (nrRows + nrCells) > heapBudget) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of rows kept, in memory and spilled.
+     *
+     * @return The number of rows
+     */
+    int size() {
+        return nrSpilledRows + nrRows;
+    }
+
+    /**
+     * Write the rows in memory as a batch to the temporary file and empty the store.
+     */
+    private void spill() throws IOException {
+        if (spillOutput == null) {
+            spillFile = File.createTempFile("Excel2SQL", ".rows");
+            spillFile.deleteOnExit();
+            spillOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE));
+        }
+
+        spillOutput.writeInt(nrRows);
+        for (int i = 0; i < nrRows; i++) {
+            spillOutput.writeInt(rowNumbers[i]);
+            spillOutput.writeInt(firstCells[i]);
+        }
+        spillOutput.writeInt(nrCells);
+        for (int i = 0; i < nrCells; i++) {
+            spillOutput.writeInt(columns[i]);
+            spillOutput.writeInt(valueStarts[i]);
+        }
+        spillOutput.writeInt(nrBytes);
+        spillOutput.write(bytes, 0, nrBytes);
+
+        nrSpilledBatches++;
+        nrSpilledRows += nrRows;
+        nrRows = 0;
+        nrCells = 0;
+        nrBytes = 0;
+        nrCommittedBytes = 0;
+    }
+
+    /**
+     * Prepare for reading after the last row: nothing to do if nothing has been spilled,
+     * else the rows still in memory are spilled too and the first batch is read back.
+     * Then getNrRows(), getRowNumber(), getNrCells(), getColumn() and getValue() return the rows of this batch
+     * and nextBatch() moves to the next one.
+     *
+     * @throws IOException  When the temporary file can not be written or read
+     */
+    void rewind() throws IOException {
+        if (spillOutput == null) {
+            return;
+        }
+
+        if (nrRows > 0) {
+            spill();
+        }
+        spillOutput.close();
+        spillOutput = null;
+
+        spillInput = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), BUFFER_SIZE));
+        nrBatchesToRead = nrSpilledBatches;
+        nextBatch();
+    }
+
+    /**
+     * Read the next batch of spilled rows.
+     *
+     * @return Has another batch been read?
+     *
+     * @throws IOException  When the temporary file can not be read
+     */
+    boolean nextBatch() throws IOException {
+        if (nrBatchesToRead == 0) {
+            nrRows = 0;
+            nrCells = 0;
+            nrBytes = 0;
+            return false;
+        }
+        nrBatchesToRead--;
+
+        nrRows = spillInput.readInt();
+        if (nrRows > rowNumbers.length) {
+            rowNumbers = new int[nrRows];
+            firstCells = new int[nrRows + 1];
+        }
+        for (int i = 0; i < nrRows; i++) {
+            rowNumbers[i] = spillInput.readInt();
+            firstCells[i] = spillInput.readInt();
+        }
+        nrCells = spillInput.readInt();
+        firstCells[nrRows] = nrCells;
+        if (nrCells > columns.length) {
+            columns = new int[nrCells];
+            valueStarts = new int[nrCells];
+        }
+        for (int i = 0; i < nrCells; i++) {
+            columns[i] = spillInput.readInt();
+            valueStarts[i] = spillInput.readInt();
+        }
+        nrBytes = spillInput.readInt();
+        if (nrBytes > bytes.length) {
+            bytes = new byte[nrBytes];
+        }
+        spillInput.readFully(bytes, 0, nrBytes);
+
+        return true;
+    }
+
+    /**
+     * Remove the temporary file, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (spillOutput != null) {
+                spillOutput.close();
+            }
+            if (spillInput != null) {
+                spillInput.close();
+            }
+        } finally {
+            spillOutput = null;
+            spillInput = null;
+            if (spillFile != null && !spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Get the number of rows in memory (of the current batch after rewind()).
+     *
+     * @return The number of rows
+     */
+    int getNrRows() {
+        return nrRows;
+    }
+
+    /**
+     * Get the row number of a row.
+     *
+     * @param row  The row index (0 till getNrRows() - 1)
+     *
+     * @return The row number
+     */
+    int getRowNumber(final int row) {
+        return rowNumbers[row];
+    }
+
+    /**
+     * Get the number of cells of a row.
+     *
+     * @param row  The row index (0 till getNrRows() - 1)
+     *
+     * @return The number of cells
+     */
+    int getNrCells(final int row) {
+        return firstCells[row + 1] - firstCells[row];
+    }
+
+    /**
+     * Get the column index of a cell.
+     *
+     * @param row   The row index (0 till getNrRows() - 1)
+     * @param cell  The cell index within the row (0 till getNrCells(row) - 1)
+     *
+     * @return The column index
+     */
+    int getColumn(final int row, final int cell) {
+        return columns[firstCells[row] + cell] & ~UTF16;
+    }
+
+    /**
+     * Get the value of a cell.
+     *
+     * @param row   The row index (0 till getNrRows() - 1)
+     * @param cell  The cell index within the row (0 till getNrCells(row) - 1)
+     *
+     * @return The value
+     */
+    String getValue(final int row, final int cell) {
+        final int index = firstCells[row] + cell;
+        final int end = (index + 1 < nrCells ? valueStarts[index + 1] : nrBytes);
+
+        return new String(bytes,
+                          valueStarts[index],
+                          end - valueStarts[index],
+                          (columns[index] & UTF16) == 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_16LE);
+    }
+
+    /**
+     * Compute a new array capacity: at least 50% more.
+     *
+     * @param capacity  The current capacity
+     * @param needed    The minimal number of extra elements
+     *
+     * @return The new capacity
+     */
+    private static int grow(final int capacity, final int needed) {
+        if (needed > MAX_ARRAY_SIZE - capacity) {
+            throw new OutOfMemoryError("Sheet too large for the row store");
+        }
+
+        final int extra = Math.max(needed, capacity >> 1);
+
+        return extra > MAX_ARRAY_SIZE - capacity ? MAX_ARRAY_SIZE : capacity + extra;
+    }
+}
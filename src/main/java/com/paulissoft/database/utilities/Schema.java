@@ -0,0 +1,166 @@
+package com.paulissoft.database.utilities;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+
+/**
+ * The table columns (names and types) of the sheets of a workbook, saved to and loaded from a schema file.
+ *
+ * The schema file is a CSV file (UTF-8), so it can be reviewed and edited with Excel too.
+ * After a header line there is a line per column: the sheet name, the column number (starting from 1),
+ * the column name and the lengths (string, numeric and date) plus the numeric precision
+ * that the SQL type of the column is derived from (see TableColumn).
+ *
+ * When a sheet is in the schema its columns are known before it is read,
+ * so its rows do not need to be buffered (see SheetProcessor).
+ */
+class Schema {
+    /** The header line of the schema file. */
+    private static final String[] HEADER = {
+        "sheet", "column", "name", "string length", "numeric length", "numeric precision", "date length"
+    };
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The table columns by sheet name (in sheet order). */
+    private Map<String, List<TableColumn>> sheets = new LinkedHashMap<String, List<TableColumn>>();
+
+    /**
+     * The constructor for an empty schema.
+     *
+     * @param pSettings  The run-time settings
+     */
+    Schema(final Settings pSettings) {
+        this.settings = pSettings;
+    }
+
+    /**
+     * Load a schema file.
+     *
+     * @param pSettings  The run-time settings
+     * @param fileName   The schema file
+     *
+     * @return The schema
+     *
+     * @throws IOException  When the schema file can not be read or is not valid
+     */
+    static Schema load(final Settings pSettings, final String fileName) throws IOException {
+        final Schema schema = new Schema(pSettings);
+
+        try (CSVReader reader = new CSVReader(new InputStreamReader(new FileInputStream(fileName),
+                                                                    StandardCharsets.UTF_8))) {
+            String[] line = reader.readNext(); // the header
+            int lineNumber = 1;
+
+            while ((line = reader.readNext()) != null) {
+                lineNumber++;
+
+                if (line.length == 1 && line[0].isEmpty()) {
+                    continue; // empty line
+                }
+                if (line.length != HEADER.length) {
+                    throw new IOException("Schema file '" + fileName + "', line " + lineNumber
+                                          + ": expected " + HEADER.length + " fields but found " + line.length);
+                }
+
+                List<TableColumn> columns = schema.sheets.get(line[0]);
+
+                if (columns == null) {
+                    columns = new ArrayList<TableColumn>();
+                    schema.sheets.put(line[0], columns);
+                }
+
+                try {
+                    int field = 1;
+
+                    if (Integer.parseInt(line[field++]) != columns.size() + 1) {
+                        throw new IOException("Schema file '" + fileName + "', line " + lineNumber
+                                              + ": expected column " + (columns.size() + 1) + " of sheet " + line[0]);
+                    }
+
+                    final TableColumn col = new TableColumn(pSettings);
+
+                    col.setName(line[field++]);
+                    col.setStringLength(Integer.parseInt(line[field++]));
+                    col.setNumericLength(Integer.parseInt(line[field++]));
+                    col.setNumericPrecision(Integer.parseInt(line[field++]));
+                    col.setDateLength(Integer.parseInt(line[field++]));
+                    columns.add(col);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Schema file '" + fileName + "', line " + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+
+        pSettings.info("Loaded the schema of " + schema.sheets.size() + " sheet(s) from " + fileName);
+
+        return schema;
+    }
+
+    /**
+     * Save the schema to a file.
+     *
+     * @param fileName  The schema file
+     *
+     * @throws IOException  When the schema file can not be written
+     */
+    void save(final String fileName) throws IOException {
+        try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(new FileOutputStream(fileName),
+                                                                     StandardCharsets.UTF_8))) {
+            writer.writeNext(HEADER);
+
+            for (Map.Entry<String, List<TableColumn>> entry : sheets.entrySet()) {
+                final List<TableColumn> columns = entry.getValue();
+
+                for (int c = 0; c < columns.size(); c++) {
+                    final TableColumn col = columns.get(c);
+
+                    writer.writeNext(new String[] {
+                            entry.getKey(),
+                            String.valueOf(c + 1),
+                            col.getUnquotedName(),
+                            String.valueOf(col.getStringLength()),
+                            String.valueOf(col.getNumericLength()),
+                            String.valueOf(col.getNumericPrecision()),
+                            String.valueOf(col.getDateLength())
+                        });
+                }
+            }
+        }
+
+        settings.info("Saved the schema of " + sheets.size() + " sheet(s) to " + fileName);
+    }
+
+    /**
+     * Get the table columns of a sheet.
+     *
+     * @param sheetName  The sheet name
+     *
+     * @return The table columns or null if the sheet is not in the schema
+     */
+    List<TableColumn> getColumns(final String sheetName) {
+        return sheets.get(sheetName);
+    }
+
+    /**
+     * Add or replace the table columns of a sheet.
+     *
+     * @param sheetName  The sheet name
+     * @param columns    The table columns of the sheet (without the metadata columns)
+     */
+    void put(final String sheetName, final List<TableColumn> columns) {
+        sheets.put(sheetName, columns);
+    }
+}
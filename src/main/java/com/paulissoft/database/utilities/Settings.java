@@ -9,8 +9,13 @@ import java.util.List;
 import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.beust.jcommander.validators.PositiveInteger;
 
-class Settings {
+/**
+ * The run-time settings, parsed from the command line or set by an application
+ * that converts workbooks in process (see WorkbookConverter).
+ */
+public class Settings implements Cloneable {
     /** The newline string. */
     static final String NL = "\r\n";
     /** The double quote. */
@@ -21,10 +26,37 @@ class Settings {
     static final String PWD = new File("").getAbsolutePath();
 
     /** The Oracle database. */
-    static final String ORACLE = "Oracle";
+    public static final String ORACLE = "Oracle";
 
     /** The PostgreSQL database. */
-    static final String POSTGRESQL = "PostgresQL";
+    public static final String POSTGRESQL = "PostgresQL";
+
+    /** The pipe that is stdout. */
+    static final String STDOUT = "-";
+
+    /** Write CSV files to load. */
+    static final String CSV = "csv";
+
+    /** Write PostgreSQL binary COPY files to load. */
+    static final String BINARY = "binary";
+
+    /** Do not compress the files to load. */
+    static final String NONE = "none";
+
+    /** Compress the files to load with gzip. */
+    static final String GZIP = "gzip";
+
+    /** Use the formula results cached in the workbook. */
+    public static final String CACHED = "cached";
+
+    /** Evaluate the formulas of the sheets being read, when they are read. */
+    public static final String LAZY = "lazy";
+
+    /** Evaluate all formulas of the workbook before reading. */
+    public static final String ALWAYS = "always";
+
+    /** The default number of rows to insert per JDBC batch. */
+    private static final int DEFAULT_JDBC_BATCH_SIZE = 1000;
 
     /** The verbosity. */
     @Parameter(names = "--verbose", description = "Level of verbosity")
@@ -91,13 +123,400 @@ class Settings {
                description = "Use this for the string column size and not the maximum Excel data size.")
     protected Integer stringColumnSize = null;
 
+    /** Read the workbook with a streaming parser instead of loading it completely? */
+    @Parameter(names = "--streaming",
+               description = "Read the workbook with a streaming parser (SAX for .xlsx, record events for .xls)"
+               + " instead of loading the whole workbook. The cached formula results are used."
+               + " With --formula-strategy cached this is the default for large workbooks and for --threads.")
+    protected boolean streaming = false;
+
+    /** The formula strategy (null means the default). */
+    @Parameter(names = "--formula-strategy",
+               description = "How to get formula results (cached, lazy, always): use the results cached in the workbook,"
+               + " evaluate only the formulas of the sheets read or evaluate all formulas first"
+               + " (default lazy, the streaming readers always use the cached results)",
+               validateWith = ValidFormulaStrategies.class)
+    protected String formulaStrategy = null;
+
+    /** The heap budget in megabytes for buffering the rows of the sheets (0 means a quarter of the maximum heap). */
+    @Parameter(names = "--memory-budget",
+               description = "Spill the buffered rows of a sheet to a temporary file each time they take more than"
+               + " this number of megabytes of heap (0 means a quarter of the maximum heap),"
+               + " divided by the number of sheets processed concurrently (--threads)")
+    protected Integer memoryBudget = 0;
+
+    /** The schema file to pin the table columns of the sheets in it. */
+    @Parameter(names = "--schema",
+               description = "Read the table columns of the sheets from this schema file (see --write-schema)"
+               + " instead of inferring them: the CSV files are written while reading (one pass, no buffering)"
+               + " and values that do not fit are reported")
+    protected String schemaFile = null;
+
+    /** The schema file to write the table columns of the sheets to. */
+    @Parameter(names = "--write-schema",
+               description = "Write the table columns of the sheets to this schema file (a CSV file)")
+    protected String writeSchemaFile = null;
+
+    /** The number of threads to process the sheets with. */
+    @Parameter(names = "--threads",
+               description = "The number of sheets to process concurrently, each thread with a streaming reader of its own"
+               + " (so with --streaming or --formula-strategy cached; the SQL scripts are still written in sheet order)",
+               validateWith = PositiveInteger.class)
+    protected Integer threads = 1;
+
+    /** Write the numbers as their raw values instead of formatted by their cell style? */
+    @Parameter(names = "--raw-numbers",
+               description = "Write the numbers as the shortest decimal that is the exact cell value, instead of as"
+               + " formatted by their cell style (faster, but a format like 0.00 does not round anymore)")
+    protected boolean rawNumbers = false;
+
+    /** The number of threads to convert the rows of a large sheet with (0 means the number of processors). */
+    @Parameter(names = "--conversion-threads",
+               description = "The number of threads to convert the rows of a large sheet with, in row ranges"
+               + " (0 means the number of processors, 1 converts the rows while reading)")
+    protected Integer conversionThreads = 0;
+
+    /** The directory to write the SQL scripts and CSV files to (null means the current directory). */
+    @Parameter(names = "--output-dir",
+               description = "The directory to write the SQL scripts and CSV files to (default the current directory)."
+               + " In batch mode each workbook gets a subdirectory named after it.")
+    protected String outputDir = null;
+
+    /** Watch the spreadsheet directory and convert the workbooks dropped in it till stopped? */
+    @Parameter(names = "--watch",
+               description = "Watch the directory given as spreadsheet and convert each workbook dropped in it, till stopped."
+               + " The output and the workbook are moved to done/<name> or failed/<name> in the output directory"
+               + " and the status is kept in status.json there")
+    protected boolean watch = false;
+
+    /** The number of workbooks to convert at the same time in batch or watch mode (0 means the number of processors). */
+    @Parameter(names = "--batch-threads",
+               description = "The number of workbooks to convert at the same time in batch mode, i.e. for more than one"
+               + " spreadsheet, a directory or a glob pattern like data/*.xlsx, or in watch mode"
+               + " (0 means the number of processors)")
+    protected Integer batchThreads = 0;
+
+    /** The format of the files to load (CSV or BINARY). */
+    @Parameter(names = "--copy-format",
+               description = "The format of the files to load (csv, binary): binary writes <table>.bin in the binary format"
+               + " of the PostgreSQL COPY command, typed by the column types, for load.sql to copy with format binary"
+               + " (PostgreSQL only, the numbers are the raw cell values)",
+               validateWith = ValidCopyFormats.class)
+    protected String copyFormat = CSV;
+
+    /** The compression of the files to load (NONE or GZIP). */
+    @Parameter(names = "--compression",
+               description = "The compression of the files to load (none, gzip): gzip writes <table>.csv.gz (or .bin.gz)"
+               + " while writing, the external table decompresses it with a zcat PREPROCESSOR (in directory exec_dir)"
+               + " and load.sql copies from program 'gzip -dc'",
+               validateWith = ValidCompressions.class)
+    protected String compression = NONE;
+
+    /** The number of files to roll the rows of each sheet into. */
+    @Parameter(names = "--split-files",
+               description = "Roll the rows of each sheet into this number of files <table>_1.csv, <table>_2.csv, ..."
+               + " of about the same number of rows, for the external table to read in parallel and load.sql"
+               + " to copy with one command per file",
+               validateWith = PositiveInteger.class)
+    protected Integer splitFiles = 1;
+
+    /** The size in megabytes of the files to roll the rows of each sheet into (0 means no limit). */
+    @Parameter(names = "--split-size",
+               description = "Roll the rows of each sheet into files <table>_1.csv, <table>_2.csv, ... of at most about"
+               + " this number of megabytes (before compression, 0 means no limit)",
+               validateWith = PositiveInteger.class)
+    protected Integer splitSize = 0;
+
+    /** The column to partition the rows of each sheet by (null means none). */
+    @Parameter(names = "--partition-column",
+               description = "Write the rows of each sheet with this column into a file per partition <table>_p1.csv,"
+               + " <table>_p2.csv, ...: a partition per distinct value (at most " + Partitioner.MAX_PARTITIONS + ")"
+               + " or per value range (see --partition-bounds), with a partitioned external table (Oracle)"
+               + " or declarative partitions (PostgreSQL) to load each file into its own partition")
+    protected String partitionColumn = null;
+
+    /** The upper bounds (exclusive) of the value ranges of the partition column in ascending order (empty means none). */
+    @Parameter(names = "--partition-bounds",
+               description = "Partition by range instead of by value: the upper bounds (exclusive) of the value ranges"
+               + " of the partition column in ascending order, e.g. 2024-01-01,2024-02-01 (the last partition holds"
+               + " the other values and the empty ones). The partition column must be numeric or a date")
+    protected List<String> partitionBounds = new ArrayList<>();
+
+    /** The named pipe or stdout (-) to stream the CSV of the selected sheet to, instead of a CSV file (null means none). */
+    @Parameter(names = "--pipe",
+               description = "Stream the CSV of the one selected sheet to this named pipe (created with mkfifo, in the output"
+               + " directory unless absolute) or to stdout (-, PostgreSQL only) instead of writing <table>.csv."
+               + " load.sql or the external table reads from the pipe or from stdin and the messages go to stderr."
+               + " The rows are streamed while reading with --schema, else at the end of the sheet."
+               + " The SQL scripts are replaced at the end, so load.sql of an earlier run can be read meanwhile.")
+    protected String pipe = null;
+
+    /** The JDBC URL of the database to load the rows into (null means write CSV files and SQL scripts). */
+    @Parameter(names = "--jdbc-url",
+               description = "Load the rows of the sheets straight into the database with this JDBC URL (the driver must be"
+               + " on the class path) instead of writing CSV files and SQL scripts: each table is created, unless it exists,"
+               + " and the rows are inserted with batched prepared statements. The numbers are the raw cell values.")
+    protected String jdbcUrl = null;
+
+    /** The JDBC user. */
+    @Parameter(names = "--jdbc-user",
+               description = "The database user for --jdbc-url")
+    protected String jdbcUser = null;
+
+    /** The JDBC password. */
+    @Parameter(names = "--jdbc-password",
+               description = "Ask for the database password for --jdbc-url",
+               password = true)
+    protected String jdbcPassword = null;
+
+    /** The number of rows to insert per JDBC batch. */
+    @Parameter(names = "--jdbc-batch-size",
+               description = "The number of rows to insert per batch for --jdbc-url",
+               validateWith = PositiveInteger.class)
+    protected Integer jdbcBatchSize = DEFAULT_JDBC_BATCH_SIZE;
+
+    /** The number of rows to insert per transaction (0 means one transaction per table). */
+    @Parameter(names = "--jdbc-commit-interval",
+               description = "Commit each time at least this number of rows have been inserted for --jdbc-url"
+               + " (0 means once per table). A failure rolls back the rows inserted since the last commit only,"
+               + " so the rows committed before stay in the table.")
+    protected Integer jdbcCommitInterval = 0;
+
+    /**
+     * The Excel Spreadsheet(s) (.xls, .xlsx or .xlsb), directories or glob patterns on the command line.
+     */
+    @Parameter(description = "spreadsheet(s)", required = true)
+    protected List<String> spreadsheets = new ArrayList<>();
+
     /**
-     * The Excel Spreadsheet (.xls or .xlsx) that is being accessed.
+     * The Excel Spreadsheet (.xls, .xlsx or .xlsb) that is being accessed.
      */
-    @Parameter(description = "spreadsheet", required = true)
     protected String spreadsheet = null;
 
-    public static class ValidSqlDatabases implements IParameterValidator {
+    /**
+     * Print an informational message if the verbosity is at least 1.
+     *
+     * @param str  The message
+     */
+    void info(final String str) {
+        if (verbose >= 1) {
+            System.out.println("INFO: " + str);
+        }
+    }
+
+    /**
+     * Print a debug message if the verbosity is at least 2.
+     *
+     * @param str  The message
+     */
+    void debug(final String str) {
+        if (verbose >= 2) {
+            System.out.println("DEBUG: " + str);
+        }
+    }
+
+    /**
+     * Get the directory to write the SQL scripts and CSV files to.
+     *
+     * @return The output directory
+     */
+    File getOutputDir() {
+        return new File(outputDir != null ? outputDir : PWD);
+    }
+
+    /**
+     * Get a file in the output directory.
+     *
+     * @param fileName  The file name (an absolute path is not resolved)
+     *
+     * @return The file
+     */
+    File getOutputFile(final String fileName) {
+        final File file = new File(fileName);
+
+        return file.isAbsolute() ? file : new File(getOutputDir(), fileName);
+    }
+
+    /**
+     * Copy the settings, e.g. to convert a workbook of a batch with settings of its own.
+     *
+     * @return The copy (the lists are shared)
+     */
+    Settings copy() {
+        try {
+            return (Settings) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Set the verbosity (0 means warnings only, 1 informational messages too and 2 debug messages too).
+     *
+     * @param pVerbose  The verbosity
+     *
+     * @return These settings
+     */
+    public Settings setVerbose(final int pVerbose) {
+        this.verbose = pVerbose;
+        return this;
+    }
+
+    /**
+     * Set the regular expression the names of the sheets to convert must match.
+     *
+     * @param pSheetNameExpression  The sheet name expression
+     *
+     * @return These settings
+     */
+    public Settings setSheetNameExpression(final String pSheetNameExpression) {
+        this.sheetNameExpression = pSheetNameExpression;
+        return this;
+    }
+
+    /**
+     * Set the SQL table names to use instead of the sheet names (by sheet index).
+     *
+     * @param pTableNames  The table names
+     *
+     * @return These settings
+     */
+    public Settings setTableNames(final List<String> pTableNames) {
+        this.tableNames = new ArrayList<>(pTableNames);
+        return this;
+    }
+
+    /**
+     * Set the header rows (0 means no header: the columns are named A, B, ...).
+     *
+     * @param pHeaderRowFrom  The first header row
+     * @param pHeaderRowTill  The last header row
+     *
+     * @return These settings
+     */
+    public Settings setHeaderRows(final int pHeaderRowFrom, final int pHeaderRowTill) {
+        this.headerRowFrom = pHeaderRowFrom;
+        this.headerRowTill = pHeaderRowTill;
+        return this;
+    }
+
+    /**
+     * Set the SQL database to infer the column types for.
+     *
+     * @param pSqlDatabase  The SQL database (ORACLE or POSTGRESQL)
+     *
+     * @return These settings
+     *
+     * @throws ParameterException  When the database is not supported
+     */
+    public Settings setSqlDatabase(final String pSqlDatabase) {
+        new ValidSqlDatabases().validate("sqlDatabase", pSqlDatabase);
+        this.sqlDatabase = pSqlDatabase;
+        return this;
+    }
+
+    /**
+     * Set the string column size to use instead of the maximum length of the values.
+     *
+     * @param pStringColumnSize  The string column size or null for the maximum length
+     *
+     * @return These settings
+     */
+    public Settings setStringColumnSize(final Integer pStringColumnSize) {
+        this.stringColumnSize = pStringColumnSize;
+        return this;
+    }
+
+    /**
+     * Read the workbook with a streaming parser instead of loading it completely?
+     *
+     * @param pStreaming  Stream?
+     *
+     * @return These settings
+     */
+    public Settings setStreaming(final boolean pStreaming) {
+        this.streaming = pStreaming;
+        return this;
+    }
+
+    /**
+     * Set the formula strategy.
+     *
+     * @param pFormulaStrategy  The formula strategy (CACHED, LAZY or ALWAYS) or null for the default
+     *
+     * @return These settings
+     *
+     * @throws ParameterException  When the formula strategy is not supported
+     */
+    public Settings setFormulaStrategy(final String pFormulaStrategy) {
+        if (pFormulaStrategy != null) {
+            new ValidFormulaStrategies().validate("formulaStrategy", pFormulaStrategy);
+        }
+        this.formulaStrategy = pFormulaStrategy;
+        return this;
+    }
+
+    /**
+     * Set the heap budget for buffering the rows of a sheet.
+     *
+     * @param pMemoryBudget  The budget in megabytes (0 means a quarter of the maximum heap)
+     *
+     * @return These settings
+     */
+    public Settings setMemoryBudget(final int pMemoryBudget) {
+        this.memoryBudget = pMemoryBudget;
+        return this;
+    }
+
+    /**
+     * Set the number of threads to convert the rows of a large sheet with.
+     *
+     * @param pConversionThreads  The number of threads (0 means the number of processors)
+     *
+     * @return These settings
+     */
+    public Settings setConversionThreads(final int pConversionThreads) {
+        this.conversionThreads = pConversionThreads;
+        return this;
+    }
+
+    /**
+     * Write PostgreSQL binary COPY files instead of CSV files?
+     *
+     * @return true for --copy-format binary
+     */
+    boolean isBinaryCopy() {
+        return BINARY.equals(copyFormat);
+    }
+
+    /**
+     * Roll the rows of each sheet into more than one file?
+     *
+     * @return true for --split-files above 1 or a --split-size
+     */
+    boolean isSplit() {
+        return splitFiles > 1 || splitSize > 0;
+    }
+
+    /**
+     * Compress the files to load with gzip?
+     *
+     * @return true for --compression gzip
+     */
+    boolean isCompressed() {
+        return GZIP.equals(compression);
+    }
+
+    /**
+     * Get the formula strategy for the user model.
+     *
+     * @return The formula strategy (CACHED, LAZY or ALWAYS)
+     */
+    String getFormulaStrategy() {
+        return formulaStrategy != null ? formulaStrategy : LAZY;
+    }
+
+    public static final class ValidSqlDatabases implements IParameterValidator {
         @Override
         public void validate(final String name, final String value) throws ParameterException {
             List<String> databases = Arrays.asList(ORACLE, POSTGRESQL);
@@ -108,4 +527,40 @@ class Settings {
             }
         }
     }
+
+    public static final class ValidCopyFormats implements IParameterValidator {
+        @Override
+        public void validate(final String name, final String value) throws ParameterException {
+            List<String> copyFormats = Arrays.asList(CSV, BINARY);
+
+            if (!copyFormats.contains(value)) {
+                throw new ParameterException("Parameter " + name + " (" + value
+                                             + ") is not a valid copy format (" + copyFormats + ")");
+            }
+        }
+    }
+
+    public static final class ValidCompressions implements IParameterValidator {
+        @Override
+        public void validate(final String name, final String value) throws ParameterException {
+            List<String> compressions = Arrays.asList(NONE, GZIP);
+
+            if (!compressions.contains(value)) {
+                throw new ParameterException("Parameter " + name + " (" + value
+                                             + ") is not a valid compression (" + compressions + ")");
+            }
+        }
+    }
+
+    public static final class ValidFormulaStrategies implements IParameterValidator {
+        @Override
+        public void validate(final String name, final String value) throws ParameterException {
+            List<String> formulaStrategies = Arrays.asList(CACHED, LAZY, ALWAYS);
+
+            if (!formulaStrategies.contains(value)) {
+                throw new ParameterException("Parameter " + name + " (" + value
+                                             + ") is not a valid formula strategy (" + formulaStrategies + ")");
+            }
+        }
+    }
 }
@@ -0,0 +1,64 @@
+package com.paulissoft.database.utilities;
+
+/**
+ * Receives the rows and cells of a work sheet in sheet order.
+ *
+ * Every workbook reader (the POI user model or one of the streaming readers)
+ * translates its cells into these calls, so the header and type inference
+ * logic does not depend on the way the workbook is read.
+ * Only rows and cells with contents are reported, so both may have gaps.
+ */
+interface SheetHandler {
+    /**
+     * Start a row.
+     *
+     * @param rowNum  The row number (starting from 0)
+     */
+    void startRow(int rowNum);
+
+    /**
+     * A string cell (or a formula with a string result).
+     *
+     * @param column  The column index (starting from 0)
+     * @param value   The string value
+     */
+    void stringCell(int column, String value);
+
+    /**
+     * A numeric cell (or a formula with a numeric result), which may be a date.
+     *
+     * @param column  The column index (starting from 0)
+     * @param value   The numeric value
+     * @param format  The number format of the cell style
+     */
+    void numericCell(int column, double value, StyleFormat format);
+
+    /**
+     * A boolean cell (or a formula with a boolean result).
+     *
+     * @param column  The column index (starting from 0)
+     * @param value   The boolean value
+     */
+    void booleanCell(int column, boolean value);
+
+    /**
+     * A blank cell: it exists (for instance because it has a style) but has no value.
+     *
+     * @param column  The column index (starting from 0)
+     */
+    void blankCell(int column);
+
+    /**
+     * A formula cell with an error result.
+     *
+     * @param column  The column index (starting from 0)
+     */
+    void errorCell(int column);
+
+    /**
+     * End a row.
+     *
+     * @param rowNum  The row number (starting from 0)
+     */
+    void endRow(int rowNum);
+}
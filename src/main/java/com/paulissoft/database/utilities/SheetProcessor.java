@@ -0,0 +1,1024 @@
+package com.paulissoft.database.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Turns the rows and cells of one work sheet into table columns and a CSV file.
+ *
+ * This is the algorithm described in the README:
+ * <ol>
+ * <li>If a cell is part of a header row add the header name (cell contents)
+ *     to the previous contents of the corresponding header array element (with a space as separator), if any.</li>
+ * <li>Else:
+ *     <ol>
+ *     <li>If there is no header and the cell is beyond the largest sheet column found till now,
+ *         add the corresponding column names (A, B, ...) as the header names
+ *         to the header array and the cell itself to the (sparse) data array.</li>
+ *     <li>Else, it is just a data cell so add it to the (sparse) data array.</li>
+ *     </ol>
+ * </li>
+ * </ol>
+ * Every time a data cell is processed, the header name (via the column index) will be used to:
+ * either add the header name as a table column or retrieve the column with that name.
+ * Now the cell value will be used to update the table column data type.
+ * At the end of the sheet the rows are printed to a CSV file (&lt;sheet&gt;.csv)
+ * taking care of the holes in the sparse data array.
+ *
+ * When the table columns are pinned by a schema, the number of columns is known in advance,
+ * so each row is printed to the CSV file at its end and no row is buffered.
+ * The table columns do not change then: values that do not fit are reported instead.
+ *
+ * The data rows of a large sheet are converted in row ranges on a fork-join pool (see RowConverter):
+ * the table columns are still added while reading but the values are converted later on.
+ *
+ * With --copy-format binary a PostgreSQL binary COPY file is written instead of the CSV file,
+ * from the plain values and typed by the table columns (see BinaryCopyWriter).
+ *
+ * With --split-files or --split-size the rows are rolled into more than one file, at a row boundary
+ * each time the current file has its share of the rows or its maximum size.
+ * With --partition-column each row is written to the file of its partition (see Partitioner):
+ * the files of all partitions are open till the end of the sheet.
+ *
+ * When the rows are kept (see keepRows()), no CSV file is written: the plain values stay in the row store
+ * for the caller to read after the table columns have been inferred (see SheetReader).
+ */
+class SheetProcessor implements SheetHandler {
+    /** The maximum number of schema violations reported per sheet. */
+    private static final int MAX_VIOLATIONS_REPORTED = 10;
+
+    /** The number of bytes in a megabyte. */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The sheet name. */
+    private String sheetName = null;
+
+    /** The table for this sheet. */
+    private Table table = null;
+
+    /** The cell converter. */
+    private CellConverter converter = null;
+
+    /** The converter of the data rows in row ranges on a fork-join pool or null if they are converted while reading. */
+    private RowConverter rowConverter = null;
+
+    /** The header array. */
+    private ColumnRegistry headerRow = new ColumnRegistry();
+
+    /** We need to process all rows before we defintively know many columns there are (null if the schema is pinned). */
+    private RowStore dataRows = null;
+
+    /** Are the table columns pinned by a schema? */
+    private boolean schemaPinned = false;
+
+    /** For each pinned table column a column to determine the lengths of the current value. */
+    private List<TableColumn> valueColumns = null;
+
+    /** The number of values that violate the pinned schema. */
+    private int nrViolations = 0;
+
+    /** Keep the plain values in the row store for the caller instead of writing a CSV file? */
+    private boolean keepRows = false;
+
+    /** Write a binary COPY file instead of a CSV file (--copy-format binary)? */
+    private boolean binary = false;
+
+    /** The binary COPY file. */
+    private BinaryCopyWriter binaryFile = null;
+
+    /** The field type of each table column for the binary COPY file. */
+    private byte[] binaryTypes = null;
+
+    /** The plain values of the current row by column index (schema pinned and binary only, null if missing). */
+    private String[] binaryRow = null;
+
+    /** The CSV file. */
+    private CsvWriter csvFile = null;
+
+    /** The number of files the rows have been rolled into till now (see --split-files and --split-size). */
+    private int nrFiles = 0;
+
+    /** The number of rows in the current file. */
+    private long nrFileRows = 0;
+
+    /** The maximum number of rows in a file (0 means no limit). */
+    private long maxFileRows = 0;
+
+    /** The maximum size of a file in bytes, before compression (0 means no limit). */
+    private long maxFileSize = 0;
+
+    /** Partition the rows by the partition column (--partition-column)? */
+    private boolean partitioned = false;
+
+    /** The partitions or null if the rows are not partitioned (yet). */
+    private Partitioner partitioner = null;
+
+    /** The plain value of the partition column in the current row (schema pinned only). */
+    private String partitionValue = null;
+
+    /** The CSV files by partition (null if not opened yet). */
+    private List<CsvWriter> csvFiles = new ArrayList<CsvWriter>();
+
+    /** The binary COPY files by partition (null if not opened yet). */
+    private List<BinaryCopyWriter> binaryFiles = new ArrayList<BinaryCopyWriter>();
+
+    /** The writer thread shared by the CSV files of the partitions (null if none yet). */
+    private CsvWriter.WriterThread partitionWriterThread = null;
+
+    /** A run of field separators, to print many at once since a sheet may have 16,384 columns. */
+    private String separators = "";
+
+    /** The CSV line of the current row, without metadata (schema pinned only). */
+    private StringBuilder csvRow = new StringBuilder();
+
+    /** The column of the last value in the CSV line of the current row (schema pinned only). */
+    private int csvRowLastColumn = 0;
+
+    /** Does the CSV line of the current row contain a non empty value (schema pinned only)? */
+    private boolean csvRowHasData = false;
+
+    /** The current row. */
+    private int currentRow = -1;
+
+    /** The progress message. */
+    private String progress = null;
+
+    /** The number of non empty rows. */
+    private int nrNonEmptyRows = 0;
+
+    /** Is there a header? */
+    private boolean hasHeader = false;
+
+    /** Is the current row a header row? */
+    private boolean isHeaderRow = false;
+
+    /** Is the current row a data row? */
+    private boolean isDataRow = false;
+
+    /** Is the current row the last header row, i.e. the one before the first data row? */
+    private boolean lastDataRow = false;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings   The run-time settings
+     * @param pSheetName  The sheet name
+     * @param pTable      The table for this sheet
+     * @param pPlan       The plan for this sheet
+     */
+    SheetProcessor(final Settings pSettings, final String pSheetName, final Table pTable, final Planner.SheetPlan pPlan) {
+        this.settings = pSettings;
+        this.sheetName = pSheetName;
+        this.table = pTable;
+        this.hasHeader = settings.headerRowFrom > 0;
+        this.converter = new CellConverter(settings, table);
+        this.binary = settings.isBinaryCopy();
+        this.maxFileSize = settings.splitSize * MEGABYTE;
+        this.partitioned = settings.partitionColumn != null;
+
+        if (pPlan.getColumns() != null) {
+            schemaPinned = true;
+            valueColumns = new ArrayList<TableColumn>();
+            for (TableColumn column : pPlan.getColumns()) {
+                valueColumns.add(column.emptyCopy());
+                table.addColumn(column);
+            }
+            if (binary) {
+                binaryRow = new String[table.getNrColumns()];
+                binaryTypes = getBinaryTypes();
+            }
+            if (partitioned) {
+                partitioner = createPartitioner();
+            }
+            // the rows are written while reading: share the rows of the dimension, if known
+            if (settings.splitFiles > 1 && pPlan.getNrRows() < 0) {
+                System.out.println("WARNING: The number of rows of sheet " + sheetName + " is unknown: not splitting it into "
+                                   + settings.splitFiles + " files");
+            } else if (settings.splitFiles > 1) {
+                setMaxFileRows(pPlan.getNrRows() - (hasHeader ? settings.headerRowTill : 0));
+            }
+        } else {
+            this.dataRows = pPlan.newRowStore();
+            if (pPlan.getConversionPool() != null) {
+                this.rowConverter = new RowConverter(settings, table, pPlan.getConversionPool(), dataRows);
+                if (binary || partitioned) {
+                    rowConverter.keepPlainValues();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void startRow(final int rowNum) {
+        if (schemaPinned) {
+            csvRow.setLength(0);
+            csvRowLastColumn = 0;
+            csvRowHasData = false;
+            partitionValue = null;
+            if (binaryRow != null) {
+                Arrays.fill(binaryRow, null);
+            }
+        } else if (rowConverter != null) {
+            rowConverter.startRow(rowNum);
+        } else {
+            dataRows.startRow(rowNum);
+        }
+        currentRow = rowNum;
+        isHeaderRow =
+            hasHeader && rowNum >= settings.headerRowFrom - 1 && rowNum <= settings.headerRowTill - 1;
+        isDataRow = !hasHeader || rowNum > settings.headerRowTill - 1;
+        lastDataRow = hasHeader && rowNum == settings.headerRowTill - 1;
+
+        settings.debug("Processing Excel row " + (rowNum + 1));
+
+        final int displayAfter = 10;
+
+        switch (nrNonEmptyRows++ % displayAfter) {
+        case 0:
+            progress = "Processing row " + nrNonEmptyRows;
+            break;
+
+        case displayAfter - 1:
+            progress += ".";
+            settings.info(progress);
+            progress = null;
+            break;
+
+        default:
+            progress += ".";
+        }
+    }
+
+    @Override
+    public void stringCell(final int column, final String value) {
+        if (isHeaderRow) {
+            addHeader(column, value);
+        } else if (isDataRow && rowConverter != null) {
+            getColumn(column);
+            rowConverter.stringCell(column, value);
+        } else if (isDataRow) {
+            final TableColumn col = getColumn(column);
+
+            addValue(column, converter.getStringValue(value, col));
+        }
+    }
+
+    @Override
+    public void numericCell(final int column, final double value, final StyleFormat format) {
+        if (isHeaderRow) {
+            // Some names are just numbers, strangely enough (column name 14)
+            addHeader(column, converter.formatRawCellContents(value, format.getFormatIndex(), format.getFormatString()));
+        } else if (isDataRow && rowConverter != null) {
+            getColumn(column);
+            rowConverter.numericCell(column, value, format);
+        } else if (isDataRow) {
+            final TableColumn col = getColumn(column);
+
+            addValue(column, converter.getNumericValue(value, format, col));
+        }
+    }
+
+    @Override
+    public void booleanCell(final int column, final boolean value) {
+        if (isHeaderRow) {
+            addHeader(column, value ? "TRUE" : "FALSE");
+        } else if (isDataRow && rowConverter != null) {
+            getColumn(column);
+            rowConverter.booleanCell(column, value);
+        } else if (isDataRow) {
+            final TableColumn col = getColumn(column);
+
+            addValue(column, converter.getBooleanValue(value, col));
+        }
+    }
+
+    @Override
+    public void blankCell(final int column) {
+        stringCell(column, "");
+    }
+
+    @Override
+    public void errorCell(final int column) {
+        if (isHeaderRow) {
+            addHeader(column, "");
+        } else if (isDataRow && rowConverter != null) {
+            getColumn(column);
+            rowConverter.stringCell(column, "");
+        } else if (isDataRow) {
+            getColumn(column);
+            addValue(column, "");
+        }
+    }
+
+    @Override
+    public void endRow(final int rowNum) {
+        // Create table columns
+        if (lastDataRow && schemaPinned) {
+            checkHeader();
+        } else if (lastDataRow) {
+            // add table columns in column order
+            for (int column = 0; column <= headerRow.getMaxColumn(); column++) {
+                final TableColumn col = new TableColumn(settings);
+                String header = headerRow.get(column);
+
+                if (header != null) {
+                    settings.debug("setting header column " + (column + 1) + " to '" + header + "' (3)");
+                } else {
+                    // missing headers get the Excel column A, B, ...
+                    header = ColumnRegistry.excelColumnName(column);
+                    settings.debug("setting header column " + (column + 1) + " to '" + header + "' (2)");
+                }
+                col.setName(header);
+                table.addColumn(col);
+            }
+        }
+
+        if (schemaPinned ? !printCsvRow() : (rowConverter != null ? !rowConverter.endRow() : !dataRows.endRow())) {
+            settings.debug("Skipping row " + (rowNum + 1) + " since it is empty");
+        }
+    }
+
+    /**
+     * Print the CSV line of the current row, if it contains data (schema pinned only).
+     *
+     * @return Has the row been printed?
+     */
+    private boolean printCsvRow() {
+        if (!csvRowHasData) {
+            return false;
+        }
+
+        if (binary) {
+            try {
+                startFileRow(getPartitionValue(binaryRow));
+                printBinaryRow(binaryRow, currentRow);
+            } catch (java.io.IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            return true;
+        }
+
+        // print separators after the last column if that was not the last table column
+        final int nrSeparatorsToPrint = table.getNrColumns() - 1 - csvRowLastColumn;
+
+        if (nrSeparatorsToPrint > 0) {
+            csvRow.append(getSeparators(nrSeparatorsToPrint), 0, nrSeparatorsToPrint * table.getFieldSeparator().length());
+        }
+
+        try {
+            startFileRow(partitionValue);
+
+            if (settings.addMetadata) {
+                csvFile.print(sheetName + table.getFieldSeparator());
+                csvFile.print(String.valueOf(currentRow + 1) + table.getFieldSeparator());
+            }
+
+            csvFile.print(csvRow);
+            csvFile.print(Settings.NL);
+        } catch (java.io.IOException e) {
+            throw new java.io.UncheckedIOException(e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Report the header columns that differ from the table columns pinned by the schema.
+     */
+    private void checkHeader() {
+        for (int key = 0; key <= headerRow.getMaxColumn(); key++) {
+            if (headerRow.get(key) == null) {
+                continue;
+            }
+
+            final TableColumn col = new TableColumn(settings);
+
+            col.setName(headerRow.get(key));
+            if (key >= table.getNrColumns()) {
+                System.out.println("WARNING: Header column " + (key + 1) + " (" + col.getName() + ") of sheet " + sheetName
+                                   + " is not in the schema");
+            } else if (!col.getName().equals(table.getColumn(key).getName())) {
+                System.out.println("WARNING: Header column " + (key + 1) + " (" + col.getName() + ") of sheet " + sheetName
+                                   + " differs from the schema (" + table.getColumn(key).getName() + ")");
+            }
+        }
+    }
+
+    /**
+     * Add the header name (cell contents) to the previous contents of the
+     * corresponding header array element (with a space as separator), if any.
+     *
+     * @param column  The column index
+     * @param value   The header name
+     */
+    private void addHeader(final int column, final String value) {
+        headerRow.add(column, value);
+    }
+
+    /**
+     * Get the table column for a data cell, adding columns A, B, ... if there is no header.
+     *
+     * @param column  The column index
+     *
+     * @return The table column
+     */
+    private TableColumn getColumn(final int column) {
+        settings.debug("Processing Excel column " + (column + 1));
+        settings.debug("Number of table columns: " + table.getNrColumns());
+
+        if (schemaPinned) {
+            // the pinned table column does not change: the value gets a column of its own to check it against
+            final TableColumn valueColumn = (column < valueColumns.size() ? valueColumns.get(column) : new TableColumn(settings));
+
+            valueColumn.clear();
+
+            return valueColumn;
+        }
+
+        if (!hasHeader && column > headerRow.getMaxColumn()) {
+            // See note 2a (first part) above.
+            for (int key = headerRow.getMaxColumn() + 1; key <= column; key++) {
+                final TableColumn col = new TableColumn(settings);
+                final String header = ColumnRegistry.excelColumnName(key);
+
+                headerRow.add(key, header);
+                col.setName(header);
+                settings.debug("setting header column " + (key + 1) + " to '" + header + "' (1)");
+                table.addColumn(col);
+            }
+            assert (column == headerRow.getMaxColumn());
+        }
+
+        // Note 2a (second part) and 2b.
+        assert (column < table.getNrColumns());
+
+        return table.getColumn(column);
+    }
+
+    /**
+     * Keep the plain values of the data rows in the row store for the caller instead of writing a CSV file.
+     * To be called before the first row and not when the schema is pinned.
+     */
+    void keepRows() {
+        keepRows = true;
+        if (rowConverter != null) {
+            rowConverter.keepPlainValues();
+        }
+    }
+
+    /**
+     * Get the row store with the data rows kept (see keepRows()), to be closed by the caller.
+     *
+     * @return The row store
+     */
+    RowStore getDataRows() {
+        return dataRows;
+    }
+
+    /**
+     * Add the value to the sparse data array, enclosing it when necessary.
+     *
+     * @param column  The column index
+     * @param value   The value
+     */
+    private void addValue(final int column, final String value) {
+        if (schemaPinned && !checkValue(column, value)) {
+            return;
+        }
+
+        // the buffered values of partitioned rows are enclosed when written, after the partition column is known
+        final String csvValue = keepRows || binary || (partitioned && !schemaPinned) ? value : converter.getCsvValue(value);
+
+        if (partitioner != null && column == partitioner.getColumnIndex()) {
+            partitionValue = value;
+        }
+
+        if (schemaPinned && binary) {
+            binaryRow[column] = csvValue;
+            csvRowHasData |= csvValue.length() > 0;
+        } else if (schemaPinned) {
+            // missing columns get a field separator
+            final int nrSeparatorsToPrint = column - csvRowLastColumn;
+
+            if (nrSeparatorsToPrint > 0) {
+                csvRow.append(getSeparators(nrSeparatorsToPrint), 0, nrSeparatorsToPrint * table.getFieldSeparator().length());
+            }
+            csvRow.append(csvValue);
+            csvRowLastColumn = column;
+            csvRowHasData |= csvValue.length() > 0;
+        } else {
+            dataRows.add(column, csvValue);
+        }
+    }
+
+    /**
+     * Check a value against the table column pinned by the schema and report a violation.
+     *
+     * @param column  The column index
+     * @param value   The value
+     *
+     * @return Is the column in the schema? If not, the value is skipped.
+     */
+    private boolean checkValue(final int column, final String value) {
+        final boolean inSchema = column < table.getNrColumns();
+
+        if (value.isEmpty() || (inSchema && table.getColumn(column).covers(valueColumns.get(column)))) {
+            return inSchema;
+        }
+
+        if (nrViolations++ < MAX_VIOLATIONS_REPORTED) {
+            final String cell = new CellReference(currentRow, column).formatAsString();
+
+            if (inSchema) {
+                final TableColumn col = table.getColumn(column);
+
+                System.out.println("WARNING: Value '" + value + "' of cell " + cell + " (sheet " + sheetName
+                                   + ") does not fit column " + col.getName() + " " + col.getSqlType() + " of the schema");
+            } else {
+                System.out.println("WARNING: Value '" + value + "' of cell " + cell + " (sheet " + sheetName
+                                   + ") is beyond the last column of the schema: skipped");
+            }
+        }
+
+        return inSchema;
+    }
+
+    /**
+     * Write the CSV file after the last row has been processed.
+     *
+     * @return Did this CSV have contents?
+     *
+     * @throws java.io.IOException  When the CSV file can not be written
+     */
+    boolean finish() throws java.io.IOException {
+        if (progress != null) {
+            settings.info(progress);
+        }
+
+        if (!keepRows) {
+            System.out.println("");
+        }
+
+        if (rowConverter != null) {
+            rowConverter.finish();
+        }
+
+        if (schemaPinned) {
+            // the rows have been printed already
+            if (nrFiles > 0) {
+                closeFile();
+            } else {
+                warnNoData();
+            }
+            if (nrViolations > 0) {
+                System.out.println("WARNING: " + nrViolations + " value(s) of sheet " + sheetName
+                                   + " violate the schema (at most " + MAX_VIOLATIONS_REPORTED + " reported)");
+            }
+        } else if (keepRows) {
+            // the caller reads and closes the row store
+            if (dataRows.size() == 0) {
+                System.out.println("WARNING: Sheet does not contain data");
+            }
+            return dataRows.size() > 0;
+        } else if (dataRows.size() > 0) {
+            if (settings.splitFiles > 1) {
+                setMaxFileRows(dataRows.size());
+            }
+            if (partitioned) {
+                partitioner = createPartitioner();
+            }
+
+            try {
+                if (binary) {
+                    binaryTypes = getBinaryTypes();
+                    writeBinaryRows();
+                } else {
+                    writeRows();
+                }
+            } finally {
+                dataRows.close(); // removes the temporary file
+                closeFile();
+            }
+        } else {
+            warnNoData();
+        }
+
+        // >Add two table columns AFTER the CSV data has been printed
+        if (settings.addMetadata) {
+            TableColumn col = new TableColumn(settings);
+            final int maxNumericLength = 12;
+            final int maxStringLength = 100; // should suffice
+
+            // this will become second
+            settings.debug("adding row column");
+            col.setName("ROW");
+            col.setNumericLength(maxNumericLength);
+            table.addColumnFirst(col);
+
+            col = new TableColumn(settings);
+
+            // this will become first
+            settings.debug("adding sheet column");
+            col.setName("SHEET");
+            col.setStringLength(maxStringLength);
+            table.addColumnFirst(col);
+        }
+
+        if (partitioner != null && nrFiles > 0) {
+            table.setNrFiles(partitioner.getNrPartitions());
+        } else {
+            table.setNrFiles(Math.max(nrFiles, 1));
+        }
+
+        return nrFiles > 0;
+    }
+
+    /**
+     * Close the files and the row store after a failure while reading or writing the sheet, ignoring further errors.
+     * When the schema is pinned the files are open while reading, so without this a failure would leave them open
+     * (and their writer threads waiting), for instance in watch mode.
+     */
+    void abort() {
+        final List<java.io.Closeable> closeables = new ArrayList<java.io.Closeable>();
+
+        closeables.add(csvFile);
+        closeables.add(binaryFile);
+        closeables.addAll(csvFiles);
+        closeables.addAll(binaryFiles);
+        closeables.add(partitionWriterThread); // after its files
+        closeables.add(dataRows);
+        csvFile = null;
+        binaryFile = null;
+        csvFiles.clear();
+        binaryFiles.clear();
+        partitionWriterThread = null;
+
+        for (java.io.Closeable closeable : closeables) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (java.io.IOException | RuntimeException e) {
+                    settings.debug("ignoring " + e + " while aborting sheet " + sheetName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Warn that the sheet does not contain data and end the pipe (see --pipe), if any, since its reader waits for its end.
+     *
+     * @throws java.io.IOException  When the pipe can not be opened
+     */
+    private void warnNoData() throws java.io.IOException {
+        System.out.println("WARNING: Sheet does not contain data");
+        if (settings.pipe != null && binary) {
+            openBinaryFile(0).close();
+        } else if (settings.pipe != null) {
+            openCsvFile(0).close();
+        }
+    }
+
+    /**
+     * Create the partitions of the rows by the partition column, once the table columns are known.
+     *
+     * @return The partitions or null if the partition column is not a table column
+     */
+    private Partitioner createPartitioner() {
+        final Partitioner result = Partitioner.create(settings, table);
+
+        if (result == null) {
+            System.out.println("WARNING: Partition column " + Table.getName(settings.partitionColumn)
+                               + " is not a column of sheet " + sheetName + ": not partitioning it");
+        } else {
+            // for the file names
+            table.setPartitioner(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the value of the partition column in a row.
+     *
+     * @param values  The plain values by column index (null if missing)
+     *
+     * @return The value or null if the rows are not partitioned
+     */
+    private String getPartitionValue(final String[] values) {
+        return (partitioner != null ? values[partitioner.getColumnIndex()] : null);
+    }
+
+    /**
+     * Get the value of the partition column in a buffered row.
+     *
+     * @param row  The row index in the row store
+     *
+     * @return The value or null if missing or if the rows are not partitioned
+     */
+    private String getPartitionValue(final int row) {
+        if (partitioner != null) {
+            for (int cell = 0; cell < dataRows.getNrCells(row); cell++) {
+                if (dataRows.getColumn(row, cell) == partitioner.getColumnIndex()) {
+                    return dataRows.getValue(row, cell);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Set the maximum number of rows in a file, to share the rows among --split-files files.
+     *
+     * @param nrRows  The number of rows to share
+     */
+    private void setMaxFileRows(final long nrRows) {
+        maxFileRows = Math.max((nrRows + settings.splitFiles - 1) / settings.splitFiles, 1);
+    }
+
+    /**
+     * Start a row in the CSV or binary COPY file: open the first file or, when the current file is full
+     * (see --split-files and --split-size), close it and roll over to the next one.
+     * When the rows are partitioned, the file is the one of the partition of the row, opened the first time.
+     *
+     * @param value  The value of the partition column in the row (null if missing or not partitioned)
+     *
+     * @throws java.io.IOException  When a file can not be closed or created
+     */
+    private void startFileRow(final String value) throws java.io.IOException {
+        if (partitioner != null) {
+            openPartitionFile(partitioner.getPartition(value));
+            return;
+        }
+
+        if (nrFiles > 0
+            && ((maxFileRows > 0 && nrFileRows >= maxFileRows)
+                || (maxFileSize > 0 && (binary ? binaryFile.getSize() : csvFile.getNrChars()) >= maxFileSize))) {
+            closeFile();
+        }
+
+        if (csvFile == null && binaryFile == null) {
+            if (binary) {
+                binaryFile = openBinaryFile(nrFiles);
+            } else {
+                csvFile = openCsvFile(nrFiles);
+            }
+            nrFiles++;
+            nrFileRows = 0;
+        }
+        nrFileRows++;
+    }
+
+    /**
+     * Make the file of a partition the current file, opening it the first time.
+     *
+     * @param partition  The partition (starting from 0)
+     *
+     * @throws java.io.IOException  When the file can not be created
+     */
+    private void openPartitionFile(final int partition) throws java.io.IOException {
+        while (csvFiles.size() <= partition) {
+            csvFiles.add(null);
+            binaryFiles.add(null);
+        }
+        if (binary && binaryFiles.get(partition) == null) {
+            binaryFiles.set(partition, new BinaryCopyWriter(settings.getOutputFile(table.getLocation(partition)).getPath(),
+                                                            false, settings.isCompressed(), true));
+            nrFiles++;
+        } else if (!binary && csvFiles.get(partition) == null) {
+            if (partitionWriterThread == null) {
+                partitionWriterThread = new CsvWriter.WriterThread("CSV writer " + table.getName() + " partitions");
+            }
+            // the files of all partitions are open: one writer thread for all of them
+            csvFiles.set(partition, new CsvWriter(settings.getOutputFile(table.getLocation(partition)).getPath(),
+                                                  settings, partitionWriterThread));
+            nrFiles++;
+        }
+        csvFile = csvFiles.get(partition);
+        binaryFile = binaryFiles.get(partition);
+    }
+
+    /**
+     * Close the current CSV or binary COPY file, if any.
+     * When the rows are partitioned, close the files of all partitions, creating empty files for the range
+     * partitions without rows, since each partition of the table has a file.
+     *
+     * @throws java.io.IOException  When the file can not be written
+     */
+    private void closeFile() throws java.io.IOException {
+        try {
+            if (partitioner != null && nrFiles > 0) {
+                for (int partition = 0; partition < partitioner.getNrPartitions(); partition++) {
+                    openPartitionFile(partition);
+                }
+                for (int partition = 0; partition < csvFiles.size(); partition++) {
+                    if (csvFiles.get(partition) != null) {
+                        csvFiles.get(partition).close();
+                    } else if (binaryFiles.get(partition) != null) {
+                        binaryFiles.get(partition).close();
+                    }
+                }
+                if (partitionWriterThread != null) {
+                    partitionWriterThread.close();
+                }
+            } else if (csvFile != null) {
+                csvFile.close();
+            } else if (binaryFile != null) {
+                binaryFile.close();
+            }
+        } catch (java.io.IOException | RuntimeException e) {
+            abort(); // close the partition files left
+            throw e;
+        } finally {
+            csvFile = null;
+            binaryFile = null;
+            csvFiles.clear();
+            binaryFiles.clear();
+            partitionWriterThread = null;
+        }
+    }
+
+    /**
+     * Open a CSV file, the named pipe or stdout (see --pipe).
+     *
+     * @param file  The file index (starting from 0)
+     *
+     * @return The CSV writer
+     *
+     * @throws java.io.IOException  When the CSV file can not be created
+     */
+    private CsvWriter openCsvFile(final int file) throws java.io.IOException {
+        if (Settings.STDOUT.equals(settings.pipe)) {
+            return new CsvWriter("stdout", settings, true);
+        }
+        return new CsvWriter(settings.getOutputFile(table.getLocation(file)).getPath(), settings);
+    }
+
+    /**
+     * Open a binary COPY file, the named pipe or stdout (see --pipe).
+     *
+     * @param file  The file index (starting from 0)
+     *
+     * @return The binary COPY writer
+     *
+     * @throws java.io.IOException  When the file can not be created
+     */
+    private BinaryCopyWriter openBinaryFile(final int file) throws java.io.IOException {
+        if (Settings.STDOUT.equals(settings.pipe)) {
+            return new BinaryCopyWriter("stdout", true, false);
+        }
+        return new BinaryCopyWriter(settings.getOutputFile(table.getLocation(file)).getPath(), false,
+                                    settings.isCompressed());
+    }
+
+    /**
+     * Get the field type of each table column for the binary COPY file.
+     *
+     * @return The field types
+     */
+    private byte[] getBinaryTypes() {
+        final byte[] types = new byte[table.getNrColumns()];
+
+        for (int c = 0; c < types.length; c++) {
+            types[c] = BinaryCopyWriter.getType(table.getColumn(c));
+        }
+
+        return types;
+    }
+
+    /**
+     * Write the rows to the binary COPY file(s).
+     *
+     * @throws java.io.IOException  When the file can not be written
+     */
+    private void writeBinaryRows() throws java.io.IOException {
+        final String[] values = new String[table.getNrColumns()];
+
+        // the rows may have been spilled to disk in batches
+        dataRows.rewind();
+        do {
+            for (int row = 0; row < dataRows.getNrRows(); row++) {
+                Arrays.fill(values, null);
+                for (int cell = 0; cell < dataRows.getNrCells(row); cell++) {
+                    values[dataRows.getColumn(row, cell)] = dataRows.getValue(row, cell);
+                }
+                startFileRow(getPartitionValue(values));
+                printBinaryRow(values, dataRows.getRowNumber(row));
+            }
+        } while (dataRows.nextBatch());
+    }
+
+    /**
+     * Print a row to the binary COPY file.
+     *
+     * @param values  The plain values by column index (null if missing)
+     * @param rowNum  The row number (starting from 0)
+     *
+     * @throws java.io.IOException  When the file can not be written
+     */
+    private void printBinaryRow(final String[] values, final int rowNum) throws java.io.IOException {
+        binaryFile.startTuple(values.length + (settings.addMetadata ? 2 : 0));
+        if (settings.addMetadata) {
+            binaryFile.writeField(sheetName, BinaryCopyWriter.TEXT);
+            binaryFile.writeField(String.valueOf(rowNum + 1), BinaryCopyWriter.NUMERIC);
+        }
+        for (int c = 0; c < values.length; c++) {
+            binaryFile.writeField(values[c], binaryTypes[c]);
+        }
+    }
+
+    /**
+     * Write the rows to the CSV file(s).
+     *
+     * @throws java.io.IOException  When the rows spilled to disk can not be read or the CSV file can not be written
+     */
+    private void writeRows() throws java.io.IOException {
+        // the rows may have been spilled to disk in batches
+        dataRows.rewind();
+        do {
+            for (int row = 0; row < dataRows.getNrRows(); row++) {
+                final int nrCells = dataRows.getNrCells(row);
+
+                int lastColumn = 0;
+                int nrSeparatorsToPrint = 0;
+                int nrSeparatorsPrinted = 0;
+
+                startFileRow(getPartitionValue(row));
+
+                if (settings.addMetadata) {
+                    csvFile.print(sheetName + table.getFieldSeparator());
+                    csvFile.print(String.valueOf(dataRows.getRowNumber(row) + 1) + table.getFieldSeparator());
+                }
+
+                for (int cell = 0; cell < nrCells; cell++) {
+                    final int column = dataRows.getColumn(row, cell);
+                    final String col = dataRows.getValue(row, cell);
+
+                    // missing columns get a field separator
+                    nrSeparatorsToPrint = column - lastColumn;
+                    nrSeparatorsPrinted += printSeparators(nrSeparatorsToPrint);
+
+                    csvFile.print(partitioned ? converter.getCsvValue(col) : col);
+                    lastColumn = column;
+                }
+
+                // print separators after the last column if that was not the last table column
+                nrSeparatorsToPrint = table.getNrColumns() - 1 - lastColumn;
+                nrSeparatorsPrinted += printSeparators(nrSeparatorsToPrint);
+
+                if (nrSeparatorsPrinted != table.getNrColumns() - 1) {
+                    throw new RuntimeException("nrSeparatorsPrinted (" + nrSeparatorsPrinted + ") != "
+                                               + "table.getNrColumns() - 1 (" + (table.getNrColumns() - 1) + ")");
+                }
+
+                csvFile.print(Settings.NL);
+            }
+        } while (dataRows.nextBatch());
+    }
+
+    /**
+     * Print a number of field separators to the CSV file.
+     *
+     * @param count  The number of field separators (nothing is printed if not positive)
+     *
+     * @return The number of field separators printed
+     *
+     * @throws java.io.IOException  When the CSV file can not be written
+     */
+    private int printSeparators(final int count) throws java.io.IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        csvFile.print(getSeparators(count), 0, count * table.getFieldSeparator().length());
+
+        return count;
+    }
+
+    /**
+     * Get a run of at least a number of field separators.
+     *
+     * @param count  The number of field separators
+     *
+     * @return The field separators
+     */
+    private String getSeparators(final int count) {
+        final String separator = table.getFieldSeparator();
+
+        if (separators.length() < count * separator.length()) {
+            String run = (separators.isEmpty() ? separator : separators);
+
+            while (run.length() < count * separator.length()) {
+                run += run; // doubles, so only a few times
+            }
+            separators = run;
+        }
+
+        return separators;
+    }
+}
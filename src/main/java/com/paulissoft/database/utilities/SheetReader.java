@@ -0,0 +1,272 @@
+package com.paulissoft.database.utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the selected sheets of a workbook one by one as a table and its typed rows (see WorkbookConverter.open()).
+ *
+ * A sheet is read completely by nextSheet(), so its table columns have been inferred before its first row is delivered.
+ * The rows are kept as the plain values in a row store (spilled to a temporary file above the memory budget)
+ * and typed while they are iterated. A sheet reader is not thread safe: use one per thread.
+ */
+public final class SheetReader implements Closeable {
+    /** The run-time settings. */
+    private final Settings settings;
+
+    /** The planner. */
+    private final Planner planner;
+
+    /** The workbook reader. */
+    private final WorkbookReader reader;
+
+    /** The temporary copy of the workbook to remove when closed or null. */
+    private final File temporaryFile;
+
+    /** The indexes of the selected sheets. */
+    private final List<Integer> sheetIndexes = new ArrayList<Integer>();
+
+    /** The tables of the selected sheets. */
+    private final List<Table> sheetTables = new ArrayList<Table>();
+
+    /** The index in sheetIndexes of the next sheet. */
+    private int nextSheetIndex = 0;
+
+    /** The name of the current sheet or null. */
+    private String sheetName = null;
+
+    /** The table of the current sheet or null. */
+    private Table table = null;
+
+    /** The data rows of the current sheet or null. */
+    private RowStore dataRows = null;
+
+    /** Have the rows of the current sheet been taken? */
+    private boolean rowsTaken = false;
+
+    /**
+     * The constructor: open and plan the workbook.
+     *
+     * @param pSettings       The run-time settings (not shared)
+     * @param file            The workbook file
+     * @param pTemporaryFile  The temporary copy of the workbook to remove when closed or null
+     *
+     * @throws IOException  When the workbook can not be opened
+     */
+    SheetReader(final Settings pSettings, final File file, final File pTemporaryFile) throws IOException {
+        this.settings = pSettings;
+        this.planner = new Planner(settings);
+        this.temporaryFile = pTemporaryFile;
+
+        try {
+            this.reader = TableGenerator.openPlanned(settings, file, planner, null);
+        } catch (IOException | RuntimeException e) {
+            planner.shutdown();
+            deleteTemporaryFile();
+            throw e;
+        }
+
+        try {
+            TableGenerator.selectSheets(settings, reader.getSheetNames(), sheetIndexes, sheetTables);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read the next selected sheet and infer its table columns.
+     *
+     * @return false if there are no more sheets
+     *
+     * @throws IOException  When the sheet can not be read
+     */
+    public boolean nextSheet() throws IOException {
+        closeDataRows();
+        sheetName = null;
+        table = null;
+
+        if (nextSheetIndex >= sheetIndexes.size()) {
+            return false;
+        }
+
+        final int sheetIndex = sheetIndexes.get(nextSheetIndex);
+        final String name = reader.getSheetNames().get(sheetIndex);
+        final Table sheetTable = sheetTables.get(nextSheetIndex);
+
+        nextSheetIndex++;
+
+        settings.info("Processing sheet " + sheetIndex + " (" + name + ")");
+
+        final SheetProcessor sheetProcessor = new SheetProcessor(settings, name, sheetTable, planner.getSheetPlan(sheetIndex));
+
+        sheetProcessor.keepRows();
+        try {
+            reader.readSheet(sheetIndex, sheetProcessor);
+            sheetProcessor.finish();
+        } catch (IOException | RuntimeException e) {
+            sheetProcessor.abort();
+            throw e;
+        }
+
+        sheetName = name;
+        table = sheetTable;
+        dataRows = sheetProcessor.getDataRows();
+        rowsTaken = false;
+
+        return true;
+    }
+
+    /**
+     * @return The name of the current sheet.
+     */
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * @return The table of the current sheet with the inferred columns.
+     */
+    public Table getTable() {
+        return table;
+    }
+
+    /**
+     * Get the rows of the current sheet, once.
+     * An IOException while reading back spilled rows is thrown as an UncheckedIOException.
+     *
+     * @return An iterator over the data rows in row order
+     *
+     * @throws IOException  When the spilled rows can not be read back
+     */
+    public Iterator<Row> rows() throws IOException {
+        if (dataRows == null || rowsTaken) {
+            throw new IllegalStateException(dataRows == null
+                                            ? "There is no current sheet: call nextSheet() first"
+                                            : "The rows of sheet " + sheetName + " have been taken already");
+        }
+        rowsTaken = true;
+
+        final RowStore rows = dataRows;
+        final String name = sheetName;
+        final Class<?>[] types = new Class<?>[table.getNrColumns()];
+
+        for (int c = 0; c < types.length; c++) {
+            types[c] = table.getColumn(c).getJavaType();
+        }
+
+        // the rows may have been spilled to disk in batches
+        rows.rewind();
+
+        return new Iterator<Row>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (row >= rows.getNrRows()) {
+                        if (rows != dataRows || !rows.nextBatch()) {
+                            return false;
+                        }
+                        row = 0;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final Object[] values = new Object[types.length];
+
+                for (int cell = 0; cell < rows.getNrCells(row); cell++) {
+                    final int column = rows.getColumn(row, cell);
+
+                    values[column] = getValue(rows.getValue(row, cell), types[column]);
+                }
+
+                return new Row(name, rows.getRowNumber(row++) + 1, values);
+            }
+        };
+    }
+
+    /**
+     * Get the rows of the current sheet as a sequential stream, once (see rows()).
+     *
+     * @return A stream of the data rows in row order
+     *
+     * @throws IOException  When the spilled rows can not be read back
+     */
+    public Stream<Row> stream() throws IOException {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(rows(), Spliterator.ORDERED | Spliterator.NONNULL),
+                                    false);
+    }
+
+    /**
+     * Close the workbook and remove the temporary files.
+     *
+     * @throws IOException  When the workbook can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeDataRows();
+            reader.close();
+        } finally {
+            planner.shutdown();
+            deleteTemporaryFile();
+        }
+    }
+
+    /**
+     * Convert a plain value to the Java type of its table column.
+     *
+     * @param value  The plain value
+     * @param type   The Java type
+     *
+     * @return The typed value or null if the value is empty
+     */
+    private static Object getValue(final String value, final Class<?> type) {
+        if (value.isEmpty()) {
+            return null;
+        } else if (type == BigDecimal.class) {
+            return new BigDecimal(value);
+        } else if (type == LocalDate.class) {
+            return LocalDate.parse(value);
+        } else {
+            return value;
+        }
+    }
+
+    private void closeDataRows() throws IOException {
+        if (dataRows != null) {
+            final RowStore rows = dataRows;
+
+            dataRows = null;
+            rows.close(); // removes the temporary file
+        }
+    }
+
+    private void deleteTemporaryFile() {
+        if (temporaryFile != null && !temporaryFile.delete()) {
+            temporaryFile.deleteOnExit();
+        }
+    }
+}
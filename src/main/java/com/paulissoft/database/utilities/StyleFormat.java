@@ -0,0 +1,105 @@
+package com.paulissoft.database.utilities;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/**
+ * The number format of a cell style: its data format index and string and whether it is a date format.
+ *
+ * A workbook has a few hundred cell styles at most but may have millions of numeric cells,
+ * so the workbook readers look up the format of a cell style once (see Cache)
+ * and the date format check (which parses the format string) is done once per cell style too.
+ */
+final class StyleFormat {
+    /** The format of a cell without a style: General. */
+    static final StyleFormat GENERAL = new StyleFormat(0, BuiltinFormats.getBuiltinFormat(0));
+
+    /** The data format index. */
+    private final int formatIndex;
+
+    /** The data format string. */
+    private final String formatString;
+
+    /** Is it a date format? */
+    private final boolean date;
+
+    /**
+     * The constructor.
+     *
+     * @param pFormatIndex   The data format index
+     * @param pFormatString  The data format string
+     */
+    StyleFormat(final int pFormatIndex, final String pFormatString) {
+        this.formatIndex = pFormatIndex;
+        this.formatString = pFormatString;
+        this.date = DateUtil.isADateFormat(formatIndex, formatString);
+    }
+
+    /**
+     * @return The data format index
+     */
+    int getFormatIndex() {
+        return formatIndex;
+    }
+
+    /**
+     * @return The data format string
+     */
+    String getFormatString() {
+        return formatString;
+    }
+
+    /**
+     * @return Is it a date format?
+     */
+    boolean isDate() {
+        return date;
+    }
+
+    /**
+     * The formats of the cell styles of a workbook by style index, filled while reading.
+     * Not thread safe: each workbook reader has a cache of its own.
+     */
+    static final class Cache {
+        /** The initial capacity. */
+        private static final int INITIAL_STYLES = 64;
+
+        /** The formats by style index (null if not looked up yet). */
+        private StyleFormat[] formats = new StyleFormat[INITIAL_STYLES];
+
+        /**
+         * Get the format of a cell style.
+         *
+         * @param style  The style index
+         *
+         * @return The format or null if it has not been added yet
+         */
+        StyleFormat get(final int style) {
+            return style >= 0 && style < formats.length ? formats[style] : null;
+        }
+
+        /**
+         * Add the format of a cell style.
+         *
+         * @param style         The style index
+         * @param formatIndex   The data format index
+         * @param formatString  The data format string
+         *
+         * @return The format
+         */
+        StyleFormat add(final int style, final int formatIndex, final String formatString) {
+            final StyleFormat format = new StyleFormat(formatIndex, formatString);
+
+            if (style >= 0) {
+                if (style >= formats.length) {
+                    formats = Arrays.copyOf(formats, Math.max(2 * formats.length, style + 1));
+                }
+                formats[style] = format;
+            }
+
+            return format;
+        }
+    }
+}
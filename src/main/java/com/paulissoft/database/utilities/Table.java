@@ -4,7 +4,6 @@
 package com.paulissoft.database.utilities;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import java.text.Normalizer;
@@ -35,6 +34,16 @@ public class Table {
      */
     static final String CSV_EXTENSION = ".csv";
 
+    /**
+     * Binary COPY file extension.
+     */
+    static final String BINARY_EXTENSION = ".bin";
+
+    /**
+     * gzip file extension, after the CSV or binary COPY file extension.
+     */
+    static final String GZIP_EXTENSION = ".gz";
+
     /**
      * table bad file extension.
      */
@@ -68,6 +77,12 @@ public class Table {
     /** The run-time settings. */
     private Settings settings = null;
 
+    /** The number of files the rows have been rolled into (see --split-files and --split-size) or partitions. */
+    private int nrFiles = 1;
+
+    /** The partitions of the rows by the partition column or null if not partitioned (see --partition-column). */
+    private Partitioner partitioner = null;
+
     /**
      * The Table constructor.
      *
@@ -167,20 +182,21 @@ public class Table {
      * @return DDL text
      */
     public String getDdl() {
-        String ddl =
-            "CREATE TABLE "
-            + (settings.sqlDatabase.equals(Settings.POSTGRESQL) ? "IF NOT EXISTS " : "")
-            + getName() + Settings.NL + "(" + Settings.NL;
-        Iterator iter = columns.iterator();
+        String ddl = getCreateTableSql(settings.sqlDatabase.equals(Settings.POSTGRESQL));
+
+        if (partitioner != null && settings.sqlDatabase.equals(Settings.POSTGRESQL)) {
+            // declarative partitions, to copy each file into
+            final StringBuilder partitions = new StringBuilder();
+
+            for (int partition = 0; partition < nrFiles; partition++) {
+                partitions.append("CREATE TABLE IF NOT EXISTS ").append(getPartitionName(partition))
+                    .append(" PARTITION OF ").append(getName()).append(" ").append(partitioner.getValues(partition))
+                    .append(";").append(Settings.NL);
+            }
+            ddl += " " + partitioner.getPartitionBy() + ";" + Settings.NL + partitions;
 
-        while (iter.hasNext()) {
-            TableColumn c = (TableColumn) iter.next();
-            ddl += c.getColumnDdl();
+            return ddl;
         }
-        ddl = ddl.substring(0, ddl.lastIndexOf(","))
-            //remove the last comma
-            + Settings.NL
-            + ")";
 
         if (settings.sqlDatabase.equals(Settings.ORACLE)) {
             ddl += Settings.NL
@@ -192,6 +208,7 @@ public class Table {
                 + "  (" + Settings.NL
                 + "    RECORDS DELIMITED BY SETTINGS.NL" + Settings.NL
                 + "    CHARACTERSET " + getOracleCharacterSet() + Settings.NL
+                + (settings.isCompressed() ? "    PREPROCESSOR exec_dir:'zcat'" + Settings.NL : "")
                 /*
                  * Oracle documentation:
                  *
@@ -220,8 +237,14 @@ public class Table {
                 // + "    FIELDS DATE_FORMAT DATE MASK \"yyyy-mm-dd\" CSV WITHOUT EMBEDDED RECORD TERMINATORS" + Settings.NL
                 + "    MISSING FIELD VALUES ARE NULL" + Settings.NL
                 + "  )" + Settings.NL
-                + "  LOCATION ('" + getLocation() + "')" + Settings.NL
-                + ") REJECT LIMIT 0" + Settings.NL + Settings.NL + Settings.NL;
+                // a partitioned external table has a location per partition
+                + (partitioner == null ? "  LOCATION (" + getLocations() + ")" + Settings.NL : "")
+                + ") REJECT LIMIT 0"
+                // a granule per file at least
+                + (partitioner == null && nrFiles > 1 ? " PARALLEL " + nrFiles : "")
+                + Settings.NL
+                + (partitioner != null ? getOraclePartitions() : "")
+                + Settings.NL + Settings.NL;
         }
 
         ddl += ";" + Settings.NL;
@@ -229,6 +252,66 @@ public class Table {
         return ddl;
     }
 
+    /**
+     * Get the quoted locations of the files for the LOCATION clause of the external table.
+     *
+     * @return The locations separated by a comma
+     */
+    private String getLocations() {
+        final StringBuilder locations = new StringBuilder();
+
+        for (int file = 0; file < nrFiles; file++) {
+            locations.append(file > 0 ? ", " : "").append("'").append(getLocation(file)).append("'");
+        }
+
+        return locations.toString();
+    }
+
+    /**
+     * Get the partitions of an Oracle partitioned external table, each with its file.
+     *
+     * @return The PARTITION BY clause with the partitions
+     */
+    private String getOraclePartitions() {
+        final StringBuilder partitions = new StringBuilder(partitioner.getPartitionBy()).append(Settings.NL).append("(");
+
+        for (int partition = 0; partition < nrFiles; partition++) {
+            partitions.append(partition > 0 ? "," : "").append(Settings.NL)
+                .append("  PARTITION ").append(getPartitionName(partition)).append(" ")
+                .append(partitioner.getValues(partition))
+                .append(" LOCATION ('").append(getLocation(partition)).append("')");
+        }
+
+        return partitions.append(Settings.NL).append(")").append(Settings.NL).toString();
+    }
+
+    /**
+     * Return the SQL statement to create the table as a regular table, e.g. to load it over JDBC (see --jdbc-url).
+     *
+     * @return The CREATE TABLE statement (without a terminator)
+     */
+    public String getCreateTableSql() {
+        return getCreateTableSql(false);
+    }
+
+    private String getCreateTableSql(final boolean ifNotExists) {
+        // a sheet may have 16,384 columns: no string concatenation per column
+        final StringBuilder columnsDdl = new StringBuilder();
+
+        for (TableColumn c : columns) {
+            columnsDdl.append(c.getColumnDdl());
+        }
+
+        return
+            "CREATE TABLE "
+            + (ifNotExists ? "IF NOT EXISTS " : "")
+            + getName() + Settings.NL + "(" + Settings.NL
+            + columnsDdl.substring(0, columnsDdl.lastIndexOf(","))
+            //remove the last comma
+            + Settings.NL
+            + ")";
+    }
+
     /**
      * Get the directory location.
      *
@@ -241,12 +324,85 @@ public class Table {
     /**
      * Get the location of the file referenced by the
      * table.  This will be the same as the
-     * table name with a .csv extension.
+     * table name with a .csv extension (.bin for --copy-format binary) and a .gz extension for --compression gzip,
+     * unless it is streamed to a pipe (--pipe).
+     * When the rows are rolled into more than one file, this is the location of the first one.
      *
      * @return The data file location.
      */
     public String getLocation() {
-        return name + Table.CSV_EXTENSION;
+        return getLocation(0);
+    }
+
+    /**
+     * Get the location of a file referenced by the table.
+     * When the rows are rolled into more than one file (see --split-files and --split-size),
+     * the file number follows the table name (&lt;table&gt;_1.csv, &lt;table&gt;_2.csv, ...)
+     * and when they are partitioned (see --partition-column) the partition name (&lt;table&gt;_p1.csv, ...).
+     *
+     * @param file  The file index (starting from 0)
+     *
+     * @return The data file location.
+     */
+    public String getLocation(final int file) {
+        if (settings.pipe != null) {
+            return settings.pipe;
+        }
+        return (partitioner != null ? getPartitionName(name, file) : name)
+            + (settings.isSplit() ? "_" + (file + 1) : "")
+            + (settings.isBinaryCopy() ? Table.BINARY_EXTENSION : Table.CSV_EXTENSION)
+            + (settings.isCompressed() ? Table.GZIP_EXTENSION : "");
+    }
+
+    /**
+     * Get the number of files the rows have been rolled into, one per partition when partitioned.
+     *
+     * @return The number of files (at least 1)
+     */
+    public int getNrFiles() {
+        return nrFiles;
+    }
+
+    /**
+     * Set the number of files the rows have been rolled into.
+     *
+     * @param pNrFiles  The number of files
+     */
+    public void setNrFiles(final int pNrFiles) {
+        this.nrFiles = pNrFiles;
+    }
+
+    /**
+     * Is the table partitioned by the partition column (see --partition-column)?
+     *
+     * @return true if a file has been written per partition
+     */
+    public boolean isPartitioned() {
+        return partitioner != null;
+    }
+
+    /**
+     * Set the partitions of the rows.
+     *
+     * @param pPartitioner  The partitions
+     */
+    void setPartitioner(final Partitioner pPartitioner) {
+        this.partitioner = pPartitioner;
+    }
+
+    /**
+     * Get the (quoted) name of a partition, also the name of a PostgreSQL partition table.
+     *
+     * @param partition  The partition (starting from 0)
+     *
+     * @return The partition name
+     */
+    public String getPartitionName(final int partition) {
+        return Settings.QQ + getPartitionName(name, partition) + Settings.QQ;
+    }
+
+    private static String getPartitionName(final String tableName, final int partition) {
+        return tableName + "_p" + (partition + 1);
     }
 
     /**
@@ -367,8 +523,12 @@ public class Table {
     protected static String preamble(final Settings settings) {
         if (settings.sqlDatabase.equals(Settings.ORACLE)) {
             return
-                "CREATE /*OR REPLACE*/ DIRECTORY load_dir AS '" + Settings.PWD + "'" + Settings.NL
-                + ";" + Settings.NL + Settings.NL;
+                "CREATE /*OR REPLACE*/ DIRECTORY load_dir AS '" + settings.getOutputDir().getAbsolutePath() + "'" + Settings.NL
+                + ";" + Settings.NL + Settings.NL
+                // the directory of the zcat PREPROCESSOR
+                + (settings.isCompressed()
+                   ? "CREATE /*OR REPLACE*/ DIRECTORY exec_dir AS '/usr/bin'" + Settings.NL + ";" + Settings.NL + Settings.NL
+                   : "");
         } else {
             return "";
         }
@@ -1,6 +1,8 @@
 package com.paulissoft.database.utilities;
 
+import java.math.BigDecimal;
 import java.text.Normalizer;
+import java.time.LocalDate;
 
 /**
  * @author Casimir Saternos
@@ -108,31 +110,27 @@ public class TableColumn {
         return dateLength;
     }
 
+    /**
+     * @return The name of the column without quotes.
+     */
+    public String getUnquotedName() {
+        return name;
+    }
+
     /**
      * @return The SQL type (NUMERIC, DATE or STRING).
      */
-    private String getSqlType() {
+    public String getSqlType() {
         final String stringDatatype =
             (settings.sqlDatabase.equals(Settings.ORACLE)
              ? "VARCHAR2"
              : "VARCHAR");
 
-        Integer stringColumnSize = settings.stringColumnSize;
-
         // Use SQL ANSI datatypes
-        if (stringLength == 0 && numericLength == 0 && dateLength == 0) {
-            if (stringColumnSize == null) {
-                stringColumnSize = 1;
-            }
-            return stringDatatype + "(" + stringColumnSize + ")";
-        } else if (stringLength > 0
-                   || (numericLength > 0 && dateLength > 0)) {
+        if (isStringType()) {
             // column includes a non empty string value or
-            // both numeric and date values: convert it to VARCHAR2
-            if (stringColumnSize == null) {
-                stringColumnSize = Math.max(Math.max(stringLength, numericLength), dateLength);
-            }
-            return stringDatatype + "(" + stringColumnSize + ")";
+            // both numeric and date values (or nothing at all): convert it to VARCHAR2
+            return stringDatatype + "(" + getStringSize() + ")";
         } else if (numericLength > 0) {
             // handle numeric precision here???
             return "DECIMAL";
@@ -141,6 +139,100 @@ public class TableColumn {
         }
     }
 
+    /**
+     * @return The Java type of the values of the rows (String, BigDecimal or LocalDate), matching the SQL type.
+     */
+    public Class<?> getJavaType() {
+        if (isStringType()) {
+            return String.class;
+        } else if (numericLength > 0) {
+            return BigDecimal.class;
+        } else {
+            return LocalDate.class;
+        }
+    }
+
+    /**
+     * @return Is the SQL type a string type?
+     */
+    private boolean isStringType() {
+        return stringLength > 0
+            || (numericLength > 0 && dateLength > 0)
+            || (numericLength == 0 && dateLength == 0);
+    }
+
+    /**
+     * @return The size of the SQL string type: the user defined string column size or else the maximum length (at least 1).
+     */
+    private int getStringSize() {
+        if (settings.stringColumnSize != null) {
+            return settings.stringColumnSize;
+        }
+        return Math.max(Math.max(Math.max(stringLength, numericLength), dateLength), 1);
+    }
+
+    /**
+     * Does a value fit into the SQL type of this column?
+     * Used to check the values of a sheet against the columns of a schema.
+     *
+     * @param value  A column with the lengths of just that value (see clear())
+     *
+     * @return true if the value can be loaded into this column
+     */
+    boolean covers(final TableColumn value) {
+        final int length = Math.max(Math.max(value.stringLength, value.numericLength), value.dateLength);
+
+        if (length == 0) {
+            return true; // an empty value is NULL
+        } else if (isStringType()) {
+            return length <= getStringSize();
+        } else if (numericLength > 0) {
+            return value.stringLength == 0 && value.dateLength == 0;
+        } else {
+            return value.stringLength == 0 && value.numericLength == 0;
+        }
+    }
+
+    /**
+     * Reset the lengths and the precision, so the next value determines them.
+     */
+    void clear() {
+        stringLength = 0;
+        numericPrecision = 0;
+        numericLength = 0;
+        dateLength = 0;
+    }
+
+    /**
+     * Create a column with the same name (not normalized again) and no lengths,
+     * e.g. to determine the lengths of some values of this column.
+     *
+     * @return The new column
+     */
+    TableColumn emptyCopy() {
+        final TableColumn copy = new TableColumn(settings);
+
+        copy.name = name;
+
+        return copy;
+    }
+
+    /**
+     * Merge the lengths of another column into this one, as if its values came after the values of this column.
+     * Used to merge the column statistics of row ranges that have been converted in parallel (see RowConverter).
+     *
+     * @param other  A column with the lengths of later values
+     */
+    void merge(final TableColumn other) {
+        setStringLength(other.stringLength);
+        setNumericLength(other.numericLength);
+        setDateLength(other.dateLength);
+        if (other.numericLength > 0) {
+            // the precision is that of the last numeric value
+            setNumericPrecision(other.numericPrecision);
+        }
+    }
+
     /**
      * @param pStringLength  The string length.
      */
@@ -1,73 +1,67 @@
 package com.paulissoft.database.utilities;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.TreeSet;
-import java.util.SortedSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 
-import org.apache.poi.poifs.filesystem.OfficeXmlFileException;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 
-import org.apache.poi.ss.usermodel.DateUtil;
-import org.apache.poi.ss.usermodel.Workbook; // interface
-import org.apache.poi.ss.usermodel.Sheet; // interface
-import org.apache.poi.ss.usermodel.Row; // interface
-import org.apache.poi.ss.usermodel.Cell; // interface
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
 
 /**
  * This program is run at the command line. Given one
  * spreadsheet, a script is generated to create the table(s)
  * that references the data from the spreadsheet.
+ * Given more spreadsheets, a directory or a glob pattern, each workbook is converted into a directory of its own
+ * in one run (see Batch). Or a directory is watched and each workbook dropped in it is converted (see WatchFolder).
  *
  * @author Casimir Saternos
  * @version 1.0
  */
 public class TableGenerator {
     /** The run-time settings. */
-    private static Settings settings = new Settings();
+    private Settings settings = null;
 
     private void info(final String str) {
-        if (settings.verbose >= 1) {
-            System.out.println("INFO: " + str);
-        }
+        settings.info(str);
     }
 
     private void debug(final String str) {
-        if (settings.verbose >= 2) {
-            System.out.println("DEBUG: " + str);
-        }
+        settings.debug(str);
     }
 
-    /** The data formatter. */
-    private DataFormatter dataFormatter = new DataFormatter();
-
-    /** The formula evaluator. */
-    private FormulaEvaluator formulaEvaluator = null;
-
     /**
      * The main procedure.
      *
      * @param args  The command line arguments
      */
     public static void main(final String... args) throws java.io.IOException {
-        TableGenerator generator = new TableGenerator();
+        final Settings settings = new Settings();
+        boolean batch = false;
+        boolean watch = false;
 
         JCommander jc = JCommander.newBuilder()
             .addObject(settings)
@@ -80,7 +74,33 @@ public class TableGenerator {
 
             if (settings.help) {
                 jc.usage();
+            } else if (settings.pipe != null && (settings.watch || Batch.isBatch(settings.spreadsheets))) {
+                throw new ParameterException("Parameter --pipe can only be used for one spreadsheet");
+            } else if (Settings.STDOUT.equals(settings.pipe) && !settings.sqlDatabase.equals(Settings.POSTGRESQL)) {
+                throw new ParameterException("Parameter --pipe " + Settings.STDOUT + " (stdout) needs --sql-database "
+                                             + Settings.POSTGRESQL + ": an external table reads a file or a named pipe");
+            } else if (settings.isBinaryCopy() && !settings.sqlDatabase.equals(Settings.POSTGRESQL)) {
+                throw new ParameterException("Parameter --copy-format " + Settings.BINARY + " needs --sql-database "
+                                             + Settings.POSTGRESQL);
+            } else if (!settings.partitionBounds.isEmpty() && settings.partitionColumn == null) {
+                throw new ParameterException("Parameter --partition-bounds needs --partition-column");
+            } else if (settings.partitionBounds.size() >= Partitioner.MAX_PARTITIONS) {
+                throw new ParameterException("Parameter --partition-bounds can have at most " + (Partitioner.MAX_PARTITIONS - 1)
+                                             + " bounds");
+            } else if (settings.partitionColumn != null && (settings.isSplit() || settings.pipe != null)) {
+                throw new ParameterException("Parameter --partition-column can not be used with --split-files, --split-size"
+                                             + " or --pipe");
+            } else if (settings.isSplit() && settings.pipe != null) {
+                throw new ParameterException("Parameters --split-files and --split-size can not be used with --pipe");
+            } else if (settings.isCompressed() && settings.pipe != null) {
+                throw new ParameterException("Parameter --compression " + Settings.GZIP + " can not be used with --pipe");
+            } else if (settings.watch) {
+                watch = true;
+            } else if (Batch.isBatch(settings.spreadsheets)) {
+                batch = true;
             } else {
+                settings.spreadsheet = settings.spreadsheets.get(0);
+
                 // Check file exists as a regular file
                 File f = new File(settings.spreadsheet);
 
@@ -96,18 +116,23 @@ public class TableGenerator {
             throw e;
         }
 
-        if (!settings.help) {
-            generator.execute();
+        if (settings.help) {
+            return;
+        } else if (watch) {
+            new WatchFolder(settings).execute();
+        } else if (batch) {
+            new Batch(settings).execute();
+        } else {
+            if (Settings.STDOUT.equals(settings.pipe)) {
+                // stdout is for the CSV
+                System.setOut(System.err);
+            }
+            new TableGenerator(settings).execute();
         }
     }
 
     // All sheets in the workbook use the following constants.
 
-    /**
-     * List of table definitions.
-     */
-    private HashSet<String> tables; // test unique table names
-
     /** create.sql file descriptor. */
     private PrintStream createSql = null;
 
@@ -120,596 +145,575 @@ public class TableGenerator {
     /** load.sql file descriptor. */
     private PrintStream loadSql = null;
 
+    /** The SQL script files. */
+    private final List<File> scripts = new ArrayList<>();
+
+    /** The table columns of the sheets: loaded from the schema file (if any) and added to when inferred. */
+    private Schema schema = null;
+
+    /** The plan for the workbook and its sheets. */
+    private Planner planner = null;
+
     /** The constructor. */
     public TableGenerator() {
-        this.tables = new HashSet<String>();
+        this(new Settings());
     }
 
     /**
-     *  Open the specified .xls or .xlsx and process it.
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings (of one workbook)
      */
-    private void execute() throws java.io.IOException {
-        info("Begin processing.");
-
-        info("Using working directory " + new File(Settings.PWD).getAbsolutePath());
+    TableGenerator(final Settings pSettings) {
+        this.settings = pSettings;
+    }
 
-        createSql = open("create.sql", "UTF-8", false, false);
+    /**
+     *  Open the specified .xls, .xlsx or .xlsb and process it.
+     */
+    void execute() throws java.io.IOException {
+        if (settings.jdbcUrl != null) {
+            new JdbcLoader(settings).execute();
+            return;
+        }
 
-        dropSql = open("drop.sql", "UTF-8", false, false);
+        info("Begin processing.");
 
-        createSql.print(Table.preamble(settings));
+        final File outputDir = settings.getOutputDir();
 
-        if (settings.sqlDatabase.equals(Settings.POSTGRESQL)) {
-            deleteSql = open("delete.sql", "UTF-8", false, false);
-            loadSql = open("load.sql", "UTF-8", false, false);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new java.io.IOException("Could not create output directory " + outputDir);
         }
 
+        info("Using output directory " + outputDir.getAbsolutePath());
+
         final String spreadsheet = (new File(settings.spreadsheet)).getAbsolutePath();
 
         try {
-            Workbook wb;
+            createSql = openScript("create.sql");
 
-            try {
-                POIFSFileSystem fs = new POIFSFileSystem(new FileInputStream(spreadsheet));
-                wb = new HSSFWorkbook(fs);
-            } catch (OfficeXmlFileException e) {
-                wb = new XSSFWorkbook(new FileInputStream(spreadsheet));
+            dropSql = openScript("drop.sql");
+
+            createSql.print(Table.preamble(settings));
+
+            if (settings.sqlDatabase.equals(Settings.POSTGRESQL)) {
+                deleteSql = openScript("delete.sql");
+                loadSql = openScript("load.sql");
+                if (settings.isBinaryCopy()) {
+                    // the text fields are UTF-8
+                    loadSql.print("SET client_encoding TO 'UTF8';" + Settings.NL);
+                }
             }
 
-            formulaEvaluator = wb.getCreationHelper().createFormulaEvaluator();
+            schema = (settings.schemaFile != null ? Schema.load(settings, settings.schemaFile) : new Schema(settings));
 
-            formulaEvaluator.setIgnoreMissingWorkbooks(true);
+            final File file = new File(spreadsheet);
 
-            for (Sheet sheet : wb) {
-                for (Row r : sheet) {
-                    for (Cell c : r) {
-                        switch (c.getCellType()) {
-                        case FORMULA:
-                            formulaEvaluator.evaluateFormulaCell(c);
-                            break;
+            planner = new Planner(settings);
 
-                        default:
-                            break;
-                        }
-                    }
-                }
+            final WorkbookReader reader = openPlanned(settings, file, planner, settings.schemaFile != null ? schema : null);
+
+            if (reader instanceof UserModelWorkbookReader && settings.threads > 1) {
+                System.out.println("WARNING: The workbook is processed by one thread since the POI user model"
+                                   + " is not thread safe: use --streaming or --formula-strategy cached for --threads");
             }
 
             info("Processing workbook " + spreadsheet);
 
-            processWorkbook(wb);
+            try {
+                processWorkbook(reader, file);
+            } finally {
+                reader.close();
+                planner.shutdown();
+            }
         } catch (Exception e) {
             e.printStackTrace();
 
             throw e;
+        } finally {
+            // also on failure, since a watch folder or batch goes on (and moves the output of a failed workbook)
+            closeScripts();
         }
 
-        createSql.close();
-
-        dropSql.close();
-
-        if (deleteSql != null) {
-            deleteSql.close();
-        }
+        replaceScripts();
 
-        if (loadSql != null) {
-            loadSql.close();
+        if (settings.writeSchemaFile != null) {
+            schema.save(settings.writeSchemaFile);
         }
 
         info("Processing complete.");
     }
 
     /**
-     * Prcess a worksheet.
+     * Open a SQL script for writing. When the CSV is streamed to a pipe (--pipe) psql may be reading
+     * the script of an earlier run at the same time (psql -f load.sql), so the script is written to
+     * a temporary file next to it that replaces it when the workbook has been processed.
      *
-     * @param sheet
-     * @param table
+     * @param name  The script name, e.g. load.sql
+     *
+     * @return The script
      */
-    private void processSheet(final Sheet sheet, final Table table) throws java.io.IOException {
-        //Write out a .csv file based upon the sheet
-        if (writeCsv(sheet, table)) {
+    private PrintStream openScript(final String name) throws java.io.IOException {
+        final File file = settings.getOutputFile(name);
 
-            debug("Adding DDL for table " + table.getName());
+        scripts.add(file);
 
-            // Add the ddl for the table to the script
-            createSql.print(table.getDdl());
+        return open(getWriteFile(file).getPath(), "UTF-8", false, false);
+    }
 
-            dropSql.print("DROP TABLE " + table.getName() + ";" + Settings.NL);
+    /**
+     * The file a script is written to.
+     *
+     * @param file  The script file
+     *
+     * @return The script file itself or a temporary file next to it (--pipe)
+     */
+    private File getWriteFile(final File file) {
+        return settings.pipe != null ? new File(file.getPath() + ".tmp") : file;
+    }
 
-            if (deleteSql != null) {
-                if (settings.addMetadata) {
-                    deleteSql.print("delete from " + table.getName() + " where \"SHEET\" = '" + sheet.getSheetName() + "'");
-                } else {
-                    deleteSql.print("truncate table " + table.getName());
-                }
-                deleteSql.print(";" + Settings.NL);
+    /**
+     * Close the scripts that are open.
+     */
+    private void closeScripts() {
+        final PrintStream[] streams = {createSql, dropSql, deleteSql, loadSql};
+
+        for (PrintStream stream : streams) {
+            if (stream != null) {
+                stream.close();
             }
+        }
+    }
 
-            if (loadSql != null) {
-                loadSql.print("\\copy " + table.getName() + "(");
-                for (int c = 0; c < table.getNrColumns(); c++) {
-                    loadSql.print((c > 0 ? ", " : "") + table.getColumn(c).getName());
-                }
-                loadSql.print(") from '" + table.getLocation() + "' with ( format CSV );" + Settings.NL);
+    /**
+     * Replace the scripts by the temporary files they have been written to, if any (see openScript).
+     * A rename is atomic, so a psql that has opened a script keeps reading the old one.
+     */
+    private void replaceScripts() throws java.io.IOException {
+        for (File file : scripts) {
+            final File writeFile = getWriteFile(file);
+
+            if (!writeFile.equals(file)) {
+                Files.move(writeFile.toPath(), file.toPath(),
+                           StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             }
         }
     }
 
     /**
-     * Iterate through each sheet in the workbook and process it.
+     * Open a reader for a workbook and plan it: a streaming reader is opened to plan
+     * and replaced by a user model reader when the plan is to load the workbook into memory.
      *
-     * @param wb
+     * @param settings  The run-time settings
+     * @param file      The workbook file
+     * @param planner   The planner
+     * @param schema    The schema that pins the table columns or null if the columns are inferred
+     *
+     * @return The workbook reader to process the workbook with (to be closed by the caller)
      */
-    private void processWorkbook(final Workbook wb) throws java.io.IOException {
-        for (int i = 0; i < wb.getNumberOfSheets(); i++) {
-            Sheet sheet = wb.getSheetAt(i);
+    static WorkbookReader openPlanned(final Settings settings,
+                                      final File file,
+                                      final Planner planner,
+                                      final Schema schema) throws java.io.IOException {
+        // a streaming reader only reads what is needed to plan
+        WorkbookReader reader = openWorkbook(settings, file, true);
 
-            if (!wb.getSheetName(i).matches(settings.sheetNameExpression)) {
-                info("Skipping sheet " + i + " (" + wb.getSheetName(i)
-                     + ") since it does not match \"" + settings.sheetNameExpression + "\"");
-                continue;
-            } else {
-                info("Processing sheet " + i + " (" + wb.getSheetName(i) + ")");
+        try {
+            planner.plan(reader, schema);
+        } catch (java.io.IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+
+        if (!planner.isStreaming()) {
+            reader.close();
+            reader = openWorkbook(settings, file, false);
+        }
+
+        if (reader instanceof UserModelWorkbookReader) {
+            settings.info("Plan for the workbook: load it into memory (about " + planner.getNrCells()
+                          + " cells in the selected sheets)");
+            if (planner.isLarge()) {
+                System.out.println("WARNING: The workbook is loaded into memory to evaluate its formulas: use --streaming"
+                                   + " or --formula-strategy cached to read it with a streaming reader"
+                                   + " (with the formula results cached in the workbook)");
             }
+        } else {
+            settings.info("Plan for the workbook: read it with a streaming reader (about " + planner.getNrCells()
+                          + " cells in the selected sheets), using the formula results cached in the workbook");
+            checkStreamingFormulaStrategy(settings);
+        }
 
-            Table table = null;
+        return reader;
+    }
 
-            final String tableName = (i < settings.tableNames.size() ? settings.tableNames.get(i) : wb.getSheetName(i));
+    /**
+     * Open a reader for a workbook. The format is detected from the magic bytes of the file
+     * and the file is opened with random access, so it is read only once and never copied into memory:
+     * a read only POIFSFileSystem (OLE2, .xls) or a read only OPCPackage (Office Open XML, .xlsx or .xlsb).
+     *
+     * An Excel binary workbook (.xlsb) is always streamed.
+     *
+     * @param settings   The run-time settings
+     * @param file       The workbook file
+     * @param streaming  Open a streaming reader instead of loading the workbook with the POI user model?
+     *
+     * @return The workbook reader (to be closed by the caller)
+     */
+    static WorkbookReader openWorkbook(final Settings settings,
+                                       final File file,
+                                       final boolean streaming) throws java.io.IOException {
+        final FileMagic fileMagic = FileMagic.valueOf(file);
 
-            table = new Table(tableName, settings);
-            if (!tables.add(table.getName())) {
-                throw new RuntimeException("Table " + table.getName() + " is not unique");
-            }
+        switch (fileMagic) {
+        case OLE2:
+            final POIFSFileSystem fs = new POIFSFileSystem(file, true);
 
-            processSheet(sheet, table);
+            try {
+                if (streaming) {
+                    return new XlsWorkbookReader(fs);
+                } else {
+                    return new UserModelWorkbookReader(new HSSFWorkbook(fs), settings.getFormulaStrategy());
+                }
+            } catch (java.io.IOException | RuntimeException e) {
+                fs.close();
+                throw e;
+            }
 
-            info("Table " + table.getName() + " processed.");
-        }
-    }
+        case OOXML:
+            final OPCPackage opcPackage;
 
-    private String getStringValue(final Cell cell, final TableColumn col) {
-        // final String value = cell.getStringCellValue();
-        final String value = cell.getRichStringCellValue().getString();
+            try {
+                opcPackage = OPCPackage.open(file, PackageAccess.READ);
+            } catch (InvalidFormatException e) {
+                throw new java.io.IOException(e);
+            }
 
-        col.setStringLength(value.length());
+            try {
+                if (XlsbWorkbookReader.isXlsb(opcPackage)) {
+                    return new XlsbWorkbookReader(opcPackage); // there is no user model for .xlsb
+                } else if (streaming) {
+                    return new XlsxWorkbookReader(opcPackage);
+                } else {
+                    return new UserModelWorkbookReader(new XSSFWorkbook(opcPackage), settings.getFormulaStrategy());
+                }
+            } catch (java.io.IOException | RuntimeException e) {
+                opcPackage.revert(); // opened read only so nothing to save
+                throw e;
+            }
 
-        if (value != null && value.length() > 0) {
-            debug("getStringValue for column '" + col.getName()
-                  + "', value '" + value + "'"
-                  + "', length " + col.getStringLength()
-                  + " and format " + cell.getCellStyle().getDataFormatString());
+        default:
+            throw new java.io.IOException("File '" + file + "' is not an Excel workbook (.xls, .xlsx or .xlsb) but of type "
+                                          + fileMagic);
         }
-
-        return value;
     }
 
-    private String getNumericValue(final Cell cell, final TableColumn col) {
-        String value = null;
-
-        // Test if a date! See https://poi.apache.org/help/faq.html
-        final Boolean isDate = DateUtil.isCellDateFormatted(cell);
+    /**
+     * The streaming readers can not evaluate formulas: warn when another formula strategy than cached has been asked for.
+     *
+     * @param settings  The run-time settings
+     */
+    private static void checkStreamingFormulaStrategy(final Settings settings) {
+        if (settings.formulaStrategy != null && !settings.formulaStrategy.equals(Settings.CACHED)) {
+            System.out.println("WARNING: Formula strategy " + settings.formulaStrategy
+                               + " is not supported by a streaming reader: using the cached formula results");
+        }
+    }
 
-        if (isDate) {
-            Date date = DateUtil.getJavaDate(cell.getNumericCellValue());
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    /**
+     * Prcess a worksheet: write its CSV file and return its part of the SQL scripts.
+     * Since the sheets may be processed concurrently (--threads), the SQL scripts are written later on, in sheet order.
+     *
+     * @param reader
+     * @param sheetIndex
+     * @param sheetName
+     * @param table
+     *
+     * @return The result
+     */
+    private SheetResult processSheet(final WorkbookReader reader,
+                                     final int sheetIndex,
+                                     final String sheetName,
+                                     final Table table) throws java.io.IOException {
+        info("Processing sheet " + sheetIndex + " (" + sheetName + ")");
 
-            value = dateFormat.format(date);
+        final SheetProcessor sheetProcessor = new SheetProcessor(settings, sheetName, table, planner.getSheetPlan(sheetIndex));
+        final SheetResult result = new SheetResult();
 
-            col.setDateLength(value.length());
+        final boolean hasData;
 
-            debug("getNumericValue for date column '" + col.getName()
-                  + "', value '" + value
-                  + "', length " + col.getDateLength()
-                  + " and format " + cell.getCellStyle().getDataFormatString());
-        } else {
-            // Remove trailing % and remove thousands separator (comma)
-            value = dataFormatter.formatCellValue(cell, formulaEvaluator).replace(",", "");
+        try {
+            reader.readSheet(sheetIndex, sheetProcessor);
 
-            if (value.endsWith("%")) {
-                final int unit = 100;
-                // replace the percent symbol and divide by 100
-                value = Double.valueOf(Double.valueOf(value.replace("%", "")) / unit).toString();
+            // the table columns are known now but the metadata columns have not been added yet
+            result.sheetName = sheetName;
+            for (int c = 0; c < table.getNrColumns(); c++) {
+                result.columns.add(table.getColumn(c));
             }
 
-            String[] parts = value.split("\\.");
+            //Write out a .csv file based upon the sheet
+            hasData = sheetProcessor.finish();
+        } catch (java.io.IOException | RuntimeException e) {
+            sheetProcessor.abort(); // the files of a pinned schema are open while reading
+            throw e;
+        }
 
-            for (int i = 0; i < parts.length; i++) {
-                debug("parts[" + i + "]= '" + parts[i] + "'");
-            }
+        if (hasData) {
 
-            // store the length first since it may be important in setType()
-            col.setNumericLength((parts.length == 1 ? parts[0].length() : parts[0].length() + parts[1].length()));
-            col.setNumericPrecision((parts.length == 1 ? 0 : parts[1].length()));
+            debug("Adding DDL for table " + table.getName());
 
-            debug("getNumericValue for numeric column '" + col.getName()
-                  + "', value '" + value
-                  + "', length " + col.getNumericLength()
-                  + ", precision " + col.getNumericPrecision()
-                  + " and format " + cell.getCellStyle().getDataFormatString());
-        }
+            // Add the ddl for the table to the script
+            result.createSql = table.getDdl();
 
-        return value;
-    }
+            result.dropSql = "DROP TABLE " + table.getName() + ";" + Settings.NL;
 
-    private String getBooleanValue(final Cell cell, final TableColumn col) {
-        final String value = "" + cell.getBooleanCellValue();
+            if (settings.addMetadata) {
+                result.deleteSql = "delete from " + table.getName() + " where \"SHEET\" = '" + sheetName + "'";
+            } else {
+                result.deleteSql = "truncate table " + table.getName();
+            }
+            result.deleteSql += ";" + Settings.NL;
+
+            final StringBuilder columns = new StringBuilder("(");
+            final StringBuilder copy = new StringBuilder();
 
-        // Treat it as a STRING.
-        col.setStringLength(value.length());
+            for (int c = 0; c < table.getNrColumns(); c++) {
+                columns.append(c > 0 ? ", " : "").append(table.getColumn(c).getName());
+            }
+            columns.append(")");
+
+            // one copy per file, to run in parallel sessions if need be, straight into its partition if partitioned
+            for (int file = 0; file < table.getNrFiles(); file++) {
+                copy.append("\\copy ").append(table.isPartitioned() ? table.getPartitionName(file) : table.getName())
+                    .append(columns);
+                if (Settings.STDOUT.equals(settings.pipe)) {
+                    copy.append(" from pstdin");
+                } else if (settings.isCompressed()) {
+                    copy.append(" from program 'gzip -dc \"").append(table.getLocation(file)).append("\"'");
+                } else {
+                    copy.append(" from '").append(table.getLocation(file)).append("'");
+                }
+                copy.append(settings.isBinaryCopy() ? " with ( format binary );" : " with ( format CSV );").append(Settings.NL);
+            }
+            result.loadSql = copy.toString();
+        }
 
-        debug("getBooleanValue for column '" + col.getName() + "' and value '" + value + "'");
-        debug("cell: " + cell.toString());
+        info("Table " + table.getName() + " processed.");
 
-        return value;
+        return result;
     }
 
     /**
-     * Open a file on the file system.
-     *
-     * @param filename
-     * @param encoding
-     * @param writeBOM
-     * @param append
+     * Add the result of a sheet to the schema and the SQL scripts.
      *
-     * @return The file descriptor
+     * @param result  The result
      */
-    private PrintStream open(final String filename,
-                             final String encoding,
-                             final boolean writeBOM,
-                             final boolean append) throws java.io.IOException {
+    private void writeResult(final SheetResult result) {
+        schema.put(result.sheetName, result.columns);
 
-        try {
-            PrintStream out = new PrintStream(new FileOutputStream(filename, append), false, encoding);
+        if (result.createSql == null) {
+            return; // no data
+        }
 
-            // write the BOM?
-            if (!append && encoding.equals("UTF-8") && writeBOM) {
-                final byte byte1 = (byte) 0xEF;
-                final byte byte2 = (byte) 0xBB;
-                final byte byte3 = (byte) 0xBF;
-                final byte[] bom = {byte1, byte2, byte3};
-                out.write(bom);
-            }
+        createSql.print(result.createSql);
 
-            return out;
-        } catch (Exception e) {
-            e.printStackTrace();
+        dropSql.print(result.dropSql);
 
-            throw e;
+        if (deleteSql != null) {
+            deleteSql.print(result.deleteSql);
+        }
+
+        if (loadSql != null) {
+            loadSql.print(result.loadSql);
         }
     }
 
     /**
-     * Parse and write the CSV file.
+     * Iterate through each sheet in the workbook and process it.
      *
-     * @param sheet
-     * @param table
+     * With more than one thread (--threads) the sheets are processed concurrently,
+     * each thread with a streaming reader of its own (the readers are not thread safe).
+     * The table names are checked for uniqueness before any sheet is processed
+     * and the results are written in sheet order, so the output does not depend on the number of threads.
      *
-     * @return Did this CSV have contents?
+     * @param reader
+     * @param file    The workbook file (to open a reader per thread)
      */
-    private Boolean writeCsv(final Sheet sheet, final Table table) throws java.io.IOException {
-        HashMap<Integer, String> headerRow = new HashMap<Integer, String>();
-        String progress = null;
-        int nrNonEmptyRows = 0;
-        Iterator<Row> rowIterator = sheet.rowIterator();
-        PrintStream csvFile = null;
-        // we need to process all rows before we defintively know many columns there are
-        HashMap<Integer, HashMap<Integer, String>> dataRows = new HashMap<Integer, HashMap<Integer, String>>();
-
-        while (rowIterator.hasNext()) {
-            final Row row = rowIterator.next();
-            Iterator<Cell> cellIterator = row.cellIterator();
-            HashMap<Integer, String> dataRow = new HashMap<Integer, String>();
-            final boolean hasHeader = settings.headerRowFrom > 0;
-            final boolean isHeaderRow =
-                hasHeader && row.getRowNum() >= settings.headerRowFrom - 1 && row.getRowNum() <= settings.headerRowTill - 1;
-            final boolean isDataRow = !hasHeader || row.getRowNum() > settings.headerRowTill - 1;
-            final boolean lastDataRow = hasHeader && row.getRowNum() == settings.headerRowTill - 1;
-
-            debug("row number          : " + row.getRowNum());
-            debug("first cell number   : " + row.getFirstCellNum());
-            debug("last cell number + 1: " + row.getLastCellNum());
-
-            debug("Processing Excel row " + (row.getRowNum() + 1));
-
-            final int displayAfter = 10;
-
-            switch (nrNonEmptyRows++ % displayAfter) {
-            case 0:
-                progress = "Processing row " + nrNonEmptyRows;
-                break;
-
-            case displayAfter - 1:
-                progress += ".";
-                info(progress);
-                progress = null;
-                break;
-
-            default:
-                progress += ".";
-            }
-
-            while (cellIterator.hasNext()) {
-                final Cell cell = cellIterator.next();
-
-                debug("Processing Excel column " + (cell.getColumnIndex() + 1));
-                debug("Number of table columns: " + table.getNrColumns());
-                debug("cell address: " + cell.getAddress() + "; cell column index: " + cell.getColumnIndex());
-
-                /*
-                 * 1. If a cell is part of a header row add the header name (cell contents)
-                      to the previous contents of the corresponding header array element (with a space as separator), if any
-                 * 2. Else:
-                 *    a) If there is no header and the cell is beyond the largest sheet column found till now,
-                         add the corresponding column name (A, B, ...) as the header name
-                         to the (sparse) header array and the cell itself to the (sparse) data array
-                 *    b) Else, it is just a data cell so add it to the (sparse) data array.
-                 *
-                 * Every time a data cell is processed, the header name (via the column index) will be used to:
-                 * - either add the header name as a table column OR
-                 * - retrieve the column with that name
-                 *
-                 * Now the cell value will be used to update the table column data type.
-                 *
-                 * At the end of a data row, print the values to a CSV file (<sheet>.csv)
-                 * taking care of the holes in the sparse data array.
-                 *
-                 */
-
-                // Sometimes there may be cells missing so after cell column index 0 may come cell column index 2.
-                // But not for the header!
-                if (isHeaderRow) {
-                    // See note 1 above.
-                    String header = headerRow.get(cell.getColumnIndex());
-                    String value;
-
-                    // Some names are just numbers, strangely enough (column name 14)
-                    try {
-                        value = cell.getRichStringCellValue().getString();
-                        // string?
-                    } catch (IllegalStateException e1) {
-                        // java.lang.IllegalStateException: Cannot get a STRING value from a NUMERIC cell
-                        value = dataFormatter.formatCellValue(cell);
-                    }
-
-                    if (header != null) {
-                        header += " " + value;
-                    } else {
-                        header = value;
-                    }
-
-                    headerRow.put(cell.getColumnIndex(), header); // add or replace header
-                } else if (isDataRow) {
-                    if (!hasHeader && (headerRow.isEmpty() || cell.getColumnIndex() > Collections.max(headerRow.keySet()))) {
-                        // See note 2a (first part) above.
-                        final Integer lastKey = (headerRow.isEmpty() ? -1 : Collections.max(headerRow.keySet()));
-
-                        for (Integer key = lastKey + 1; key <= cell.getColumnIndex(); key++) {
-                            final TableColumn col = new TableColumn(settings);
-                            final String header = number2excelColumnName(key);
-
-                            headerRow.put(key, header); // add or replace header
-                            col.setName(header);
-                            debug("setting header column " + (key + 1) + " to '" + header + "' (1)");
-                            table.addColumn(col);
-                        }
-                        assert (cell.getColumnIndex() == Collections.max(headerRow.keySet()));
-                    }
-
-                    // Note 2a (second part) and 2b.
-                    assert (cell.getColumnIndex() < table.getNrColumns());
-
-                    // Add the value to the sparse data array.
-                    final TableColumn col = table.getColumn(cell.getColumnIndex());
-                    String value;
-
-                    // column type can switch from string to numeric but not vice versa
-                    switch (cell.getCellType()) {
-                    case FORMULA:
-                        // try in this order: numbers, strings (a boolean is a string in the database) and booleans
-                        try {
-                            value = getNumericValue(cell, col);
-                        } catch (IllegalStateException e1) {
-                            try {
-                                value = getStringValue(cell, col);
-                            } catch (IllegalStateException e2) {
-                                try {
-                                    value = getBooleanValue(cell, col);
-                                } catch  (IllegalStateException e3) {
-                                    // Cannot get a BOOLEAN value from a ERROR formula cell
-                                    value = "";
-                                }
-                            }
-                        }
-                        break;
-
-                    case BLANK:
-                    case STRING:
-                        value = getStringValue(cell, col);
-                        break;
-
-                    case BOOLEAN:
-                        value = getBooleanValue(cell, col);
-                        break;
-
-                    case NUMERIC:
-                        value = getNumericValue(cell, col);
-                        break;
-
-                    default:
-                        throw new RuntimeException("Cell Type of cell " + col.getName() + " unknown: " + cell.getCellType());
-                    }
-
-                    // see https://en.wikipedia.org/wiki/Comma-separated_values
-                    value.replace(table.getEnclosureString(), table.getEnclosureString() + table.getEnclosureString());
-                    if (value.contains(table.getEnclosureString())
-                        || value.contains(table.getFieldSeparator())
-                        || /* ERROR:  unquoted newline found in data */ value.contains("\n")) {
-                        value = table.getEnclosureString() + value + table.getEnclosureString();
-                    }
-                    dataRow.put(cell.getColumnIndex(), value);
-                }
-            } // while (cellIterator.hasNext()) {
-
-            // Create table columns
-            if (lastDataRow) {
-                // add table columns sorted on key
-                final SortedSet<Integer> keys = new TreeSet<Integer>(headerRow.keySet());
-                int lastKey = -1;
-
-                for (Integer key : keys) {
-                    TableColumn col;
-                    String header;
-
-                    // missing headers get the Excel column A, B, ...
-                    while (++lastKey < key) {
-                        col = new TableColumn(settings);
-                        header = number2excelColumnName(lastKey);
-                        col.setName(header);
-
-                        debug("setting header column " + (lastKey + 1) + " to '" + header + "' (2)");
-                        table.addColumn(col);
-                    }
-
-                    col = new TableColumn(settings);
-                    header = headerRow.get(key);
-                    col.setName(header);
-
-                    debug("setting header column " + (key + 1) + " to '" + header + "' (3)");
-                    table.addColumn(col);
-                }
-            }
+    private void processWorkbook(final WorkbookReader reader, final File file) throws java.io.IOException {
+        final List<String> sheetNames = reader.getSheetNames();
+        final List<Integer> sheetIndexes = new ArrayList<Integer>();
+        final List<Table> sheetTables = new ArrayList<Table>();
 
-            if (!isEmptyRow(dataRow)) {
-                dataRows.put(row.getRowNum(), dataRow);
-            } else {
-                debug("Skipping row " + (row.getRowNum() + 1) + " since it is empty");
-            }
-        }
+        selectSheets(settings, sheetNames, sheetIndexes, sheetTables);
 
-        if (progress != null) {
-            info(progress);
+        if (settings.pipe != null && sheetIndexes.size() != 1) {
+            throw new RuntimeException("Parameter --pipe needs exactly one selected sheet instead of " + sheetIndexes.size()
+                                       + ": use --sheet-name-expression");
         }
 
-        System.out.println("");
-
-        if (dataRows.size() > 0) {
-            csvFile = open(table.getLocation(), settings.encoding, settings.writeBOM, false);
+        final int nrThreads = Math.min(settings.threads, sheetIndexes.size());
 
-            final SortedSet<Integer> rows = new TreeSet<Integer>(dataRows.keySet());
+        if (nrThreads <= 1 || reader instanceof UserModelWorkbookReader) {
+            for (int s = 0; s < sheetIndexes.size(); s++) {
+                final int i = sheetIndexes.get(s);
 
-            for (Integer row : rows) {
-                final HashMap<Integer, String> dataRow = dataRows.get(row);
+                writeResult(processSheet(reader, i, sheetNames.get(i), sheetTables.get(s)));
+            }
+            return;
+        }
 
-                final SortedSet<Integer> columns = new TreeSet<Integer>(dataRow.keySet());
+        info("Processing " + sheetIndexes.size() + " sheets with " + nrThreads + " threads");
 
-                int lastColumn = 0;
-                int nrSeparatorsToPrint = 0;
-                int nrSeparatorsPrinted = 0;
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        final List<WorkbookReader> threadReaders = Collections.synchronizedList(new ArrayList<WorkbookReader>());
+        final ThreadLocal<WorkbookReader> threadReader = new ThreadLocal<WorkbookReader>();
+        final List<Future<SheetResult>> futures = new ArrayList<Future<SheetResult>>();
 
-                if (settings.addMetadata) {
-                    csvFile.print(sheet.getSheetName() + table.getFieldSeparator());
-                    csvFile.print(String.valueOf(row + 1) + table.getFieldSeparator());
-                }
+        try {
+            for (int s = 0; s < sheetIndexes.size(); s++) {
+                final int i = sheetIndexes.get(s);
+                final Table table = sheetTables.get(s);
+
+                futures.add(executor.submit(new Callable<SheetResult>() {
+                        @Override
+                        public SheetResult call() throws java.io.IOException {
+                            WorkbookReader sheetReader = threadReader.get();
+
+                            if (sheetReader == null) {
+                                sheetReader = openWorkbook(settings, file, true);
+                                threadReader.set(sheetReader);
+                                threadReaders.add(sheetReader);
+                            }
 
-                for (Integer column : columns) {
-                    final String col = dataRow.get(column);
+                            return processSheet(sheetReader, i, sheetNames.get(i), table);
+                        }
+                    }));
+            }
 
-                    // missing columns get a field separator
-                    nrSeparatorsToPrint = column - lastColumn;
-                    while (nrSeparatorsToPrint-- > 0) {
-                        csvFile.print(table.getFieldSeparator());
-                        nrSeparatorsPrinted++;
-                    }
+            // write the results in sheet order
+            for (Future<SheetResult> future : futures) {
+                writeResult(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new java.io.InterruptedIOException("Interrupted while processing the sheets");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof java.io.IOException) {
+                throw (java.io.IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (WorkbookReader sheetReader : threadReaders) {
+                sheetReader.close();
+            }
+        }
+    }
 
-                    csvFile.print(col);
-                    lastColumn = column;
-                }
+    /**
+     * Select the sheets whose name matches the sheet name expression and create their tables.
+     * The table names are checked for uniqueness before any sheet is processed.
+     *
+     * @param settings      The run-time settings
+     * @param sheetNames    The names of all sheets
+     * @param sheetIndexes  The indexes of the selected sheets (output)
+     * @param sheetTables   The tables of the selected sheets (output)
+     */
+    static void selectSheets(final Settings settings,
+                             final List<String> sheetNames,
+                             final List<Integer> sheetIndexes,
+                             final List<Table> sheetTables) {
+        final Set<String> tables = new HashSet<String>(); // test unique table names
+
+        for (int i = 0; i < sheetNames.size(); i++) {
+            final String sheetName = sheetNames.get(i);
+
+            if (!sheetName.matches(settings.sheetNameExpression)) {
+                settings.info("Skipping sheet " + i + " (" + sheetName
+                              + ") since it does not match \"" + settings.sheetNameExpression + "\"");
+                continue;
+            }
 
-                // print separators after the last column if that was not the last table column
-                nrSeparatorsToPrint = table.getNrColumns() - 1 - lastColumn;
-                while (nrSeparatorsToPrint-- > 0) {
-                    csvFile.print(table.getFieldSeparator());
-                    nrSeparatorsPrinted++;
-                }
+            Table table = null;
 
-                if (nrSeparatorsPrinted != table.getNrColumns() - 1) {
-                    throw new RuntimeException("nrSeparatorsPrinted (" + nrSeparatorsPrinted + ") != "
-                                               + "table.getNrColumns() - 1 (" + (table.getNrColumns() - 1) + ")");
-                }
+            final String tableName = (i < settings.tableNames.size() ? settings.tableNames.get(i) : sheetName);
 
-                csvFile.print(Settings.NL);
+            table = new Table(tableName, settings);
+            if (!tables.add(table.getName())) {
+                throw new RuntimeException("Table " + table.getName() + " is not unique");
             }
 
-            csvFile.close();
-        } else {
-            System.out.println("WARNING: Sheet does not contain data");
-        }
-
-        // >Add two table columns AFTER the CSV data has been printed
-        if (settings.addMetadata) {
-            TableColumn col = new TableColumn(settings);
-            final int maxNumericLength = 12;
-            final int maxStringLength = 100; // should suffice
-
-            // this will become second
-            debug("adding row column");
-            col.setName("ROW");
-            col.setNumericLength(maxNumericLength);
-            table.addColumnFirst(col);
-
-            col = new TableColumn(settings);
-
-            // this will become first
-            debug("adding sheet column");
-            col.setName("SHEET");
-            col.setStringLength(maxStringLength);
-            table.addColumnFirst(col);
+            sheetIndexes.add(i);
+            sheetTables.add(table);
         }
-
-        return csvFile != null;
-    } // writeCsv
+    }
 
     /**
-     * Convert a column number to an Excel column name (A, B, ...).
-     *
-     * @param columnIndex  starting from 0
-     *
-     * @return The Excel column name
+     * The result of processing a sheet: its table columns and its part of the SQL scripts.
      */
-    private String number2excelColumnName(final int columnIndex) {
-        String excelColumnName = "";
-        int r = columnIndex + 1; // rest
-        int n = 0;
-        char c;
-        final int nrUpperCaseCharacters = 26;
-
-        while (r > 0) {
-            n = (r - 1) % nrUpperCaseCharacters + 1;
-            r = (r - n) / nrUpperCaseCharacters;
-            c = 'A';
-            c += n - 1;
-            excelColumnName = Character.toString(c) + excelColumnName;
-        }
+    private static final class SheetResult {
+        /** The sheet name. */
+        private String sheetName = null;
+
+        /** The table columns (without the metadata columns). */
+        private List<TableColumn> columns = new ArrayList<TableColumn>();
+
+        /** The create.sql part or null if the sheet does not contain data. */
+        private String createSql = null;
+
+        /** The drop.sql part. */
+        private String dropSql = null;
 
-        return excelColumnName;
+        /** The delete.sql part. */
+        private String deleteSql = null;
+
+        /** The load.sql part. */
+        private String loadSql = null;
     }
 
     /**
-     * Is this sparse array row empty?
+     * Open a file on the file system.
      *
-     * @param row  The row array
+     * @param filename
+     * @param encoding
+     * @param writeBOM
+     * @param append
      *
-     * @return True or false
+     * @return The file descriptor
      */
-    private boolean isEmptyRow(final HashMap<Integer, String> row) {
-        for (Integer c : row.keySet()) {
-            final String col = row.get(c);
+    static PrintStream open(final String filename,
+                            final String encoding,
+                            final boolean writeBOM,
+                            final boolean append) throws java.io.IOException {
+
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(filename, append), false, encoding);
 
-            if (col != null && col.length() > 0) {
-                debug("column " + c + " (" + col + ") is not empty");
-                return false;
+            // write the BOM?
+            if (!append && encoding.equals("UTF-8") && writeBOM) {
+                final byte byte1 = (byte) 0xEF;
+                final byte byte2 = (byte) 0xBB;
+                final byte byte3 = (byte) 0xBF;
+                final byte[] bom = {byte1, byte2, byte3};
+                out.write(bom);
             }
+
+            return out;
+        } catch (Exception e) {
+            e.printStackTrace();
+
+            throw e;
         }
-        return true;
     }
 }
@@ -0,0 +1,185 @@
+package com.paulissoft.database.utilities;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell; // interface
+import org.apache.poi.ss.usermodel.CellStyle; // interface
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row; // interface
+import org.apache.poi.ss.usermodel.Sheet; // interface
+import org.apache.poi.ss.usermodel.Workbook; // interface
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * Reads a workbook that has been loaded completely into memory by the POI user model
+ * (HSSFWorkbook or XSSFWorkbook).
+ */
+class UserModelWorkbookReader implements WorkbookReader {
+    /** The workbook. */
+    private Workbook workbook = null;
+
+    /** The formula evaluator for lazy evaluation, null when the cached formula results are used. */
+    private FormulaEvaluator formulaEvaluator = null;
+
+    /** The number formats of the cell styles used by the numeric cells. */
+    private final StyleFormat.Cache styleFormats = new StyleFormat.Cache();
+
+    /**
+     * The constructor.
+     *
+     * The formula evaluator caches the results it has calculated (also of the cells referred to),
+     * and evaluating a cell stores the result in the cell, so no formula is ever evaluated twice.
+     *
+     * @param pWorkbook         The workbook
+     * @param formulaStrategy   Settings.CACHED: use the cached results,
+     *                          Settings.LAZY: evaluate a formula cell when it is read,
+     *                          Settings.ALWAYS: evaluate all formulas of the workbook now
+     */
+    UserModelWorkbookReader(final Workbook pWorkbook, final String formulaStrategy) {
+        this.workbook = pWorkbook;
+
+        if (formulaStrategy.equals(Settings.CACHED)) {
+            return;
+        }
+
+        formulaEvaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        formulaEvaluator.setIgnoreMissingWorkbooks(true);
+
+        if (formulaStrategy.equals(Settings.LAZY)) {
+            return;
+        }
+
+        for (Sheet sheet : workbook) {
+            for (Row r : sheet) {
+                for (Cell c : r) {
+                    switch (c.getCellType()) {
+                    case FORMULA:
+                        formulaEvaluator.evaluateFormulaCell(c);
+                        break;
+
+                    default:
+                        break;
+                    }
+                }
+            }
+        }
+        formulaEvaluator = null; // all results are cached now
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        final List<String> sheetNames = new ArrayList<String>();
+
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            sheetNames.add(workbook.getSheetName(i));
+        }
+
+        return sheetNames;
+    }
+
+    @Override
+    public void readSheet(final int sheetIndex, final SheetHandler handler) {
+        for (Row row : workbook.getSheetAt(sheetIndex)) {
+            handler.startRow(row.getRowNum());
+
+            for (Cell cell : row) {
+                final int column = cell.getColumnIndex();
+
+                switch (cell.getCellType()) {
+                case FORMULA:
+                    if (formulaEvaluator != null) {
+                        formulaEvaluator.evaluateFormulaCell(cell);
+                    }
+                    // try in this order: numbers, strings (a boolean is a string in the database) and booleans
+                    try {
+                        numericCell(cell, handler);
+                    } catch (IllegalStateException e1) {
+                        try {
+                            handler.stringCell(column, cell.getRichStringCellValue().getString());
+                        } catch (IllegalStateException e2) {
+                            try {
+                                handler.booleanCell(column, cell.getBooleanCellValue());
+                            } catch  (IllegalStateException e3) {
+                                // Cannot get a BOOLEAN value from a ERROR formula cell
+                                handler.errorCell(column);
+                            }
+                        }
+                    }
+                    break;
+
+                case BLANK:
+                    handler.blankCell(column);
+                    break;
+
+                case STRING:
+                    handler.stringCell(column, cell.getRichStringCellValue().getString());
+                    break;
+
+                case BOOLEAN:
+                    handler.booleanCell(column, cell.getBooleanCellValue());
+                    break;
+
+                case NUMERIC:
+                    numericCell(cell, handler);
+                    break;
+
+                default:
+                    throw new RuntimeException("Cell Type of cell " + cell.getAddress() + " unknown: " + cell.getCellType());
+                }
+            }
+
+            handler.endRow(row.getRowNum());
+        }
+    }
+
+    /**
+     * The workbook is in memory, so the dimension is determined from the rows instead of the dimension record.
+     */
+    @Override
+    public CellRangeAddress getDimension(final int sheetIndex) {
+        final Sheet sheet = workbook.getSheetAt(sheetIndex);
+        int firstColumn = Integer.MAX_VALUE;
+        int lastColumn = -1;
+
+        for (Row row : sheet) {
+            if (row.getFirstCellNum() >= 0) {
+                firstColumn = Math.min(firstColumn, row.getFirstCellNum());
+                lastColumn = Math.max(lastColumn, row.getLastCellNum() - 1);
+            }
+        }
+
+        return lastColumn < 0 ? null : new CellRangeAddress(sheet.getFirstRowNum(), sheet.getLastRowNum(), firstColumn, lastColumn);
+    }
+
+    @Override
+    public long estimateNrCells(final int sheetIndex) {
+        long nrCells = 0;
+
+        for (Row row : workbook.getSheetAt(sheetIndex)) {
+            nrCells += row.getPhysicalNumberOfCells();
+        }
+
+        return nrCells;
+    }
+
+    private void numericCell(final Cell cell, final SheetHandler handler) {
+        final double value = cell.getNumericCellValue(); // may throw IllegalStateException for a formula
+        final CellStyle style = cell.getCellStyle();
+
+        final int styleIndex = Short.toUnsignedInt(style.getIndex());
+        StyleFormat format = styleFormats.get(styleIndex);
+
+        if (format == null) {
+            format = styleFormats.add(styleIndex, style.getDataFormat(), style.getDataFormatString());
+        }
+
+        handler.numericCell(cell.getColumnIndex(), value, format);
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.close();
+    }
+}
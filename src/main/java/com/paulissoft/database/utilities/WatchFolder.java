@@ -0,0 +1,504 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches an inbox directory and converts each workbook dropped in it (watch mode), till the JVM is stopped.
+ * Compared to a run per workbook, the classes are loaded, POI is initialized and the code is compiled once.
+ *
+ * A workbook is converted once it has not changed for QUIET_MILLIS, so a workbook being copied is not read half way.
+ * It is converted into done/&lt;name&gt; in the output directory (so the Oracle load_dir of create.sql is right)
+ * and then moved there too. When the conversion fails, the directory is moved to failed/&lt;name&gt;
+ * with the workbook and the error in error.txt. A name that has been used is followed by -2, -3, ...
+ *
+ * The status (queue depth, the number of workbooks being converted and the latencies of the last workbooks)
+ * is written to status.json in the output directory, replaced atomically every POLL_MILLIS.
+ */
+class WatchFolder {
+    /** The time without changes before a workbook is converted. */
+    private static final long QUIET_MILLIS = 1000;
+
+    /** The time to wait for file events, i.e. the status update interval. */
+    private static final long POLL_MILLIS = 1000;
+
+    /** The number of workbooks in the status history. */
+    private static final int HISTORY_SIZE = 20;
+
+    /** The number of nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The run-time settings. */
+    private Settings settings = null;
+
+    /** The directory watched. */
+    private Path inbox = null;
+
+    /** The directory for the workbooks converted. */
+    private Path doneDir = null;
+
+    /** The directory for the workbooks that could not be converted. */
+    private Path failedDir = null;
+
+    /** The status file. */
+    private Path statusFile = null;
+
+    /** The workbooks that have arrived but may still be changing, in order of arrival (watch thread only). */
+    private Map<Path, Arrival> arrivals = new LinkedHashMap<Path, Arrival>();
+
+    /** The workbooks queued or being converted (watch thread only). */
+    private Set<Path> converting = new HashSet<Path>();
+
+    /** The output directory names reserved by the workbooks queued or being converted. */
+    private Set<String> reservedNames = new HashSet<String>();
+
+    /** The workbooks converted (or not) that the watch thread has not seen yet. */
+    private final Queue<Arrival> finishedArrivals = new ConcurrentLinkedQueue<Arrival>();
+
+    /** The number of workbooks that have arrived but may still be changing. */
+    private volatile int nrArriving = 0;
+
+    /** The number of workbooks queued for a conversion thread. */
+    private final AtomicInteger nrQueued = new AtomicInteger();
+
+    /** The number of workbooks being converted. */
+    private final AtomicInteger nrConverting = new AtomicInteger();
+
+    /** The number of workbooks converted. */
+    private final AtomicInteger nrDone = new AtomicInteger();
+
+    /** The number of workbooks that could not be converted. */
+    private final AtomicInteger nrFailed = new AtomicInteger();
+
+    /** The last workbooks handled, the last one first. */
+    private final Deque<Arrival> history = new ArrayDeque<Arrival>();
+
+    /** The start time. */
+    private final Instant started = Instant.now();
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings (the spreadsheet is the inbox directory)
+     */
+    WatchFolder(final Settings pSettings) {
+        this.settings = pSettings;
+    }
+
+    /**
+     * Watch the inbox and convert the workbooks that arrive, till the thread is interrupted or the JVM stops.
+     *
+     * @throws IOException  When the inbox can not be watched
+     */
+    void execute() throws IOException {
+        if (settings.spreadsheets.size() != 1 || !new File(settings.spreadsheets.get(0)).isDirectory()) {
+            throw new IOException("Watch mode needs one directory to watch instead of " + settings.spreadsheets);
+        }
+
+        inbox = new File(settings.spreadsheets.get(0)).toPath();
+        doneDir = settings.getOutputFile("done").toPath();
+        failedDir = settings.getOutputFile("failed").toPath();
+        statusFile = settings.getOutputFile("status.json").toPath();
+        Files.createDirectories(doneDir);
+        Files.createDirectories(failedDir);
+
+        final int nrThreads = (settings.batchThreads > 0 ? settings.batchThreads : Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeStatus("stopped");
+                }
+            }, "Watch folder shutdown"));
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            inbox.register(watchService,
+                           StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + inbox.toAbsolutePath() + " (status in " + statusFile.toAbsolutePath() + ")");
+
+            scan(); // the workbooks that were already there
+
+            while (true) {
+                final WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan(); // events have been lost
+                        } else {
+                            arrived(inbox.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Directory " + inbox + " can not be watched anymore");
+                    }
+                }
+
+                submitSettled(executor);
+                writeStatus("running");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while watching " + inbox);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Add the workbooks in the inbox that have not arrived yet.
+     *
+     * @throws IOException  When the inbox can not be read
+     */
+    private void scan() throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(inbox)) {
+            for (Path path : paths) {
+                arrived(path);
+            }
+        }
+    }
+
+    /**
+     * A file has been created or changed: (re)start the quiet period if it is a workbook.
+     *
+     * @param path  The file
+     */
+    private void arrived(final Path path) {
+        if (!Batch.isWorkbookName(path) || converting.contains(path)) {
+            return;
+        }
+
+        Arrival arrival = arrivals.get(path);
+
+        if (arrival == null) {
+            arrival = new Arrival(path);
+            arrivals.put(path, arrival);
+            settings.info("Workbook " + path + " arrived");
+        }
+        arrival.lastChange = System.nanoTime();
+    }
+
+    /**
+     * Queue the workbooks that have not changed for the quiet period for conversion.
+     *
+     * @param executor  The conversion threads
+     */
+    private void submitSettled(final ExecutorService executor) {
+        final long now = System.nanoTime();
+        final Iterator<Arrival> iterator = arrivals.values().iterator();
+
+        while (iterator.hasNext()) {
+            final Arrival arrival = iterator.next();
+            long size;
+            long modified;
+
+            try {
+                size = Files.size(arrival.workbook);
+                modified = Files.getLastModifiedTime(arrival.workbook).toMillis();
+            } catch (IOException e) {
+                settings.info("Workbook " + arrival.workbook + " is gone");
+                iterator.remove();
+                continue;
+            }
+
+            if (size != arrival.size || modified != arrival.modified) {
+                // still changing, maybe without events (e.g. on a network share)
+                arrival.size = size;
+                arrival.modified = modified;
+                arrival.lastChange = now;
+            } else if (now - arrival.lastChange >= QUIET_MILLIS * NANOS_PER_MILLI) {
+                iterator.remove();
+                arrival.name = reserveName(arrival.workbook);
+                arrival.queued = now;
+                converting.add(arrival.workbook);
+                nrQueued.incrementAndGet();
+                executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            convert(arrival);
+                        }
+                    });
+            }
+        }
+
+        // the workbooks that have been converted may arrive again
+        for (Arrival arrival = finishedArrivals.poll(); arrival != null; arrival = finishedArrivals.poll()) {
+            converting.remove(arrival.workbook);
+            reservedNames.remove(arrival.name.toLowerCase(Locale.ROOT));
+        }
+        nrArriving = arrivals.size();
+    }
+
+    /**
+     * Reserve the output directory name of a workbook: its name, unless in use in done, failed or by another workbook.
+     *
+     * @param workbook  The workbook
+     *
+     * @return The name
+     */
+    private String reserveName(final Path workbook) {
+        final String baseName = Batch.baseName(workbook.toFile());
+        String name = baseName;
+
+        for (int n = 2;
+             Files.exists(doneDir.resolve(name))
+                 || Files.exists(failedDir.resolve(name))
+                 || !reservedNames.add(name.toLowerCase(Locale.ROOT));
+             n++) {
+            name = baseName + "-" + n;
+        }
+
+        return name;
+    }
+
+    /**
+     * Convert a workbook into done/&lt;name&gt; and move it there, or move both to failed/&lt;name&gt;.
+     *
+     * @param arrival  The workbook
+     */
+    private void convert(final Arrival arrival) {
+        final Settings workbookSettings = settings.copy();
+        final Path outputDir = doneDir.resolve(arrival.name);
+
+        nrQueued.decrementAndGet();
+        nrConverting.incrementAndGet();
+        arrival.started = System.nanoTime();
+
+        workbookSettings.spreadsheet = arrival.workbook.toString();
+        workbookSettings.outputDir = outputDir.toString();
+        if (settings.writeSchemaFile != null && !new File(settings.writeSchemaFile).isAbsolute()) {
+            workbookSettings.writeSchemaFile = outputDir.resolve(settings.writeSchemaFile).toString();
+        }
+
+        settings.info("Converting workbook " + arrival.workbook + " into " + outputDir);
+        try {
+            new TableGenerator(workbookSettings).execute();
+            Files.move(arrival.workbook, outputDir.resolve(arrival.workbook.getFileName()));
+            nrDone.incrementAndGet();
+        } catch (Exception e) {
+            arrival.error = e;
+            failed(arrival, outputDir);
+            nrFailed.incrementAndGet();
+        } finally {
+            arrival.finished = System.nanoTime();
+            nrConverting.decrementAndGet();
+            synchronized (history) {
+                history.addFirst(arrival);
+                while (history.size() > HISTORY_SIZE) {
+                    history.removeLast();
+                }
+            }
+            finishedArrivals.add(arrival);
+        }
+        System.out.println(String.format(Locale.ROOT, "%s %s -> %s (settled in %d ms, queued for %d ms, converted in %d ms)",
+                                         arrival.error == null ? "Converted" : "FAILED to convert",
+                                         arrival.workbook,
+                                         arrival.error == null ? outputDir : failedDir.resolve(arrival.name),
+                                         arrival.getSettleMillis(),
+                                         arrival.getQueueMillis(),
+                                         arrival.getConvertMillis()));
+    }
+
+    /**
+     * Move the output of a workbook that could not be converted and the workbook to failed/&lt;name&gt;
+     * and write the error to error.txt there.
+     *
+     * @param arrival    The workbook
+     * @param outputDir  The output directory (in done)
+     */
+    private void failed(final Arrival arrival, final Path outputDir) {
+        final Path dir = failedDir.resolve(arrival.name);
+        final StringWriter error = new StringWriter();
+
+        arrival.error.printStackTrace(new PrintWriter(error));
+        try {
+            if (Files.exists(outputDir)) {
+                Files.move(outputDir, dir);
+            } else {
+                Files.createDirectories(dir);
+            }
+            Files.write(dir.resolve("error.txt"), error.toString().getBytes(StandardCharsets.UTF_8));
+            if (Files.exists(arrival.workbook)) {
+                Files.move(arrival.workbook, dir.resolve(arrival.workbook.getFileName()));
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: Could not move " + arrival.workbook + " to " + dir + ": " + e);
+        }
+    }
+
+    /**
+     * Write the status file: a temporary file that replaces the status file.
+     *
+     * @param state  The state (running or stopped)
+     */
+    private synchronized void writeStatus(final String state) {
+        final StringBuilder json = new StringBuilder();
+
+        json.append("{").append(Settings.NL);
+        json.append("  \"state\": ").append(quote(state)).append(",").append(Settings.NL);
+        json.append("  \"inbox\": ").append(quote(inbox.toAbsolutePath().toString())).append(",").append(Settings.NL);
+        json.append("  \"started\": ").append(quote(started.toString())).append(",").append(Settings.NL);
+        json.append("  \"updated\": ").append(quote(Instant.now().toString())).append(",").append(Settings.NL);
+        json.append("  \"arriving\": ").append(nrArriving).append(",").append(Settings.NL);
+        json.append("  \"queueDepth\": ").append(nrQueued.get()).append(",").append(Settings.NL);
+        json.append("  \"converting\": ").append(nrConverting.get()).append(",").append(Settings.NL);
+        json.append("  \"done\": ").append(nrDone.get()).append(",").append(Settings.NL);
+        json.append("  \"failed\": ").append(nrFailed.get()).append(",").append(Settings.NL);
+        json.append("  \"recent\": [");
+        synchronized (history) {
+            String separator = "";
+
+            for (Arrival arrival : history) {
+                json.append(separator).append(Settings.NL)
+                    .append("    {\"workbook\": ").append(quote(arrival.workbook.getFileName().toString()))
+                    .append(", \"status\": ").append(quote(arrival.error == null ? "done" : "failed"))
+                    .append(", \"output\": ").append(quote((arrival.error == null ? doneDir : failedDir)
+                                                           .resolve(arrival.name).toString()))
+                    .append(", \"settleMillis\": ").append(arrival.getSettleMillis())
+                    .append(", \"queueMillis\": ").append(arrival.getQueueMillis())
+                    .append(", \"convertMillis\": ").append(arrival.getConvertMillis())
+                    .append(", \"latencyMillis\": ").append(arrival.getLatencyMillis())
+                    .append(arrival.error == null ? "" : ", \"error\": " + quote(arrival.error.toString()))
+                    .append("}");
+                separator = ",";
+            }
+        }
+        json.append(Settings.NL).append("  ]").append(Settings.NL).append("}").append(Settings.NL);
+
+        try {
+            final Path tempFile = statusFile.resolveSibling(statusFile.getFileName() + ".tmp");
+
+            Files.write(tempFile, json.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile, statusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, statusFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: Could not write " + statusFile + ": " + e);
+        }
+    }
+
+    /**
+     * Quote a JSON string.
+     *
+     * @param str  The string
+     *
+     * @return The JSON string
+     */
+    private static String quote(final String str) {
+        final StringBuilder quoted = new StringBuilder("\"");
+
+        for (int i = 0; i < str.length(); i++) {
+            final char ch = str.charAt(i);
+
+            if (ch == '"' || ch == '\\') {
+                quoted.append('\\').append(ch);
+            } else if (ch < ' ') {
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+            } else {
+                quoted.append(ch);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * A workbook that has arrived in the inbox and its timings (System.nanoTime()).
+     */
+    private static final class Arrival {
+        /** The workbook. */
+        private final Path workbook;
+
+        /** When it arrived. */
+        private final long arrived = System.nanoTime();
+
+        /** When it changed for the last time. */
+        private long lastChange = arrived;
+
+        /** Its size when last checked. */
+        private long size = -1;
+
+        /** Its modification time when last checked. */
+        private long modified = -1;
+
+        /** The output directory name. */
+        private String name = null;
+
+        /** When it was queued for conversion. */
+        private long queued = 0;
+
+        /** When its conversion started. */
+        private long started = 0;
+
+        /** When its conversion finished (0 if not yet). */
+        private volatile long finished = 0;
+
+        /** The error or null if it has been converted. */
+        private Exception error = null;
+
+        Arrival(final Path pWorkbook) {
+            this.workbook = pWorkbook;
+        }
+
+        /**
+         * @return The time between its arrival and the moment it was queued, i.e. till it stopped changing
+         */
+        long getSettleMillis() {
+            return (queued - arrived) / NANOS_PER_MILLI;
+        }
+
+        /**
+         * @return The time it waited in the queue for a conversion thread
+         */
+        long getQueueMillis() {
+            return (started - queued) / NANOS_PER_MILLI;
+        }
+
+        /**
+         * @return The conversion time
+         */
+        long getConvertMillis() {
+            return (finished - started) / NANOS_PER_MILLI;
+        }
+
+        /**
+         * @return The time between its arrival and the end of its conversion
+         */
+        long getLatencyMillis() {
+            return (finished - arrived) / NANOS_PER_MILLI;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Converts workbooks in process: the inferred table of each selected sheet and its typed rows
+ * are handed to the application instead of being written to CSV files and SQL scripts.
+ *
+ * Pull the rows with a SheetReader (see open()) or have them pushed to a RowHandler (see convert()).
+ * Either way a sheet is read completely before its first row is delivered, since its table columns
+ * are only known after its last row. The rows are buffered meanwhile as the command line does
+ * (spilled to a temporary file above the memory budget).
+ *
+ * A converter is immutable and thread safe: each conversion has a reader and settings of its own,
+ * so one converter may convert many workbooks concurrently.
+ *
+ * The numbers are always the raw cell values (--raw-numbers), so that they can be typed as a BigDecimal.
+ */
+public final class WorkbookConverter {
+    /** The run-time settings (not to be changed). */
+    private final Settings settings;
+
+    /**
+     * The constructor.
+     *
+     * @param pSettings  The run-time settings (copied, so later changes do not matter)
+     */
+    public WorkbookConverter(final Settings pSettings) {
+        this.settings = pSettings.copy();
+        this.settings.tableNames = new ArrayList<>(pSettings.tableNames);
+        this.settings.rawNumbers = true;
+        this.settings.addMetadata = false;
+        this.settings.schemaFile = null;
+        this.settings.writeSchemaFile = null;
+        this.settings.threads = 1;
+    }
+
+    /**
+     * Open a workbook to pull its sheets and rows.
+     *
+     * @param file  The workbook file (.xls, .xlsx or .xlsb)
+     *
+     * @return The sheet reader (to be closed by the caller)
+     *
+     * @throws IOException  When the workbook can not be opened
+     */
+    public SheetReader open(final File file) throws IOException {
+        return new SheetReader(settings.copy(), file, null);
+    }
+
+    /**
+     * Open a workbook from a stream to pull its sheets and rows.
+     * The stream is copied to a temporary file first, which is removed when the sheet reader is closed.
+     *
+     * @param input  The workbook contents (not closed)
+     *
+     * @return The sheet reader (to be closed by the caller)
+     *
+     * @throws IOException  When the workbook can not be copied or opened
+     */
+    public SheetReader open(final InputStream input) throws IOException {
+        final File file = File.createTempFile("excel2sql", ".workbook");
+
+        try {
+            Files.copy(input, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            throw e;
+        }
+
+        return new SheetReader(settings.copy(), file, file);
+    }
+
+    /**
+     * Convert a workbook and push its sheets and rows to a handler.
+     *
+     * @param file     The workbook file (.xls, .xlsx or .xlsb)
+     * @param handler  The handler
+     *
+     * @throws IOException  When the workbook can not be read or the handler stops the conversion
+     */
+    public void convert(final File file, final RowHandler handler) throws IOException {
+        try (SheetReader sheets = open(file)) {
+            convert(sheets, handler);
+        }
+    }
+
+    /**
+     * Convert a workbook from a stream and push its sheets and rows to a handler.
+     *
+     * @param input    The workbook contents (not closed)
+     * @param handler  The handler
+     *
+     * @throws IOException  When the workbook can not be read or the handler stops the conversion
+     */
+    public void convert(final InputStream input, final RowHandler handler) throws IOException {
+        try (SheetReader sheets = open(input)) {
+            convert(sheets, handler);
+        }
+    }
+
+    private static void convert(final SheetReader sheets, final RowHandler handler) throws IOException {
+        while (sheets.nextSheet()) {
+            handler.startSheet(sheets.getSheetName(), sheets.getTable());
+
+            final Iterator<Row> rows = sheets.rows();
+
+            try {
+                while (rows.hasNext()) {
+                    handler.row(rows.next());
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            handler.endSheet(sheets.getSheetName(), sheets.getTable());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.paulissoft.database.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+
+/**
+ * Reads the work sheets of a workbook and reports their contents to a sheet handler.
+ */
+interface WorkbookReader extends Closeable {
+    /**
+     * Get the sheet names in workbook order.
+     *
+     * @return The sheet names
+     */
+    List<String> getSheetNames();
+
+    /**
+     * Read a work sheet and report its rows and cells to the handler.
+     *
+     * @param sheetIndex  The sheet index (starting from 0)
+     * @param handler     The handler
+     *
+     * @throws IOException  When the sheet can not be read
+     */
+    void readSheet(int sheetIndex, SheetHandler handler) throws IOException;
+
+    /**
+     * Get the dimension of a work sheet as recorded in the workbook (the dimension record),
+     * without reading its cells. It is written by the application that saved the workbook,
+     * so it may be missing or wrong (some applications always write A1).
+     *
+     * @param sheetIndex  The sheet index (starting from 0)
+     *
+     * @return The range from the first to the last used cell or null if not recorded (or empty)
+     *
+     * @throws IOException  When the sheet can not be read
+     */
+    CellRangeAddress getDimension(int sheetIndex) throws IOException;
+
+    /**
+     * Estimate the number of cells of a work sheet from its size, without reading its cells.
+     *
+     * @param sheetIndex  The sheet index (starting from 0)
+     *
+     * @return The estimated number of cells or -1 if unknown
+     */
+    long estimateNrCells(int sheetIndex);
+}
@@ -0,0 +1,438 @@
+package com.paulissoft.database.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BlankRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.hssf.record.StringRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.DocumentEntry;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * Reads a BIFF8 workbook (.xls) with the HSSF event model, so the records
+ * are processed one by one and no cell is kept in memory.
+ *
+ * The workbook stream contains the workbook globals (sheet names, shared strings and formats)
+ * followed by a sub stream per sheet. Reading stops after each sheet so the sheets are
+ * read in one pass over the file as long as they are requested in workbook order.
+ */
+class XlsWorkbookReader implements WorkbookReader {
+    /** The (minimum) average size of a cell record in a sheet sub stream. */
+    private static final int CELL_RECORD_SIZE = 16;
+
+    /** The file system. */
+    private POIFSFileSystem fileSystem = null;
+
+    /** The workbook stream. */
+    private InputStream workbookStream = null;
+
+    /** The request with the listeners for all records. */
+    private HSSFRequest request = null;
+
+    /** The record listener. */
+    private SheetRecordListener recordListener = null;
+
+    /** The sheet names. */
+    private List<String> sheetNames = null;
+
+    /** The positions of the sheet sub streams in the workbook stream (in the same order as the sheet names). */
+    private List<Integer> sheetPositions = null;
+
+    /**
+     * The constructor: only reads the workbook globals.
+     *
+     * @param pFileSystem  The file system containing the workbook stream
+     *
+     * @throws IOException  When the workbook can not be opened
+     */
+    XlsWorkbookReader(final POIFSFileSystem pFileSystem) throws IOException {
+        this.fileSystem = pFileSystem;
+        open();
+
+        final List<BoundSheetRecord> boundSheetRecords = recordListener.boundSheetRecords;
+
+        sheetNames = new ArrayList<String>();
+        sheetPositions = new ArrayList<Integer>();
+        for (BoundSheetRecord boundSheetRecord
+                 : BoundSheetRecord.orderByBofPosition(boundSheetRecords)) {
+            sheetNames.add(boundSheetRecord.getSheetname());
+            sheetPositions.add(boundSheetRecord.getPositionOfBof());
+        }
+    }
+
+    /**
+     * Open the workbook stream and read till the first sheet.
+     */
+    private void open() throws IOException {
+        workbookStream = fileSystem.createDocumentInputStream(getWorkbookEntryName());
+        recordListener = new SheetRecordListener();
+        request = new HSSFRequest();
+        request.addListenerForAllRecords(recordListener);
+
+        process(-1);
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    @Override
+    public void readSheet(final int sheetIndex, final SheetHandler handler) throws IOException {
+        if (sheetIndex < recordListener.sheetIndex
+            || (sheetIndex == recordListener.sheetIndex && !recordListener.atSheetStart)) {
+            // this sheet has already been (partly) read: start all over again
+            workbookStream.close();
+            open();
+        }
+
+        recordListener.handler = handler;
+        try {
+            process(sheetIndex);
+        } finally {
+            recordListener.handler = null;
+        }
+    }
+
+    /**
+     * Process the records till the end of a sheet.
+     *
+     * @param sheetIndex  The sheet to stop after or -1 to stop after the workbook globals
+     */
+    private void process(final int sheetIndex) throws IOException {
+        recordListener.targetSheetIndex = sheetIndex;
+        try {
+            new HSSFEventFactory().abortableProcessEvents(request, workbookStream);
+        } catch (HSSFUserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read the DIMENSIONS record, which precedes the cells of a sheet.
+     * The records of the sheet sub stream are read one by one from its position in the workbook stream.
+     */
+    @Override
+    public CellRangeAddress getDimension(final int sheetIndex) throws IOException {
+        try (DocumentInputStream stream = fileSystem.createDocumentInputStream(getWorkbookEntryName())) {
+            stream.skip(sheetPositions.get(sheetIndex));
+
+            while (stream.available() > 0) {
+                final int sid = stream.readUShort();
+                final int size = stream.readUShort();
+
+                if (sid == DimensionsRecord.sid) {
+                    final int firstRow = stream.readInt();
+                    final int lastRow = stream.readInt() - 1; // the record contains the last row + 1
+                    final int firstColumn = stream.readUShort();
+                    final int lastColumn = stream.readUShort() - 1; // the last column + 1
+
+                    return lastRow < firstRow || lastColumn < firstColumn
+                        ? null
+                        : new CellRangeAddress(firstRow, lastRow, firstColumn, lastColumn);
+                } else if (sid == EOFRecord.sid || sid == RowRecord.sid) {
+                    break;
+                }
+                stream.skip(size);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public long estimateNrCells(final int sheetIndex) {
+        long end;
+
+        if (sheetIndex + 1 < sheetPositions.size()) {
+            end = sheetPositions.get(sheetIndex + 1);
+        } else {
+            try {
+                end = ((DocumentEntry) fileSystem.getRoot().getEntry(getWorkbookEntryName())).getSize();
+            } catch (java.io.FileNotFoundException e) {
+                return -1;
+            }
+        }
+
+        return (end - sheetPositions.get(sheetIndex)) / CELL_RECORD_SIZE;
+    }
+
+    private String getWorkbookEntryName() {
+        return HSSFWorkbook.getWorkbookDirEntryName(fileSystem.getRoot());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (workbookStream != null) {
+            workbookStream.close();
+            workbookStream = null;
+        }
+        if (fileSystem != null) {
+            fileSystem.close();
+            fileSystem = null;
+        }
+    }
+
+    /**
+     * Listens to all records and reports the cells of the target sheet.
+     * Processing is aborted at the end of the workbook globals or at the end of the target sheet.
+     */
+    private static final class SheetRecordListener extends AbortableHSSFListener {
+        /** Abort the processing. */
+        private static final short ABORT = 1;
+
+        /** Continue the processing. */
+        private static final short CONTINUE = 0;
+
+        /** The listener chain: format tracking, missing record awareness and finally the cell listener. */
+        private final FormatTrackingHSSFListener formatListener;
+
+        /** The number formats of the cell styles (XF records) used by the numeric cells. */
+        private final StyleFormat.Cache styleFormats = new StyleFormat.Cache();
+
+        /** The bound sheet records (workbook globals). */
+        private final List<BoundSheetRecord> boundSheetRecords = new ArrayList<BoundSheetRecord>();
+
+        /** The shared strings (workbook globals). */
+        private SSTRecord sstRecord = null;
+
+        /** The depth of the BOF records (0 means outside any sub stream). */
+        private int depth = 0;
+
+        /** The index of the current (or last) sheet sub stream, -1 for the workbook globals. */
+        private int sheetIndex = -1;
+
+        /** Has the BOF record of the current sheet just been read? */
+        private boolean atSheetStart = false;
+
+        /** The sheet to report and stop after or -1 to stop after the workbook globals. */
+        private int targetSheetIndex = -1;
+
+        /** The handler to report the target sheet to. */
+        private SheetHandler handler = null;
+
+        /** The rows with a row record but (yet) no cells. */
+        private final Deque<Integer> pendingRows = new ArrayDeque<Integer>();
+
+        /** The current row or -1 if no row is open. */
+        private int currentRow = -1;
+
+        /** A formula with a string result whose value follows in a string record. */
+        private FormulaRecord pendingFormula = null;
+
+        /** Stop processing after this record? */
+        private boolean abort = false;
+
+        /** The constructor. */
+        SheetRecordListener() {
+            formatListener = new FormatTrackingHSSFListener(new MissingRecordAwareHSSFListener(new HSSFListener() {
+                @Override
+                public void processRecord(final Record rec) {
+                    cellRecord(rec);
+                }
+            }));
+        }
+
+        @Override
+        public short abortableProcessRecord(final Record rec) {
+            abort = false;
+            formatListener.processRecord(rec);
+            return abort ? ABORT : CONTINUE;
+        }
+
+        private boolean isTargetSheet() {
+            return handler != null && sheetIndex == targetSheetIndex && depth == 1;
+        }
+
+        private void cellRecord(final Record rec) {
+            atSheetStart = false;
+
+            switch (rec.getSid()) {
+            case BOFRecord.sid:
+                if (depth++ == 0 && ((BOFRecord) rec).getType() != BOFRecord.TYPE_WORKBOOK) {
+                    sheetIndex++;
+                    atSheetStart = true;
+                    // the workbook globals are done when the first sheet starts
+                    abort = (targetSheetIndex < 0);
+                }
+                break;
+
+            case EOFRecord.sid:
+                if (isTargetSheet()) {
+                    endRows(Integer.MAX_VALUE);
+                }
+                if (--depth == 0 && sheetIndex >= 0 && sheetIndex == targetSheetIndex) {
+                    abort = true;
+                }
+                break;
+
+            case BoundSheetRecord.sid:
+                boundSheetRecords.add((BoundSheetRecord) rec);
+                break;
+
+            case SSTRecord.sid:
+                sstRecord = (SSTRecord) rec;
+                break;
+
+            case RowRecord.sid:
+                if (isTargetSheet()) {
+                    pendingRows.add(((RowRecord) rec).getRowNumber());
+                }
+                break;
+
+            case StringRecord.sid:
+                if (isTargetSheet() && pendingFormula != null) {
+                    handler.stringCell(pendingFormula.getColumn(), ((StringRecord) rec).getString());
+                    pendingFormula = null;
+                }
+                break;
+
+            default:
+                if (!isTargetSheet()) {
+                    break;
+                }
+                if (rec instanceof LastCellOfRowDummyRecord) {
+                    if (((LastCellOfRowDummyRecord) rec).getRow() == currentRow) {
+                        endRow();
+                    }
+                } else if (rec instanceof CellValueRecordInterface) {
+                    startRow(((CellValueRecordInterface) rec).getRow());
+                    cell(rec);
+                }
+                break;
+            }
+        }
+
+        private void startRow(final int row) {
+            if (row != currentRow) {
+                endRow();
+                endRows(row);
+                handler.startRow(row);
+                currentRow = row;
+            }
+        }
+
+        private void endRow() {
+            if (currentRow >= 0) {
+                handler.endRow(currentRow);
+                currentRow = -1;
+            }
+        }
+
+        /**
+         * Report the rows without cells (but with a row record) before a row.
+         *
+         * @param row  The row
+         */
+        private void endRows(final int row) {
+            endRow();
+            while (!pendingRows.isEmpty() && pendingRows.peekFirst() <= row) {
+                final int emptyRow = pendingRows.removeFirst();
+
+                if (emptyRow < row) {
+                    handler.startRow(emptyRow);
+                    handler.endRow(emptyRow);
+                }
+            }
+        }
+
+        private void cell(final Record rec) {
+            final CellValueRecordInterface cell = (CellValueRecordInterface) rec;
+            final int column = cell.getColumn();
+
+            switch (rec.getSid()) {
+            case NumberRecord.sid:
+                numericCell(cell, ((NumberRecord) rec).getValue());
+                break;
+
+            case LabelSSTRecord.sid:
+                handler.stringCell(column, sstRecord.getString(((LabelSSTRecord) rec).getSSTIndex()).getString());
+                break;
+
+            case LabelRecord.sid:
+                handler.stringCell(column, ((LabelRecord) rec).getValue());
+                break;
+
+            case BlankRecord.sid:
+                handler.blankCell(column);
+                break;
+
+            case BoolErrRecord.sid:
+                final BoolErrRecord boolErrRecord = (BoolErrRecord) rec;
+
+                if (boolErrRecord.isBoolean()) {
+                    handler.booleanCell(column, boolErrRecord.getBooleanValue());
+                } else {
+                    throw new RuntimeException("Cell Type of cell "
+                                               + new CellReference(cell.getRow(), column).formatAsString()
+                                               + " unknown: ERROR");
+                }
+                break;
+
+            case FormulaRecord.sid:
+                final FormulaRecord formulaRecord = (FormulaRecord) rec;
+                final CellType cellType = formulaRecord.getCachedResultTypeEnum();
+
+                if (cellType == CellType.NUMERIC) {
+                    numericCell(cell, formulaRecord.getValue());
+                } else if (cellType == CellType.STRING) {
+                    if (formulaRecord.hasCachedResultString()) {
+                        pendingFormula = formulaRecord; // the value is in the next string record
+                    } else {
+                        handler.stringCell(column, "");
+                    }
+                } else if (cellType == CellType.BOOLEAN) {
+                    handler.booleanCell(column, formulaRecord.getCachedBooleanValue());
+                } else {
+                    handler.errorCell(column);
+                }
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        private void numericCell(final CellValueRecordInterface cell, final double value) {
+            StyleFormat format = styleFormats.get(cell.getXFIndex());
+
+            if (format == null) {
+                format = styleFormats.add(cell.getXFIndex(),
+                                          formatListener.getFormatIndex(cell),
+                                          formatListener.getFormatString(cell));
+            }
+
+            handler.numericCell(cell.getColumn(), value, format);
+        }
+    }
+}
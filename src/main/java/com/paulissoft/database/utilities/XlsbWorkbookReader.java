@@ -0,0 +1,461 @@
+package com.paulissoft.database.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.util.LittleEndian;
+import org.apache.poi.util.LittleEndianInputStream;
+import org.apache.poi.xssf.binary.XSSFBParseException;
+import org.apache.poi.xssf.binary.XSSFBParser;
+import org.apache.poi.xssf.binary.XSSFBRecordType;
+import org.apache.poi.xssf.binary.XSSFBRelation;
+import org.apache.poi.xssf.binary.XSSFBSharedStringsTable;
+import org.apache.poi.xssf.binary.XSSFBUtils;
+import org.apache.poi.xssf.eventusermodel.XSSFBReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Reads an Excel binary workbook (.xlsb) sheet by sheet, so only the shared strings
+ * and styles are kept in memory and never a complete sheet.
+ *
+ * The package and its parts are located by POI's XSSFBReader.
+ * POI's XSSFBSheetHandler only reports formatted values (and skips formula booleans and rich strings),
+ * so the sheet records are parsed here in order to report typed (raw) values to the sheet handler,
+ * exactly like the user model does. There is no user model for .xlsb so it is always streamed.
+ */
+class XlsbWorkbookReader implements WorkbookReader {
+    /** The length of the cell header (column and style) in front of each cell value. */
+    private static final int CELL_HEADER_LENGTH = 8;
+
+    /** The offset of the style index in the cell header. */
+    private static final int STYLE_OFFSET = 4;
+
+    /** The RK number flag for an integer (instead of a double). */
+    private static final int RK_INTEGER = 2;
+
+    /** The RK number flag for a value multiplied by 100. */
+    private static final int RK_X100 = 1;
+
+    /** The divisor for an RK number multiplied by 100. */
+    private static final double RK_DIVISOR = 100;
+
+    /** The (minimum) average size of a cell record in a sheet part. */
+    private static final int CELL_RECORD_SIZE = 16;
+
+    /** The size of the dimension record: the first and last row and the first and last column. */
+    private static final int DIMENSION_SIZE = 4 * Integer.BYTES;
+
+    /** The bits of a byte in a record type or size (the high bit tells whether another byte follows). */
+    private static final int VARINT_BITS = 7;
+
+    /** The high bit of a byte in a record type or size. */
+    private static final int VARINT_MORE = 0x80;
+
+    /** The maximum number of bytes of a record size. */
+    private static final int VARINT_SIZE_BYTES = 4;
+
+    /** The package. */
+    private OPCPackage xlsbPackage = null;
+
+    /** The shared strings. */
+    private XSSFBSharedStringsTable strings = null;
+
+    /** The styles. */
+    private Styles styles = null;
+
+    /** The number formats of the cell styles used by the numeric cells. */
+    private final StyleFormat.Cache styleFormats = new StyleFormat.Cache();
+
+    /** The sheet names. */
+    private List<String> sheetNames = new ArrayList<String>();
+
+    /** The sheet parts (in the same order as the sheet names). */
+    private List<PackagePart> sheetParts = new ArrayList<PackagePart>();
+
+    /**
+     * The constructor: only reads the workbook part.
+     * The shared strings and styles parts are read when the first sheet is read.
+     *
+     * @param pPackage  The package, opened read only
+     *
+     * @throws IOException  When the workbook can not be opened
+     */
+    XlsbWorkbookReader(final OPCPackage pPackage) throws IOException {
+        this.xlsbPackage = pPackage;
+
+        try {
+            final XSSFBReader xssfbReader = new XSSFBReader(xlsbPackage);
+            final XSSFBReader.SheetIterator iter = (XSSFBReader.SheetIterator) xssfbReader.getSheetsData();
+
+            while (iter.hasNext()) {
+                iter.next().close();
+                sheetNames.add(iter.getSheetName());
+                sheetParts.add(iter.getSheetPart());
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Is this spreadsheet an Excel binary workbook?
+     *
+     * @param opcPackage  The Office Open XML package
+     *
+     * @return true if the main part of the package is a binary workbook
+     */
+    static boolean isXlsb(final OPCPackage opcPackage) {
+        return !opcPackage.getPartsByContentType(XSSFRelation.XLSB_BINARY_WORKBOOK.getContentType()).isEmpty();
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    @Override
+    public void readSheet(final int sheetIndex, final SheetHandler handler) throws IOException {
+        if (strings == null) {
+            try {
+                strings = new XSSFBSharedStringsTable(xlsbPackage);
+            } catch (SAXException e) {
+                throw new IOException(e);
+            }
+
+            final List<PackagePart> stylesParts =
+                xlsbPackage.getPartsByContentType(XSSFBRelation.STYLES_BINARY.getContentType());
+
+            if (stylesParts.isEmpty()) {
+                styles = new Styles(new ByteArrayInputStream(new byte[0]));
+            } else {
+                try (InputStream stream = stylesParts.get(0).getInputStream()) {
+                    styles = new Styles(stream);
+                }
+            }
+        }
+
+        try (InputStream stream = sheetParts.get(sheetIndex).getInputStream()) {
+            new SheetRecords(stream, handler).parse();
+        }
+    }
+
+    /**
+     * Read the BrtWsDim record, which precedes the sheet data.
+     * The records are read one by one here since XSSFBParser can not stop before the end of the part.
+     */
+    @Override
+    public CellRangeAddress getDimension(final int sheetIndex) throws IOException {
+        try (InputStream stream = sheetParts.get(sheetIndex).getInputStream()) {
+            int recordType;
+
+            while ((recordType = readVarInt(stream, 2)) >= 0) {
+                final int recordSize = readVarInt(stream, VARINT_SIZE_BYTES);
+
+                if (recordSize < 0) {
+                    break;
+                } else if (recordType == XSSFBRecordType.BrtWsDim.getId() && recordSize >= DIMENSION_SIZE) {
+                    final LittleEndianInputStream data = new LittleEndianInputStream(stream);
+                    final int firstRow = data.readInt();
+                    final int lastRow = data.readInt();
+                    final int firstColumn = data.readInt();
+                    final int lastColumn = data.readInt();
+
+                    return new CellRangeAddress(firstRow, lastRow, firstColumn, lastColumn);
+                } else if (recordType == XSSFBRecordType.BrtBeginSheetData.getId()) {
+                    break;
+                }
+                IOUtils.skipFully(stream, recordSize);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a record type or size: 7 bits per byte, least significant first.
+     *
+     * @param stream    The stream
+     * @param maxBytes  The maximum number of bytes
+     *
+     * @return The value or -1 at the end of the stream
+     */
+    private static int readVarInt(final InputStream stream, final int maxBytes) throws IOException {
+        int value = 0;
+
+        for (int i = 0; i < maxBytes; i++) {
+            final int b = stream.read();
+
+            if (b < 0) {
+                return -1;
+            }
+            value |= (b & ~VARINT_MORE) << (VARINT_BITS * i);
+            if ((b & VARINT_MORE) == 0) {
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    @Override
+    public long estimateNrCells(final int sheetIndex) {
+        final long size = sheetParts.get(sheetIndex).getSize();
+
+        return size < 0 ? -1 : size / CELL_RECORD_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (xlsbPackage != null) {
+            xlsbPackage.revert(); // opened read only so nothing to save
+            xlsbPackage = null;
+        }
+    }
+
+    /**
+     * The number formats of the cell styles, read from the styles part.
+     * POI's XSSFBStylesTable does not expose them.
+     */
+    private static final class Styles extends XSSFBParser {
+        /** The format index for each cell style. */
+        private final List<Integer> formatIndexes = new ArrayList<Integer>();
+
+        /** The custom format strings by format index. */
+        private final Map<Integer, String> formatStrings = new HashMap<Integer, String>();
+
+        /** Are the cell styles being read? */
+        private boolean inCellXFs = false;
+
+        /** Are the custom formats being read? */
+        private boolean inFmts = false;
+
+        /**
+         * The constructor: reads the styles part.
+         *
+         * @param stream  The styles part stream
+         *
+         * @throws IOException  When the styles can not be read
+         */
+        Styles(final InputStream stream) throws IOException {
+            super(stream);
+            parse();
+        }
+
+        @Override
+        public void handleRecord(final int recordType, final byte[] data) throws XSSFBParseException {
+            switch (XSSFBRecordType.lookup(recordType)) {
+            case BrtBeginCellXFs:
+                inCellXFs = true;
+                break;
+
+            case BrtEndCellXFs:
+                inCellXFs = false;
+                break;
+
+            case BrtXf:
+                if (inCellXFs) {
+                    formatIndexes.add(LittleEndian.getUShort(data, 2));
+                }
+                break;
+
+            case BrtBeginFmts:
+                inFmts = true;
+                break;
+
+            case BrtEndFmts:
+                inFmts = false;
+                break;
+
+            case BrtFmt:
+                if (inFmts) {
+                    final StringBuilder sb = new StringBuilder();
+
+                    XSSFBUtils.readXLWideString(data, 2, sb);
+                    formatStrings.put(LittleEndian.getUShort(data, 0), sb.toString());
+                }
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        /**
+         * Get the format index of a cell style.
+         *
+         * @param style  The cell style index
+         *
+         * @return The format index (0 for General)
+         */
+        int getFormatIndex(final int style) {
+            return style < formatIndexes.size() ? formatIndexes.get(style) : 0;
+        }
+
+        /**
+         * Get the format string of a format index.
+         *
+         * @param formatIndex  The format index
+         *
+         * @return The custom format string or else the built-in format string
+         */
+        String getFormatString(final int formatIndex) {
+            final String formatString = formatStrings.get(formatIndex);
+
+            return formatString != null ? formatString : BuiltinFormats.getBuiltinFormat(formatIndex);
+        }
+    }
+
+    /**
+     * Parses the records of a sheet part and reports the rows and typed cells.
+     */
+    private final class SheetRecords extends XSSFBParser {
+        /** The handler to report to. */
+        private final SheetHandler handler;
+
+        /** The current row or -1 if no row is open. */
+        private int currentRow = -1;
+
+        /** A buffer for wide strings. */
+        private final StringBuilder buffer = new StringBuilder();
+
+        /**
+         * The constructor.
+         *
+         * @param stream    The sheet part stream
+         * @param pHandler  The handler to report to
+         */
+        SheetRecords(final InputStream stream, final SheetHandler pHandler) {
+            super(stream);
+            this.handler = pHandler;
+        }
+
+        @Override
+        public void handleRecord(final int recordType, final byte[] data) throws XSSFBParseException {
+            final XSSFBRecordType type = XSSFBRecordType.lookup(recordType);
+
+            switch (type) {
+            case BrtRowHdr:
+                endRow();
+                currentRow = LittleEndian.getInt(data, 0);
+                handler.startRow(currentRow);
+                return;
+
+            case BrtEndSheetData:
+                endRow();
+                return;
+
+            default:
+                break;
+            }
+
+            if (currentRow < 0 || recordType < XSSFBRecordType.BrtCellBlank.getId()
+                || (recordType > XSSFBRecordType.BrtFmlaError.getId() && type != XSSFBRecordType.BrtCellRString)) {
+                return; // not a cell
+            }
+
+            final int column = LittleEndian.getInt(data, 0);
+
+            switch (type) {
+            case BrtCellBlank:
+                handler.blankCell(column);
+                break;
+
+            case BrtCellRk:
+                numericCell(column, data, rkNumber(LittleEndian.getInt(data, CELL_HEADER_LENGTH)));
+                break;
+
+            case BrtCellReal:
+            case BrtFmlaNum:
+                numericCell(column, data, LittleEndian.getDouble(data, CELL_HEADER_LENGTH));
+                break;
+
+            case BrtCellIsst:
+                handler.stringCell(column,
+                                   strings.getItemAt(LittleEndian.getInt(data, CELL_HEADER_LENGTH)).getString());
+                break;
+
+            case BrtCellSt:
+            case BrtFmlaString:
+                buffer.setLength(0);
+                XSSFBUtils.readXLWideString(data, CELL_HEADER_LENGTH, buffer);
+                handler.stringCell(column, buffer.toString());
+                break;
+
+            case BrtCellRString:
+                // a flags byte precedes the string, the formatting runs follow it
+                buffer.setLength(0);
+                XSSFBUtils.readXLWideString(data, CELL_HEADER_LENGTH + 1, buffer);
+                handler.stringCell(column, buffer.toString());
+                break;
+
+            case BrtCellBool:
+            case BrtFmlaBool:
+                handler.booleanCell(column, data[CELL_HEADER_LENGTH] != 0);
+                break;
+
+            case BrtCellError:
+                throw new RuntimeException("Cell Type of cell " + new CellReference(currentRow, column).formatAsString()
+                                           + " unknown: ERROR");
+
+            case BrtFmlaError:
+                handler.errorCell(column);
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        private void endRow() {
+            if (currentRow >= 0) {
+                handler.endRow(currentRow);
+                currentRow = -1;
+            }
+        }
+
+        private void numericCell(final int column, final byte[] data, final double value) {
+            // the style index is a 24 bit integer
+            final int style = LittleEndian.getUShort(data, STYLE_OFFSET)
+                | LittleEndian.getUByte(data, STYLE_OFFSET + 2) << Short.SIZE;
+            StyleFormat format = styleFormats.get(style);
+
+            if (format == null) {
+                final int formatIndex = styles.getFormatIndex(style);
+
+                format = styleFormats.add(style, formatIndex, styles.getFormatString(formatIndex));
+            }
+
+            handler.numericCell(column, value, format);
+        }
+
+        /**
+         * Decode an RK number: a 30 bit integer or the 30 most significant bits of a double,
+         * optionally multiplied by 100.
+         *
+         * @param rk  The RK number
+         *
+         * @return The value
+         */
+        private double rkNumber(final int rk) {
+            final double value = ((rk & RK_INTEGER) != 0
+                                  ? (double) (rk >> 2)
+                                  : Double.longBitsToDouble(((long) (rk & ~(RK_INTEGER | RK_X100))) << Integer.SIZE));
+
+            return (rk & RK_X100) != 0 ? value / RK_DIVISOR : value;
+        }
+    }
+}
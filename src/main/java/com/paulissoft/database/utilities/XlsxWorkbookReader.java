@@ -0,0 +1,353 @@
+package com.paulissoft.database.utilities;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler.SheetContentsHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Reads an Office Open XML workbook (.xlsx) sheet by sheet with a SAX parser,
+ * so only the shared strings and styles are kept in memory and never a complete sheet.
+ *
+ * The parsing is done by POI's XSSFSheetXMLHandler, see also the XLSX2CSV example in the test tree.
+ * The formatted values it returns lose the cell type, so the cell elements are tracked
+ * here as well in order to report typed (raw) values to the sheet handler,
+ * exactly like the user model does.
+ */
+class XlsxWorkbookReader implements WorkbookReader {
+    /** The (minimum) average size of a cell element in a sheet part, e.g. &lt;c r="A1" t="s"&gt;&lt;v&gt;12&lt;/v&gt;&lt;/c&gt;. */
+    private static final int CELL_ELEMENT_SIZE = 40;
+
+    /** The package. */
+    private OPCPackage xlsxPackage = null;
+
+    /** The shared strings. */
+    private ReadOnlySharedStringsTable strings = null;
+
+    /** The styles. */
+    private StylesTable styles = null;
+
+    /** The number formats of the cell styles used by the numeric cells. */
+    private final StyleFormat.Cache styleFormats = new StyleFormat.Cache();
+
+    /** The sheet names. */
+    private List<String> sheetNames = new ArrayList<String>();
+
+    /** The sheet parts (in the same order as the sheet names). */
+    private List<PackagePart> sheetParts = new ArrayList<PackagePart>();
+
+    /**
+     * The constructor: only reads the workbook part.
+     * The shared strings and styles parts are read when the first sheet is read.
+     *
+     * @param pPackage  The package, opened read only
+     *
+     * @throws IOException  When the workbook can not be opened
+     */
+    XlsxWorkbookReader(final OPCPackage pPackage) throws IOException {
+        this.xlsxPackage = pPackage;
+
+        try {
+            final XSSFReader xssfReader = new XSSFReader(xlsxPackage);
+            final XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+
+            while (iter.hasNext()) {
+                iter.next().close();
+                sheetNames.add(iter.getSheetName());
+                sheetParts.add(iter.getSheetPart());
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    @Override
+    public void readSheet(final int sheetIndex, final SheetHandler handler) throws IOException {
+        if (strings == null) {
+            try {
+                strings = new ReadOnlySharedStringsTable(xlsxPackage);
+                styles = new XSSFReader(xlsxPackage).getStylesTable();
+            } catch (OpenXML4JException | SAXException e) {
+                throw new IOException(e);
+            }
+        }
+
+        try (InputStream stream = sheetParts.get(sheetIndex).getInputStream()) {
+            final XMLReader sheetParser = XMLHelper.newXMLReader();
+
+            sheetParser.setContentHandler(new SheetContents(handler));
+            sheetParser.parse(new InputSource(stream));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException("SAX parser appears to be broken - " + e.getMessage());
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read the ref attribute of the dimension element, which precedes the sheet data.
+     */
+    @Override
+    public CellRangeAddress getDimension(final int sheetIndex) throws IOException {
+        try (InputStream stream = sheetParts.get(sheetIndex).getInputStream()) {
+            final XMLStreamReader reader = XMLHelper.newXMLInputFactory().createXMLStreamReader(stream);
+
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (reader.getLocalName().equals("dimension")) {
+                        final String ref = reader.getAttributeValue(null, "ref");
+
+                        return ref == null || ref.isEmpty() ? null : CellRangeAddress.valueOf(ref);
+                    } else if (reader.getLocalName().equals("sheetData")) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+
+        return null;
+    }
+
+    @Override
+    public long estimateNrCells(final int sheetIndex) {
+        final long size = sheetParts.get(sheetIndex).getSize();
+
+        return size < 0 ? -1 : size / CELL_ELEMENT_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (xlsxPackage != null) {
+            xlsxPackage.revert(); // opened read only so nothing to save
+            xlsxPackage = null;
+        }
+    }
+
+    /**
+     * Passes the SAX events on to the XSSFSheetXMLHandler and converts its
+     * cells back to typed cells using the cell type, style and value of each cell element.
+     */
+    private final class SheetContents extends DefaultHandler implements SheetContentsHandler {
+        /** The handler to report to. */
+        private final SheetHandler handler;
+
+        /** The POI sheet handler that does the actual work. */
+        private final XSSFSheetXMLHandler xssfHandler;
+
+        /** The column index of the current cell. */
+        private int column = -1;
+
+        /** The type (t attribute) of the current cell. */
+        private String type = null;
+
+        /** The style index (s attribute) of the current cell. */
+        private String style = null;
+
+        /** Does the current cell contain a formula? */
+        private boolean isFormula = false;
+
+        /** Is the value element of the current cell open? */
+        private boolean isValueOpen = false;
+
+        /** The raw value of the current cell. */
+        private final StringBuilder value = new StringBuilder();
+
+        /** The formatted value of the current cell as returned by the XSSFSheetXMLHandler. */
+        private String formattedValue = null;
+
+        /**
+         * The constructor.
+         *
+         * @param pHandler  The handler to report to
+         */
+        SheetContents(final SheetHandler pHandler) {
+            this.handler = pHandler;
+            this.xssfHandler = new XSSFSheetXMLHandler(styles, null, strings, this, new DataFormatter(), false);
+        }
+
+        @Override
+        public void startElement(final String uri,
+                                 final String localName,
+                                 final String qName,
+                                 final Attributes attributes) throws SAXException {
+            switch (localName) {
+            case "row":
+                column = -1;
+                break;
+
+            case "c":
+                final String cellReference = attributes.getValue("r");
+
+                column = (cellReference != null ? new CellReference(cellReference).getCol() : column + 1);
+                type = attributes.getValue("t");
+                style = attributes.getValue("s");
+                isFormula = false;
+                value.setLength(0);
+                formattedValue = null;
+                break;
+
+            case "f":
+                isFormula = true;
+                break;
+
+            case "v":
+                isValueOpen = true;
+                break;
+
+            default:
+                break;
+            }
+
+            xssfHandler.startElement(uri, localName, qName, attributes);
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            if (isValueOpen) {
+                value.append(ch, start, length);
+            }
+
+            xssfHandler.characters(ch, start, length);
+        }
+
+        @Override
+        public void endElement(final String uri,
+                               final String localName,
+                               final String qName) throws SAXException {
+            xssfHandler.endElement(uri, localName, qName);
+
+            switch (localName) {
+            case "v":
+                isValueOpen = false;
+                break;
+
+            case "c":
+                endCell();
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        private void endCell() {
+            if (type == null || type.equals("n")) {
+                if (value.length() == 0) {
+                    handler.blankCell(column);
+                } else {
+                    numericCell(Double.parseDouble(value.toString()));
+                }
+                return;
+            }
+
+            switch (type) {
+            case "s":
+            case "inlineStr":
+                if (formattedValue == null) {
+                    handler.blankCell(column);
+                } else {
+                    handler.stringCell(column, formattedValue);
+                }
+                break;
+
+            case "b":
+                handler.booleanCell(column, value.length() > 0 && value.charAt(0) != '0');
+                break;
+
+            case "e":
+                if (!isFormula) {
+                    throw new RuntimeException("Cell Type of cell " + new CellReference(-1, column).formatAsString()
+                                               + " unknown: ERROR");
+                }
+                handler.errorCell(column);
+                break;
+
+            default: // "str" (a formula string result) or "d" (an ISO 8601 date)
+                handler.stringCell(column, value.toString());
+                break;
+            }
+        }
+
+        private void numericCell(final double numericValue) {
+            final int styleIndex = (style != null ? Integer.parseInt(style) : 0);
+            StyleFormat format = styleFormats.get(styleIndex);
+
+            if (format == null) {
+                // the same style lookup as XSSFSheetXMLHandler and XSSFCell
+                XSSFCellStyle cellStyle = null;
+
+                if (styles != null && (style != null || styles.getNumCellStyles() > 0)) {
+                    cellStyle = styles.getStyleAt(styleIndex);
+                }
+
+                if (cellStyle == null) {
+                    format = styleFormats.add(styleIndex, 0, BuiltinFormats.getBuiltinFormat(0));
+                } else {
+                    final int formatIndex = cellStyle.getDataFormat();
+                    final String formatString = cellStyle.getDataFormatString();
+
+                    format = styleFormats.add(styleIndex,
+                                              formatIndex,
+                                              formatString != null ? formatString : BuiltinFormats.getBuiltinFormat(formatIndex));
+                }
+            }
+
+            handler.numericCell(column, numericValue, format);
+        }
+
+        @Override
+        public void startRow(final int rowNum) {
+            handler.startRow(rowNum);
+        }
+
+        @Override
+        public void endRow(final int rowNum) {
+            handler.endRow(rowNum);
+        }
+
+        @Override
+        public void cell(final String cellReference, final String pFormattedValue, final XSSFComment comment) {
+            // an inline rich text string reports each text run
+            formattedValue = (formattedValue == null ? pFormattedValue : formattedValue + pFormattedValue);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the PostgreSQL binary COPY format, decoding the file as PostgreSQL would.
+ */
+public class BinaryCopyWriterTest {
+    /** The size of the header: the signature, the flags and the header extension length. */
+    private static final int HEADER_SIZE = 11 + 4 + 4;
+
+    /** The sign of a negative numeric. */
+    private static final int NUMERIC_NEG = 0x4000;
+
+    /** The base of a numeric digit. */
+    private static final BigDecimal NBASE = BigDecimal.valueOf(10000);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNumericLayout() throws IOException {
+        // number of digits, weight, sign, display scale and the base 10000 digits
+        assertNumeric("12345.678", 3, 1, 0, 3, 1, 2345, 6780);
+        assertNumeric("-12345.678", 3, 1, NUMERIC_NEG, 3, 1, 2345, 6780);
+        assertNumeric("0.0001", 1, -1, 0, 4, 1);
+        assertNumeric("0.00000001", 1, -2, 0, 8, 1);
+        assertNumeric("10000", 1, 1, 0, 0, 1);
+        assertNumeric("1.5", 2, 0, 0, 1, 1, 5000);
+        assertNumeric("0", 0, 0, 0, 0);
+        assertNumeric("-0", 0, 0, 0, 0);
+        assertNumeric("0.000", 0, 0, 0, 3);
+        assertNumeric("+7", 1, 0, 0, 0, 7);
+    }
+
+    @Test
+    public void testNumericRoundTrip() throws IOException {
+        final Random random = new Random(1);
+        final List<String> values = new ArrayList<String>();
+
+        for (int i = 0; i < 10000; i++) {
+            final BigDecimal number = new BigDecimal(random.nextLong()).movePointLeft(random.nextInt(30));
+
+            values.add(number.toPlainString());
+        }
+        values.add("123456789012345678901234567890.123456789");
+        values.add("-0.30000000000000004");
+
+        final List<byte[]> fields = write(values.toArray(new String[0]), BinaryCopyWriter.NUMERIC, false);
+
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(new BigDecimal(values.get(i)), decodeNumeric(fields.get(i)));
+        }
+    }
+
+    @Test
+    public void testNumericWithExponent() throws IOException {
+        assertEquals(0, new BigDecimal("1000").compareTo(decodeNumeric(write("1E+3"))));
+        assertEquals(new BigDecimal("0.0015"), decodeNumeric(write("1.5e-3")));
+    }
+
+    @Test
+    public void testNotANumber() throws IOException {
+        try {
+            write("12a");
+            fail("12a is not a number");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDate() throws IOException {
+        final List<byte[]> fields = write(new String[] {"2000-01-01", "1999-12-31", "2024-02-29", ""},
+                                          BinaryCopyWriter.DATE, false);
+
+        assertEquals(0, new DataInputStream(new ByteArrayInputStream(fields.get(0))).readInt());
+        assertEquals(-1, new DataInputStream(new ByteArrayInputStream(fields.get(1))).readInt());
+        assertEquals(8825, new DataInputStream(new ByteArrayInputStream(fields.get(2))).readInt());
+        assertNull(fields.get(3));
+    }
+
+    @Test
+    public void testTextCompressed() throws IOException {
+        final List<byte[]> fields = write(new String[] {"café", "", "a,\"b\"\n"}, BinaryCopyWriter.TEXT, true);
+
+        assertArrayEquals("café".getBytes("UTF-8"), fields.get(0));
+        assertNull(fields.get(1));
+        assertArrayEquals("a,\"b\"\n".getBytes("UTF-8"), fields.get(2));
+    }
+
+    private void assertNumeric(final String value, final int... expected) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(value)));
+        final int[] actual = new int[expected.length];
+
+        for (int i = 0; i < actual.length; i++) {
+            actual[i] = in.readShort();
+        }
+        assertArrayEquals(value, expected, actual);
+        assertEquals(value, 0, in.available());
+    }
+
+    private byte[] write(final String value) throws IOException {
+        return write(new String[] {value}, BinaryCopyWriter.NUMERIC, false).get(0);
+    }
+
+    /**
+     * Write each value as a tuple of one field and read the fields back.
+     *
+     * @return The bytes of the fields (null for NULL)
+     */
+    private List<byte[]> write(final String[] values, final byte type, final boolean gzip) throws IOException {
+        final File file = folder.newFile();
+        final long size;
+
+        try (BinaryCopyWriter writer = new BinaryCopyWriter(file.getPath(), false, gzip)) {
+            for (String value : values) {
+                writer.startTuple(1);
+                writer.writeField(value, type);
+            }
+            size = writer.getSize();
+        }
+
+        final List<byte[]> fields = new ArrayList<byte[]>();
+        final InputStream input = new BufferedInputStream(new FileInputStream(file));
+
+        try (DataInputStream in = new DataInputStream(gzip ? new GZIPInputStream(input) : input)) {
+            final byte[] header = new byte[HEADER_SIZE];
+
+            in.readFully(header);
+            assertEquals('P', header[0]);
+            for (short nrFields = in.readShort(); nrFields != -1; nrFields = in.readShort()) {
+                assertEquals(1, nrFields);
+
+                final int length = in.readInt();
+
+                if (length < 0) {
+                    fields.add(null);
+                } else {
+                    final byte[] field = new byte[length];
+
+                    in.readFully(field);
+                    fields.add(field);
+                }
+            }
+            assertEquals(-1, in.read());
+        }
+        if (!gzip) {
+            assertEquals(file.length() - Short.BYTES, size); // all but the trailer
+        }
+
+        return fields;
+    }
+
+    /**
+     * Decode a numeric field as PostgreSQL numeric_recv() does.
+     */
+    private static BigDecimal decodeNumeric(final byte[] field) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(field));
+        final int nrDigits = in.readShort();
+        final int weight = in.readShort();
+        final int sign = in.readShort();
+        final int scale = in.readShort();
+        BigDecimal number = BigDecimal.ZERO;
+
+        for (int d = 0; d < nrDigits; d++) {
+            final int digit = in.readShort();
+
+            if (digit < 0 || digit >= NBASE.intValue()) {
+                fail("Invalid digit " + digit);
+            }
+            number = number.add(BigDecimal.valueOf(digit).multiply(pow(weight - d)));
+        }
+        if (nrDigits > 0 && (in.available() > 0 || field.length != 8 + 2 * nrDigits)) {
+            fail("Invalid length " + field.length);
+        }
+
+        return (sign == NUMERIC_NEG ? number.negate() : number).setScale(scale);
+    }
+
+    private static BigDecimal pow(final int exponent) {
+        return exponent >= 0 ? NBASE.pow(exponent) : BigDecimal.ONE.divide(NBASE.pow(-exponent));
+    }
+}
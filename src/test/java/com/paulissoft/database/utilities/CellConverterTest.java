@@ -0,0 +1,164 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the conversion of cell values to CSV values and the rendering of numbers and dates.
+ */
+public class CellConverterTest {
+    /** A date format. */
+    private static final StyleFormat DATE = new StyleFormat(14, "m/d/yy");
+
+    private Settings settings;
+
+    private CellConverter converter;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        converter = new CellConverter(settings, new Table("T", settings));
+    }
+
+    @Test
+    public void testPlainValueIsNotCopied() {
+        final String value = "plain value";
+
+        assertSame(value, converter.getCsvValue(value));
+        assertEquals("", converter.getCsvValue(""));
+    }
+
+    @Test
+    public void testEnclosure() {
+        assertEquals("\"say \"\"hi\"\"\"", converter.getCsvValue("say \"hi\""));
+        assertEquals("\"\"\"\"", converter.getCsvValue("\""));
+    }
+
+    @Test
+    public void testSeparator() {
+        assertEquals("\"a,b\"", converter.getCsvValue("a,b"));
+        assertEquals("\",\"", converter.getCsvValue(","));
+    }
+
+    @Test
+    public void testLineBreaks() {
+        assertEquals("\"a\nb\"", converter.getCsvValue("a\nb"));
+        assertEquals("\"a\rb\"", converter.getCsvValue("a\rb"));
+        assertEquals("\"a\r\nb\"", converter.getCsvValue("a\r\nb"));
+    }
+
+    @Test
+    public void testAll() {
+        assertEquals("\"\"\"x\"\",\r\ny\"", converter.getCsvValue("\"x\",\r\ny"));
+    }
+
+    @Test
+    public void testMultiCharacterEnclosureAndSeparator() {
+        settings.enclosureString = "''";
+        settings.columnSeparator = ";;";
+        converter = new CellConverter(settings, new Table("T", settings));
+
+        assertEquals("a;b", converter.getCsvValue("a;b"));
+        assertEquals("''a;;b''", converter.getCsvValue("a;;b"));
+        assertEquals("''a''''b''", converter.getCsvValue("a''b"));
+        assertEquals("''a\nb''", converter.getCsvValue("a\nb"));
+    }
+
+    @Test
+    public void testSingleCharacterOtherThanDefault() {
+        settings.enclosureString = "'";
+        settings.columnSeparator = ";";
+        converter = new CellConverter(settings, new Table("T", settings));
+
+        assertEquals("a,\"b\"", converter.getCsvValue("a,\"b\""));
+        assertEquals("'a;''b'''", converter.getCsvValue("a;'b'"));
+    }
+
+    @Test
+    public void testNoEnclosure() {
+        settings.enclosureString = "";
+        converter = new CellConverter(settings, new Table("T", settings));
+
+        assertEquals("a,\"b\"\n", converter.getCsvValue("a,\"b\"\n"));
+    }
+
+    @Test
+    public void testRenderNumber() {
+        settings.rawNumbers = true;
+
+        assertNumber("0", 0, 1, 0);
+        assertNumber("0", -0.0, 1, 0);
+        assertNumber("42", 42, 2, 0);
+        assertNumber("-42", -42, 3, 0);
+        assertNumber("1.5", 1.5, 2, 1);
+        assertNumber("-0.1", -0.1, 3, 1);
+        assertNumber("0.30000000000000004", 0.1 + 0.2, 18, 17);
+        assertNumber("123456789012", 123456789012.0, 12, 0);
+        assertNumber("0.000001", 1e-6, 7, 6);
+        assertNumber("100000000000000000000", 1e20, 21, 0);
+    }
+
+    @Test
+    public void testRenderNumberParsesBack() {
+        final Random random = new Random(1);
+
+        settings.rawNumbers = true;
+        for (int i = 0; i < 100000; i++) {
+            final double number = (i % 2 == 0
+                                   ? Math.round(random.nextDouble() * 1e8) / 100.0 // amounts
+                                   : (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(30) - 10));
+            final String value = converter.getNumericValue(number, StyleFormat.GENERAL, new TableColumn(settings));
+
+            assertEquals(value, number, Double.parseDouble(value), 0);
+            assertEquals(value, new BigDecimal(value).stripTrailingZeros().toPlainString(),
+                         new BigDecimal(Double.toString(number)).stripTrailingZeros().toPlainString());
+        }
+    }
+
+    @Test
+    public void testRenderDate() {
+        assertEquals("1900-01-01", date(1));
+        assertEquals("1900-02-28", date(59));
+        assertEquals("1900-03-01", date(61));
+        assertEquals("2024-01-01", date(45292));
+        assertEquals("2024-01-01", date(45292.75)); // the time is dropped
+        assertEquals("2024-01-02", date(45292.999999999)); // rounded to the millisecond
+        assertEquals("9999-12-31", date(2958465));
+    }
+
+    @Test
+    public void testRenderDateLikeDateUtil() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+
+        for (int day = 61; day < 2958465; day += 37) {
+            final double excelDate = day + (day % 24) / 24.0;
+
+            assertEquals(format.format(DateUtil.getJavaDate(excelDate)), date(excelDate));
+        }
+    }
+
+    private void assertNumber(final String expected, final double number, final int length, final int precision) {
+        final TableColumn column = new TableColumn(settings);
+
+        assertEquals(expected, converter.getNumericValue(number, StyleFormat.GENERAL, column));
+        assertEquals("length of " + expected, length, column.getNumericLength());
+        assertEquals("precision of " + expected, precision, column.getNumericPrecision());
+    }
+
+    private String date(final double excelDate) {
+        final TableColumn column = new TableColumn(settings);
+        final String value = converter.getNumericValue(excelDate, DATE, column);
+
+        assertEquals(value.length(), column.getDateLength());
+
+        return value;
+    }
+}
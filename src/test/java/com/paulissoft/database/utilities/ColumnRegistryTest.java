@@ -0,0 +1,60 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.poi.ss.util.CellReference;
+import org.junit.Test;
+
+/**
+ * Tests the header names by column index and the Excel column names.
+ */
+public class ColumnRegistryTest {
+    @Test
+    public void testEmpty() {
+        final ColumnRegistry registry = new ColumnRegistry();
+
+        assertEquals(-1, registry.getMaxColumn());
+        assertNull(registry.get(0));
+        assertNull(registry.get(-1));
+        assertNull(registry.get(ColumnRegistry.MAX_COLUMNS));
+    }
+
+    @Test
+    public void testMultipleHeaderRows() {
+        final ColumnRegistry registry = new ColumnRegistry();
+
+        registry.add(1, "Total");
+        registry.add(1, "amount");
+        registry.add(0, "Id");
+
+        assertEquals("Id", registry.get(0));
+        assertEquals("Total amount", registry.get(1));
+        assertEquals(1, registry.getMaxColumn());
+    }
+
+    @Test
+    public void testWideSheet() {
+        final ColumnRegistry registry = new ColumnRegistry();
+        final int lastColumn = ColumnRegistry.MAX_COLUMNS - 1;
+
+        registry.add(lastColumn, "last");
+        registry.add(3, "fourth");
+
+        assertEquals("last", registry.get(lastColumn));
+        assertEquals("fourth", registry.get(3));
+        assertNull(registry.get(4));
+        assertEquals(lastColumn, registry.getMaxColumn());
+    }
+
+    @Test
+    public void testExcelColumnNames() {
+        assertEquals("A", ColumnRegistry.excelColumnName(0));
+        assertEquals("Z", ColumnRegistry.excelColumnName(25));
+        assertEquals("AA", ColumnRegistry.excelColumnName(26));
+        assertEquals("XFD", ColumnRegistry.excelColumnName(ColumnRegistry.MAX_COLUMNS - 1));
+        for (int column = 0; column < ColumnRegistry.MAX_COLUMNS + 1000; column++) {
+            assertEquals(CellReference.convertNumToColString(column), ColumnRegistry.excelColumnName(column));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * Times writing the same CSV rows the way they were written before (PrintStream.print per field,
+ * after the old check whether a value must be enclosed) and with CellConverter.getCsvValue and a CsvWriter.
+ *
+ * Not a unit test: run it on its own, e.g.
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     com.paulissoft.database.utilities.CsvWriterBenchmark 1000000 windows-1252
+ * </pre>
+ */
+public final class CsvWriterBenchmark {
+    /** The number of fields of a row. */
+    private static final int NR_COLUMNS = 10;
+
+    /** The number of rounds. */
+    private static final int NR_ROUNDS = 3;
+
+    /** The bytes in a megabyte. */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    private CsvWriterBenchmark() {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args  The number of rows (default 1,000,000) and the encoding (default windows-1252)
+     *
+     * @throws IOException  When a CSV file can not be written
+     */
+    public static void main(final String[] args) throws IOException {
+        final int nrRows = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+        final Settings settings = new Settings();
+
+        if (args.length > 1) {
+            settings.encoding = args[1];
+        }
+
+        final Table table = new Table("T", settings);
+        final CellConverter converter = new CellConverter(settings, table);
+        final File dir = Files.createTempDirectory("CsvWriterBenchmark").toFile();
+        final File printStreamFile = new File(dir, "printstream.csv");
+        final File csvWriterFile = new File(dir, "csvwriter.csv");
+
+        System.out.println(nrRows + " rows x " + NR_COLUMNS + " fields, " + settings.encoding);
+
+        try {
+            for (int round = 1; round <= NR_ROUNDS; round++) {
+                long start = System.nanoTime();
+
+                writePrintStream(printStreamFile, nrRows, settings.encoding, table);
+                report(round, "PrintStream", System.nanoTime() - start, printStreamFile);
+
+                start = System.nanoTime();
+                writeCsvWriter(csvWriterFile, nrRows, settings, table, converter);
+                report(round, "CsvWriter", System.nanoTime() - start, csvWriterFile);
+            }
+        } finally {
+            printStreamFile.delete();
+            csvWriterFile.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Write the rows as before: a PrintStream opened by TableGenerator.open and a print per field and separator.
+     */
+    private static void writePrintStream(final File file, final int nrRows, final String encoding, final Table table)
+        throws IOException {
+        final String separator = table.getFieldSeparator();
+
+        try (PrintStream out = TableGenerator.open(file.getPath(), encoding, false, false)) {
+            for (int r = 0; r < nrRows; r++) {
+                for (int c = 0; c < NR_COLUMNS; c++) {
+                    if (c > 0) {
+                        out.print(separator);
+                    }
+                    out.print(getOldCsvValue(value(r, c), table));
+                }
+                out.print(Settings.NL);
+            }
+        }
+    }
+
+    /**
+     * The check whether a value must be enclosed as it was before (the enclosures were not doubled).
+     */
+    private static String getOldCsvValue(final String value, final Table table) {
+        String csvValue = value;
+
+        csvValue.replace(table.getEnclosureString(), table.getEnclosureString() + table.getEnclosureString());
+        if (csvValue.contains(table.getEnclosureString())
+            || csvValue.contains(table.getFieldSeparator())
+            || csvValue.contains("\n")) {
+            csvValue = table.getEnclosureString() + csvValue + table.getEnclosureString();
+        }
+
+        return csvValue;
+    }
+
+    /**
+     * Write the rows as now: CellConverter.getCsvValue and a CsvWriter, a row at a time.
+     */
+    private static void writeCsvWriter(final File file,
+                                       final int nrRows,
+                                       final Settings settings,
+                                       final Table table,
+                                       final CellConverter converter) throws IOException {
+        final String separator = table.getFieldSeparator();
+        final StringBuilder row = new StringBuilder();
+
+        try (CsvWriter out = new CsvWriter(file.getPath(), settings)) {
+            for (int r = 0; r < nrRows; r++) {
+                row.setLength(0);
+                for (int c = 0; c < NR_COLUMNS; c++) {
+                    if (c > 0) {
+                        row.append(separator);
+                    }
+                    row.append(converter.getCsvValue(value(r, c)));
+                }
+                row.append(Settings.NL);
+                out.print(row);
+            }
+        }
+    }
+
+    /**
+     * A typical CSV value: numbers, dates, ASCII and accented strings, some with an enclosure or a separator.
+     */
+    private static String value(final int row, final int column) {
+        switch (column % 5) {
+        case 0:
+            return Integer.toString(row);
+        case 1:
+            return (row % 10 == 0 ? "name \"" + row + "\"" : "name " + row);
+        case 2:
+            return (row % 100000) + "." + (row % 100);
+        case 3:
+            return "2024-" + (10 + row % 3) + "-" + (10 + row % 19);
+        default:
+            return (row % 2 == 0 ? "Zürich, Genève" : "café crème");
+        }
+    }
+
+    private static void report(final int round, final String name, final long time, final File file) {
+        System.out.println(String.format("round %d %-11s %5.2f s (%.0f MB)", round, name, time / 1e9, file.length() / MEGABYTE));
+    }
+}
@@ -0,0 +1,179 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loads a small workbook into an embedded H2 database with JdbcLoader.execute().
+ */
+public class JdbcLoaderTest {
+    /** The names of the rows of the workbook: the last one does not fit a VARCHAR(3). */
+    private static final String[] NAMES = {"a1", "a2", "a3", "a4", "abcdef"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String url;
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws SQLException {
+        // the database lives till the last connection is closed: this one
+        url = "jdbc:h2:mem:" + System.nanoTime() + ";MODE=PostgreSQL";
+        connection = DriverManager.getConnection(url);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void testLoad() throws IOException, SQLException {
+        load(workbook(), 2, 3);
+
+        assertEquals(NAMES.length, count());
+        assertEquals(Types.VARCHAR, columnType("NAME"));
+        assertTrue(columnType("AMOUNT") == Types.NUMERIC || columnType("AMOUNT") == Types.DECIMAL);
+        assertEquals(Types.DATE, columnType("DAY"));
+
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT \"NAME\", \"AMOUNT\", \"DAY\" FROM \"Data\" ORDER BY \"NAME\"")) {
+            assertTrue(rs.next());
+            assertEquals("a1", rs.getString(1));
+            assertEquals(0, new BigDecimal("1.5").compareTo(rs.getBigDecimal(2)));
+            assertEquals(java.sql.Date.valueOf("2024-01-01"), rs.getDate(3));
+        }
+    }
+
+    @Test
+    public void testLoadAppends() throws IOException, SQLException {
+        final File workbook = workbook();
+
+        load(workbook, 2, 0);
+        load(workbook, 2, 0);
+
+        assertEquals(2 * NAMES.length, count());
+    }
+
+    @Test
+    public void testRollbackWithoutCommitInterval() throws IOException, SQLException {
+        createNarrowTable();
+
+        loadFails(workbook(), 2, 0);
+
+        // one transaction for the table: nothing is left
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void testRollbackWithCommitInterval() throws IOException, SQLException {
+        createNarrowTable();
+
+        loadFails(workbook(), 2, 2);
+
+        // the rows committed before the failing batch stay: a partial table
+        assertEquals(4, count());
+    }
+
+    private void load(final File workbook, final int batchSize, final int commitInterval) throws IOException {
+        final Settings settings = new Settings();
+
+        settings.verbose = 0;
+        settings.sqlDatabase = Settings.POSTGRESQL;
+        settings.spreadsheet = workbook.getPath();
+        settings.jdbcUrl = url;
+        settings.jdbcBatchSize = batchSize;
+        settings.jdbcCommitInterval = commitInterval;
+
+        new JdbcLoader(settings).execute();
+    }
+
+    private void loadFails(final File workbook, final int batchSize, final int commitInterval) {
+        try {
+            load(workbook, batchSize, commitInterval);
+            fail("The last name does not fit the table");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Could not load workbook"));
+        }
+    }
+
+    private void createNarrowTable() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE \"Data\" (\"NAME\" VARCHAR(3), \"AMOUNT\" DECIMAL, \"DAY\" DATE)");
+        }
+    }
+
+    private int count() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM \"Data\"")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private int columnType(final String name) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(null, null, "Data", name)) {
+            assertTrue("Column " + name, rs.next());
+            return rs.getInt("DATA_TYPE");
+        }
+    }
+
+    /**
+     * Create a workbook with a sheet Data with a header row and a row per name.
+     */
+    private File workbook() throws IOException {
+        final File file = folder.newFile("data.xlsx");
+
+        try (Workbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            final Sheet sheet = workbook.createSheet("Data");
+            final CellStyle dateStyle = workbook.createCellStyle();
+            final org.apache.poi.ss.usermodel.Row header = sheet.createRow(0);
+
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            header.createCell(0).setCellValue("NAME");
+            header.createCell(1).setCellValue("AMOUNT");
+            header.createCell(2).setCellValue("DAY");
+
+            for (int i = 0; i < NAMES.length; i++) {
+                final org.apache.poi.ss.usermodel.Row row = sheet.createRow(i + 1);
+                final Cell day = row.createCell(2);
+
+                row.createCell(0).setCellValue(NAMES[i]);
+                row.createCell(1).setCellValue(i + 1.5);
+                day.setCellValue(new GregorianCalendar(2024, Calendar.JANUARY, i + 1).getTime());
+                day.setCellStyle(dateStyle);
+            }
+            workbook.write(out);
+        }
+
+        return file;
+    }
+}
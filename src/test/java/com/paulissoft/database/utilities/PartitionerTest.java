@@ -0,0 +1,162 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the partitions of the values of a partition column and their bound specifications.
+ */
+public class PartitionerTest {
+    private Settings settings;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        settings.sqlDatabase = Settings.POSTGRESQL;
+        settings.partitionColumn = "C";
+    }
+
+    @Test
+    public void testListNumeric() {
+        final Partitioner partitioner = new Partitioner(settings, column(0, 5, 0), 0);
+
+        // formatted differently, the same number
+        assertEquals(0, partitioner.getPartition("10"));
+        assertEquals(0, partitioner.getPartition("10.0"));
+        assertEquals(0, partitioner.getPartition("10.00"));
+        assertEquals(0, partitioner.getPartition("1E+1"));
+        assertEquals(1, partitioner.getPartition("0.0"));
+        assertEquals(1, partitioner.getPartition("0"));
+        assertEquals(1, partitioner.getPartition("-0"));
+        assertEquals(2, partitioner.getPartition("10.5"));
+        assertEquals(3, partitioner.getPartition(""));
+        assertEquals(3, partitioner.getPartition(null));
+        assertEquals(4, partitioner.getNrPartitions());
+
+        assertEquals("FOR VALUES IN ('10')", partitioner.getValues(0));
+        assertEquals("FOR VALUES IN ('0')", partitioner.getValues(1));
+        assertEquals("FOR VALUES IN ('10.5')", partitioner.getValues(2));
+        assertEquals("FOR VALUES IN (NULL)", partitioner.getValues(3));
+        assertEquals("PARTITION BY LIST (\"C\")", partitioner.getPartitionBy());
+    }
+
+    @Test
+    public void testListDate() {
+        settings.sqlDatabase = Settings.ORACLE;
+
+        final Partitioner partitioner = new Partitioner(settings, column(0, 0, 10), 0);
+
+        assertEquals(0, partitioner.getPartition("2024-01-31"));
+        assertEquals(1, partitioner.getPartition("2024-02-01"));
+        assertEquals(0, partitioner.getPartition("2024-01-31"));
+        assertEquals("VALUES (DATE '2024-01-31')", partitioner.getValues(0));
+    }
+
+    @Test
+    public void testListString() {
+        final Partitioner partitioner = new Partitioner(settings, column(5, 0, 0), 0);
+
+        assertEquals(0, partitioner.getPartition("a"));
+        assertEquals(1, partitioner.getPartition("A"));
+        assertEquals(2, partitioner.getPartition("10"));
+        assertEquals(3, partitioner.getPartition("10.0"));
+        assertEquals(4, partitioner.getPartition("it's"));
+        assertEquals("FOR VALUES IN ('it''s')", partitioner.getValues(4));
+    }
+
+    @Test
+    public void testListNotANumber() {
+        final Partitioner partitioner = new Partitioner(settings, column(0, 5, 0), 0);
+
+        try {
+            partitioner.getPartition("$10");
+            fail("$10 is not a number");
+        } catch (RuntimeException e) {
+            assertEquals(true, e.getMessage().contains("is not a number"));
+        }
+    }
+
+    @Test
+    public void testTooManyPartitions() {
+        final Partitioner partitioner = new Partitioner(settings, column(0, 5, 0), 0);
+
+        for (int i = 0; i < Partitioner.MAX_PARTITIONS; i++) {
+            assertEquals(i, partitioner.getPartition(Integer.toString(i)));
+        }
+        try {
+            partitioner.getPartition("-1");
+            fail("Too many partitions");
+        } catch (RuntimeException e) {
+            assertEquals(true, e.getMessage().contains("distinct values"));
+        }
+    }
+
+    @Test
+    public void testRangeNumeric() {
+        settings.partitionBounds = Arrays.asList("10.0", "20");
+
+        final Partitioner partitioner = new Partitioner(settings, column(0, 5, 0), 0);
+
+        assertEquals(3, partitioner.getNrPartitions());
+        assertEquals(0, partitioner.getPartition("-5"));
+        assertEquals(0, partitioner.getPartition("9.99"));
+        assertEquals(1, partitioner.getPartition("10"));
+        assertEquals(1, partitioner.getPartition("10.000"));
+        assertEquals(1, partitioner.getPartition("19.5"));
+        assertEquals(2, partitioner.getPartition("20"));
+        assertEquals(2, partitioner.getPartition("100")); // not compared as text
+        assertEquals(2, partitioner.getPartition(""));
+
+        assertEquals("PARTITION BY RANGE (\"C\")", partitioner.getPartitionBy());
+        assertEquals("FOR VALUES FROM (MINVALUE) TO ('10')", partitioner.getValues(0));
+        assertEquals("FOR VALUES FROM ('10') TO ('20')", partitioner.getValues(1));
+        assertEquals("DEFAULT", partitioner.getValues(2));
+
+        settings.sqlDatabase = Settings.ORACLE;
+        assertEquals("VALUES LESS THAN ('10')", partitioner.getValues(0));
+        assertEquals("VALUES LESS THAN (MAXVALUE)", partitioner.getValues(2));
+    }
+
+    @Test
+    public void testRangeDate() {
+        settings.sqlDatabase = Settings.ORACLE;
+        settings.partitionBounds = Arrays.asList("2024-02-01");
+
+        final Partitioner partitioner = new Partitioner(settings, column(0, 0, 10), 0);
+
+        assertEquals(0, partitioner.getPartition("2024-01-31"));
+        assertEquals(1, partitioner.getPartition("2024-02-01"));
+        assertEquals(1, partitioner.getPartition("2024-12-01"));
+        assertEquals("VALUES LESS THAN (DATE '2024-02-01')", partitioner.getValues(0));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRangeString() {
+        settings.partitionBounds = Arrays.asList("m");
+
+        new Partitioner(settings, column(5, 0, 0), 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testRangeInvalidDate() {
+        settings.partitionBounds = Arrays.asList("2024-13-01");
+
+        new Partitioner(settings, column(0, 0, 10), 0);
+    }
+
+    private TableColumn column(final int stringLength, final int numericLength, final int dateLength) {
+        final TableColumn column = new TableColumn(settings);
+
+        column.setName("C");
+        column.setStringLength(stringLength);
+        column.setNumericLength(numericLength);
+        column.setDateLength(dateLength);
+
+        return column;
+    }
+}
@@ -0,0 +1,19 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.junit.Test;
+
+/**
+ * Tests the planner.
+ */
+public class PlannerTest {
+    @Test
+    public void testNrCells() {
+        assertEquals(1L, Planner.getNrCells(new CellRangeAddress(0, 0, 0, 0)));
+        assertEquals(6L, Planner.getNrCells(new CellRangeAddress(1, 2, 3, 5)));
+        // A1:XFD1048576 does not fit in an int
+        assertEquals(1048576L * 16384L, Planner.getNrCells(new CellRangeAddress(0, 1048575, 0, 16383)));
+    }
+}
@@ -0,0 +1,135 @@
+package com.paulissoft.database.utilities;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares the heap the data rows of a sheet take in a RowStore with a map per row (how they were kept before),
+ * and the time to fill them.
+ *
+ * Not a unit test: run it on its own, with enough heap for the maps, e.g.
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -Xmx2g -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     com.paulissoft.database.utilities.RowStoreBenchmark 1000000
+ * </pre>
+ */
+public final class RowStoreBenchmark {
+    /** The number of columns of a row. */
+    private static final int NR_COLUMNS = 10;
+
+    /** The bytes in a megabyte. */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    private RowStoreBenchmark() {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args  The number of rows (default 1,000,000)
+     */
+    public static void main(final String[] args) {
+        final int nrRows = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+        final long nrCells = (long) nrRows * NR_COLUMNS;
+
+        System.out.println(nrRows + " rows x " + NR_COLUMNS + " columns, " + countCharacters(nrRows) + " characters");
+
+        // a map per row, as the rows were kept before
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Map<Integer, Map<Integer, String>> maps = fillMaps(nrRows);
+        long time = System.nanoTime() - start;
+        long used = usedHeap() - before;
+
+        report("HashMap rows", used, nrCells, time, maps.size());
+        maps = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        RowStore rowStore = fillRowStore(nrRows);
+        time = System.nanoTime() - start;
+        used = usedHeap() - before;
+
+        report("RowStore", used, nrCells, time, rowStore.size());
+    }
+
+    private static Map<Integer, Map<Integer, String>> fillMaps(final int nrRows) {
+        final Map<Integer, Map<Integer, String>> rows = new HashMap<Integer, Map<Integer, String>>();
+
+        for (int r = 0; r < nrRows; r++) {
+            final Map<Integer, String> row = new HashMap<Integer, String>();
+
+            for (int c = 0; c < NR_COLUMNS; c++) {
+                row.put(c, value(r, c));
+            }
+            rows.put(r, row);
+        }
+
+        return rows;
+    }
+
+    private static RowStore fillRowStore(final int nrRows) {
+        final RowStore rowStore = new RowStore(0);
+
+        for (int r = 0; r < nrRows; r++) {
+            rowStore.startRow(r);
+            for (int c = 0; c < NR_COLUMNS; c++) {
+                rowStore.add(c, value(r, c));
+            }
+            rowStore.endRow();
+        }
+
+        return rowStore;
+    }
+
+    /**
+     * A typical CSV value: ids, names, amounts, dates and codes.
+     */
+    private static String value(final int row, final int column) {
+        switch (column % 5) {
+        case 0:
+            return Integer.toString(row);
+        case 1:
+            return "name " + row;
+        case 2:
+            return (row % 100000) + "." + (row % 100);
+        case 3:
+            return "2024-" + (10 + row % 3) + "-" + (10 + row % 19);
+        default:
+            return (row % 2 == 0 ? "north" : "south");
+        }
+    }
+
+    private static long countCharacters(final int nrRows) {
+        long nrCharacters = 0;
+
+        for (int r = 0; r < nrRows; r++) {
+            for (int c = 0; c < NR_COLUMNS; c++) {
+                nrCharacters += value(r, c).length();
+            }
+        }
+
+        return nrCharacters;
+    }
+
+    private static void report(final String name, final long used, final long nrCells, final long time, final int size) {
+        System.out.println(String.format("%-14s %8.1f MB (%6.1f bytes/cell), filled in %5.1f s (%d rows)",
+                                         name, used / MEGABYTE, (double) used / nrCells, time / 1e9, size));
+    }
+
+    /**
+     * The heap in use after garbage collection, that is the heap retained.
+     */
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        return used;
+    }
+}
@@ -0,0 +1,135 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the row store, in memory and spilled to disk.
+ */
+public class RowStoreTest {
+    /** The number of rows added. */
+    private static final int NR_ROWS = 1000;
+
+    @Test
+    public void testInMemory() throws IOException {
+        try (RowStore rowStore = new RowStore(0)) {
+            final List<String> expected = fill(rowStore);
+
+            assertEquals(expected.size(), rowStore.size());
+            assertEquals(expected, readBack(rowStore));
+        }
+    }
+
+    @Test
+    public void testSpillRoundTrip() throws IOException {
+        // a budget of a few rows: many batches
+        try (RowStore rowStore = new RowStore(1024)) {
+            final List<String> expected = fill(rowStore);
+
+            assertEquals(expected.size(), rowStore.size());
+            assertEquals(expected, readBack(rowStore));
+        }
+    }
+
+    @Test
+    public void testSpillPresized() throws IOException {
+        try (RowStore rowStore = new RowStore(4096, NR_ROWS, 4 * NR_ROWS)) {
+            final List<String> expected = fill(rowStore);
+
+            assertEquals(expected, readBack(rowStore));
+        }
+    }
+
+    @Test
+    public void testEmptyRowIsDiscarded() throws IOException {
+        try (RowStore rowStore = new RowStore(0)) {
+            rowStore.startRow(0);
+            rowStore.add(0, "");
+            assertFalse(rowStore.endRow());
+            rowStore.startRow(1);
+            rowStore.add(1, "x");
+            assertTrue(rowStore.endRow());
+
+            assertEquals(1, rowStore.size());
+            rowStore.rewind();
+            assertEquals(1, rowStore.getRowNumber(0));
+            assertEquals(1, rowStore.getNrCells(0));
+            assertEquals(1, rowStore.getColumn(0, 0));
+            assertEquals("x", rowStore.getValue(0, 0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowOrder() {
+        final RowStore rowStore = new RowStore(0);
+
+        rowStore.startRow(1);
+        rowStore.endRow();
+        rowStore.startRow(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testColumnOrder() {
+        final RowStore rowStore = new RowStore(0);
+
+        rowStore.startRow(0);
+        rowStore.add(2, "a");
+        rowStore.add(1, "b");
+    }
+
+    /**
+     * Add sparse rows with ISO-8859-1 and other characters, and every seventh row empty.
+     *
+     * @return The rows kept as row number: column=value ...
+     */
+    private static List<String> fill(final RowStore rowStore) {
+        final List<String> expected = new ArrayList<String>();
+
+        for (int r = 0; r < NR_ROWS; r++) {
+            final int rowNum = 2 * r + 1;
+            final StringBuilder row = new StringBuilder().append(rowNum).append(':');
+
+            rowStore.startRow(rowNum);
+            if (r % 7 == 0) {
+                rowStore.add(0, "");
+            } else {
+                for (int c = r % 3; c < 10; c += 3) {
+                    final String value = (c % 2 == 0 ? "café " + r : "€中 " + r + "," + c);
+
+                    rowStore.add(c, value);
+                    row.append(' ').append(c).append('=').append(value);
+                }
+            }
+            if (rowStore.endRow()) {
+                expected.add(row.toString());
+            }
+        }
+
+        return expected;
+    }
+
+    private static List<String> readBack(final RowStore rowStore) throws IOException {
+        final List<String> actual = new ArrayList<String>();
+
+        rowStore.rewind();
+        do {
+            for (int row = 0; row < rowStore.getNrRows(); row++) {
+                final StringBuilder line = new StringBuilder().append(rowStore.getRowNumber(row)).append(':');
+
+                for (int cell = 0; cell < rowStore.getNrCells(row); cell++) {
+                    line.append(' ').append(rowStore.getColumn(row, cell)).append('=').append(rowStore.getValue(row, cell));
+                }
+                actual.add(line.toString());
+            }
+        } while (rowStore.nextBatch());
+
+        return actual;
+    }
+}
@@ -0,0 +1,47 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the number formats of the cell styles and their cache.
+ */
+public class StyleFormatTest {
+    @Test
+    public void testDateFormat() {
+        assertTrue(new StyleFormat(14, "m/d/yy").isDate());
+        assertTrue(new StyleFormat(164, "yyyy-mm-dd").isDate());
+        assertFalse(new StyleFormat(2, "0.00").isDate());
+        assertFalse(StyleFormat.GENERAL.isDate());
+        assertEquals("General", StyleFormat.GENERAL.getFormatString());
+    }
+
+    @Test
+    public void testCache() {
+        final StyleFormat.Cache cache = new StyleFormat.Cache();
+
+        assertNull(cache.get(3));
+        assertNull(cache.get(-1));
+
+        final StyleFormat format = cache.add(3, 164, "yyyy-mm-dd");
+
+        assertSame(format, cache.get(3));
+        assertEquals(164, format.getFormatIndex());
+        assertNull(cache.get(2));
+
+        // grows for a large style index
+        final StyleFormat last = cache.add(1000, 2, "0.00");
+
+        assertSame(last, cache.get(1000));
+        assertSame(format, cache.get(3));
+
+        // a cell without a style index is not cached
+        assertFalse(cache.add(-1, 0, "General").isDate());
+        assertNull(cache.get(-1));
+    }
+}
@@ -0,0 +1,113 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how the lengths of the values of a column determine its type, also when merged.
+ */
+public class TableColumnTest {
+    private Settings settings;
+
+    @Before
+    public void setUp() {
+        settings = new Settings();
+        settings.sqlDatabase = Settings.POSTGRESQL;
+    }
+
+    @Test
+    public void testTypes() {
+        assertEquals("VARCHAR(1)", column(0, 0, 0).getSqlType()); // no values
+        assertEquals("DECIMAL", column(0, 5, 0).getSqlType());
+        assertEquals(BigDecimal.class, column(0, 5, 0).getJavaType());
+        assertEquals("DATE", column(0, 0, 10).getSqlType());
+        assertEquals(LocalDate.class, column(0, 0, 10).getJavaType());
+        assertEquals("VARCHAR(7)", column(7, 5, 0).getSqlType());
+        // numbers and dates: the longest as a string
+        assertEquals("VARCHAR(10)", column(0, 5, 10).getSqlType());
+        assertEquals(String.class, column(0, 5, 10).getJavaType());
+    }
+
+    @Test
+    public void testMergeKeepsLongest() {
+        final TableColumn left = column(0, 5, 0);
+
+        left.merge(column(0, 3, 0));
+        assertEquals(5, left.getNumericLength());
+        assertEquals("DECIMAL", left.getSqlType());
+
+        left.merge(column(12, 0, 0));
+        assertEquals("VARCHAR(12)", left.getSqlType());
+    }
+
+    @Test
+    public void testMergeNumericAndDate() {
+        final TableColumn numbers = column(0, 4, 0);
+
+        numbers.merge(column(0, 0, 10));
+        assertEquals("VARCHAR(10)", numbers.getSqlType());
+    }
+
+    @Test
+    public void testMergeIntoEmpty() {
+        final TableColumn empty = column(0, 0, 0);
+
+        empty.merge(column(0, 0, 10));
+        assertEquals("DATE", empty.getSqlType());
+    }
+
+    @Test
+    public void testMergePrecisionOfLastNumber() {
+        final TableColumn left = column(0, 5, 0);
+
+        left.setNumericPrecision(2);
+
+        final TableColumn right = column(0, 3, 0);
+
+        right.setNumericPrecision(1);
+        left.merge(right);
+        assertEquals(1, left.getNumericPrecision());
+
+        // a range without numbers keeps the precision
+        left.merge(column(0, 0, 0));
+        assertEquals(1, left.getNumericPrecision());
+    }
+
+    @Test
+    public void testMergeEqualsSequential() {
+        final int[][] values = {{0, 3, 0}, {0, 7, 0}, {0, 0, 10}, {4, 0, 0}, {0, 2, 0}};
+
+        for (int split = 0; split <= values.length; split++) {
+            final TableColumn sequential = column(0, 0, 0);
+            final TableColumn left = column(0, 0, 0);
+            final TableColumn right = column(0, 0, 0);
+
+            for (int i = 0; i < values.length; i++) {
+                add(sequential, values[i]);
+                add(i < split ? left : right, values[i]);
+            }
+            left.merge(right);
+            assertEquals(sequential.getSqlType(), left.getSqlType());
+        }
+    }
+
+    private TableColumn column(final int stringLength, final int numericLength, final int dateLength) {
+        final TableColumn column = new TableColumn(settings);
+
+        column.setName("C");
+        add(column, new int[] {stringLength, numericLength, dateLength});
+
+        return column;
+    }
+
+    private static void add(final TableColumn column, final int[] lengths) {
+        column.setStringLength(lengths[0]);
+        column.setNumericLength(lengths[1]);
+        column.setDateLength(lengths[2]);
+    }
+}
@@ -0,0 +1,122 @@
+package com.paulissoft.database.utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Times the conversion of a wide sheet (up to 16,384 columns, XFD) with a streaming reader,
+ * with and without a header row.
+ *
+ * Not a unit test: run it on its own, e.g. for sparse rows up to XFD and for dense rows
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -Xmx1g -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     com.paulissoft.database.utilities.WideSheetBenchmark 100000 16
+ * java -Xmx1g -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *     com.paulissoft.database.utilities.WideSheetBenchmark 100 16384
+ * </pre>
+ * which printed on one CPU
+ * <pre>
+ * 100000 rows x 16 cells up to XFD, no header: 22.0 s (CSV 1473 MB)
+ * 100000 rows x 16 cells up to XFD, header: 13.8 s (CSV 1473 MB)
+ * 100 rows x 16384 cells up to XFD, no header: 15.7 s (CSV 7 MB)
+ * 100 rows x 16384 cells up to XFD, header: 11.1 s (CSV 7 MB)
+ * </pre>
+ * and 152.1 s, 39.6 s, 152.1 s and 16.6 s before the header names were kept in a ColumnRegistry.
+ */
+public final class WideSheetBenchmark {
+    private WideSheetBenchmark() {
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args  The number of data rows (default 100,000) and the number of cells per row, spread evenly up to XFD
+     *              (default 16)
+     *
+     * @throws Exception  When the workbook can not be written or converted
+     */
+    public static void main(final String[] args) throws Exception {
+        final int nrRows = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        final int nrCellsPerRow = (args.length > 1 ? Integer.parseInt(args[1]) : 16);
+        final File dir = Files.createTempDirectory("WideSheetBenchmark").toFile();
+
+        try {
+            for (boolean header : new boolean[] {false, true}) {
+                final File workbook = new File(dir, (header ? "header" : "noheader") + ".xlsx");
+                final File outputDir = new File(dir, (header ? "header" : "noheader"));
+
+                generate(workbook, nrRows, nrCellsPerRow, header);
+
+                final long start = System.nanoTime();
+
+                TableGenerator.main(new String[] {
+                        "--streaming",
+                        "--verbose", "0",
+                        "--header-row-from", (header ? "1" : "0"),
+                        "--header-row-till", (header ? "1" : "0"),
+                        "--output-dir", outputDir.getPath(),
+                        workbook.getPath()
+                    });
+                System.out.println(String.format("%d rows x %d cells up to XFD, %s: %.1f s (CSV %d MB)",
+                                                 nrRows, nrCellsPerRow, (header ? "header" : "no header"),
+                                                 (System.nanoTime() - start) / 1e9,
+                                                 new File(outputDir, "Data.csv").length() / (1024 * 1024)));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static void generate(final File file, final int nrRows, final int nrCellsPerRow, final boolean header)
+        throws IOException {
+        final int step = Math.max(ColumnRegistry.MAX_COLUMNS / nrCellsPerRow, 1);
+        final SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+
+        try (OutputStream out = new FileOutputStream(file)) {
+            final Sheet sheet = workbook.createSheet("Data");
+            int rowNum = 0;
+
+            if (header) {
+                final Row row = sheet.createRow(rowNum++);
+
+                for (int c = 0; c < nrCellsPerRow; c++) {
+                    row.createCell(c * step).setCellValue("column " + c);
+                }
+            }
+            for (int r = 0; r < nrRows; r++) {
+                final Row row = sheet.createRow(rowNum++);
+
+                for (int c = 0; c < nrCellsPerRow; c++) {
+                    if (c % 2 == 0) {
+                        row.createCell(c * step).setCellValue(r + c);
+                    } else {
+                        row.createCell(c * step).setCellValue("v" + r);
+                    }
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static void delete(final File file) {
+        final File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
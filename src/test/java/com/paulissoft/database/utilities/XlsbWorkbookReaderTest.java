@@ -0,0 +1,136 @@
+package com.paulissoft.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that an Excel binary workbook (src/test/resources/sample.xlsb) gives the same CSV and DDL
+ * as the same workbook saved as .xlsx.
+ *
+ * The sample has shared strings, an inline string, real and RK numbers (integer and times 100),
+ * booleans, a blank cell and numbers formatted as built-in dates, a custom date and 0.00.
+ */
+public class XlsbWorkbookReaderTest {
+    /** The CSV of the sample. */
+    private static final String CSV = "1,alpha,12.50,2024-01-31,true" + Settings.NL
+        + "2,\"beta, gamma\",100.00,2024-02-29,false" + Settings.NL
+        + "3,\"say \"\"hi\"\"\",0.01,2024-01-31,true" + Settings.NL
+        + "4,café,,1900-01-01,false" + Settings.NL;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameAsXlsx() throws IOException {
+        final File xlsb = new File(getClass().getResource("/sample.xlsb").getFile());
+        final File xlsx = writeXlsx(folder.newFile("sample.xlsx"));
+
+        for (String sqlDatabase : new String[] {Settings.ORACLE, Settings.POSTGRESQL}) {
+            final File xlsbDir = convert(xlsb, sqlDatabase);
+            final File xlsxDir = convert(xlsx, sqlDatabase);
+
+            assertEquals(CSV, read(new File(xlsbDir, "Data.csv")));
+            assertEquals(read(new File(xlsxDir, "Data.csv")), read(new File(xlsbDir, "Data.csv")));
+            // the Oracle directory is the output directory
+            assertEquals(read(new File(xlsxDir, "create.sql")).replace(xlsxDir.getPath(), "dir"),
+                         read(new File(xlsbDir, "create.sql")).replace(xlsbDir.getPath(), "dir"));
+        }
+    }
+
+    private File convert(final File spreadsheet, final String sqlDatabase) throws IOException {
+        final Settings settings = new Settings();
+
+        settings.verbose = 0;
+        settings.encoding = "UTF-8";
+        settings.sqlDatabase = sqlDatabase;
+        settings.outputDir = folder.newFolder().getPath();
+        settings.spreadsheet = spreadsheet.getPath();
+
+        new TableGenerator(settings).execute();
+
+        return new File(settings.outputDir);
+    }
+
+    /**
+     * Write the sample as .xlsx.
+     */
+    private static File writeXlsx(final File file) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = new FileOutputStream(file)) {
+            final Sheet sheet = workbook.createSheet("Data");
+            final CellStyle date = style(workbook, (short) 14);
+            final CellStyle isoDate = style(workbook, workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            final CellStyle amount = style(workbook, (short) 2);
+            final String[] names = {"id", "name", "amount", "when", "flag"};
+
+            Row row = sheet.createRow(0);
+            for (int c = 0; c < names.length; c++) {
+                row.createCell(c).setCellValue(names[c]);
+            }
+
+            row = sheet.createRow(1);
+            row.createCell(0).setCellValue(1);
+            row.createCell(1).setCellValue("alpha");
+            row.createCell(2).setCellValue(12.5);
+            row.getCell(2).setCellStyle(amount);
+            row.createCell(3).setCellValue(45322);
+            row.getCell(3).setCellStyle(date);
+            row.createCell(4).setCellValue(true);
+
+            row = sheet.createRow(2);
+            row.createCell(0).setCellValue(2);
+            row.createCell(1).setCellValue("beta, gamma");
+            row.createCell(2).setCellValue(100);
+            row.getCell(2).setCellStyle(amount);
+            row.createCell(3).setCellValue(45351);
+            row.getCell(3).setCellStyle(isoDate);
+            row.createCell(4).setCellValue(false);
+
+            row = sheet.createRow(3);
+            row.createCell(0).setCellValue(3);
+            row.createCell(1).setCellValue("say \"hi\"");
+            row.createCell(2).setCellValue(0.01);
+            row.getCell(2).setCellStyle(amount);
+            row.createCell(3).setCellValue(45322.75);
+            row.getCell(3).setCellStyle(date);
+            row.createCell(4).setCellValue(true);
+
+            row = sheet.createRow(4);
+            row.createCell(0).setCellValue(4);
+            row.createCell(1).setCellValue("café");
+            row.createCell(2);
+            row.createCell(3).setCellValue(1);
+            row.getCell(3).setCellStyle(date);
+            row.createCell(4).setCellValue(false);
+
+            workbook.write(out);
+        }
+
+        return file;
+    }
+
+    private static CellStyle style(final XSSFWorkbook workbook, final short format) {
+        final CellStyle style = workbook.createCellStyle();
+
+        style.setDataFormat(format);
+
+        return style;
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}